@@ -1,28 +1,46 @@
 package org.jaeger.tracing.addon.commands;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
-import org.jboss.forge.addon.dependencies.Dependency;
-import org.jboss.forge.addon.dependencies.builder.DependencyBuilder;
+import org.jaeger.tracing.addon.util.DependencyIndex;
+import org.jaeger.tracing.addon.util.MethodSpanWrapper;
 import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
 import org.jboss.forge.addon.parser.java.resources.JavaResource;
+import org.jboss.forge.addon.parser.java.resources.JavaResourceVisitor;
 import org.jboss.forge.addon.parser.java.ui.AbstractJavaSourceCommand;
 import org.jboss.forge.addon.projects.Project;
 import org.jboss.forge.addon.projects.ProjectFactory;
-import org.jboss.forge.addon.projects.facets.DependencyFacet;
+import org.jboss.forge.addon.resource.visit.VisitContext;
 import org.jboss.forge.addon.ui.context.UIBuilder;
 import org.jboss.forge.addon.ui.context.UIContext;
 import org.jboss.forge.addon.ui.context.UIExecutionContext;
 import org.jboss.forge.addon.ui.context.UIValidationContext;
 import org.jboss.forge.addon.ui.input.InputComponentFactory;
 import org.jboss.forge.addon.ui.input.UIInput;
+import org.jboss.forge.addon.ui.input.UISelectOne;
 import org.jboss.forge.addon.ui.metadata.UICommandMetadata;
 import org.jboss.forge.addon.ui.util.Metadata;
 import org.jboss.forge.addon.ui.util.Categories;
 import org.jboss.forge.addon.ui.result.Result;
 import org.jboss.forge.addon.ui.result.Results;
 import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.JavaType;
+import org.jboss.forge.roaster.model.Visibility;
 import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.JavaSource;
 import org.jboss.forge.roaster.model.source.MethodSource;
 
 @SuppressWarnings("unused")
@@ -33,6 +51,10 @@ public class JaegerAddAction extends AbstractJavaSourceCommand<JavaClassSource>
 
   private UIInput<String> traceEntity;
   private UIInput<String> named;
+  private UIInput<String> wrapNames;
+  private UIInput<String> wrapAnnotations;
+  private UISelectOne<String> wrapVisibility;
+  private UIInput<Boolean> noopFastPath;
 
 	@Override
 	public UICommandMetadata getMetadata(UIContext context) {
@@ -50,7 +72,7 @@ public class JaegerAddAction extends AbstractJavaSourceCommand<JavaClassSource>
 
     traceEntity = inputFactory.createInput("Entity to trace", String.class)
         .setLabel("Entity name").setRequired(true)
-        .setDescription("The name of the entity to trace");
+        .setDescription("The name of the entity to trace, or a package / glob like com.acme.rest.*Resource to wrap the selected methods of many");
 
     builder.add(traceEntity);
 
@@ -60,6 +82,23 @@ public class JaegerAddAction extends AbstractJavaSourceCommand<JavaClassSource>
 
     builder.add(named);
 
+    wrapNames = inputFactory.createInput("wrapNames", String.class)
+        .setLabel("Wrap methods named").setRequired(false)
+        .setDescription("Wrap existing methods whose name matches, e.g. find*|save* (optional)");
+    wrapAnnotations = inputFactory.createInput("wrapAnnotations", String.class)
+        .setLabel("Wrap methods annotated with").setRequired(false)
+        .setDescription("Wrap existing methods carrying one of these annotations, e.g. GET,POST (optional)");
+    wrapVisibility = inputFactory.createSelectOne("wrapVisibility", String.class)
+        .setLabel("Wrap methods with visibility").setRequired(false)
+        .setValueChoices(Arrays.asList("public", "protected", "package", "private"))
+        .setDescription("Wrap all existing methods with this visibility (optional)");
+
+    noopFastPath = inputFactory.createInput("noopFastPath", Boolean.class)
+        .setLabel("No-op fast path").setRequired(false).setDefaultValue(false)
+        .setDescription("Do not build spans at all while the tracer is a NoopTracer");
+
+    builder.add(wrapNames).add(wrapAnnotations).add(wrapVisibility).add(noopFastPath);
+
 	}
 
   @Override
@@ -86,79 +125,237 @@ public class JaegerAddAction extends AbstractJavaSourceCommand<JavaClassSource>
 	public Result execute(UIExecutionContext context) throws Exception {
 
     Project project = getSelectedProject(context);
+    JavaSourceFacet javaSourceFacet = project.getFacet(JavaSourceFacet.class);
+
+    boolean isJaxRs = DependencyIndex.get(context.getUIContext(), project)
+        .hasDirectDependency("io.opentracing.contrib", "opentracing-jaxrs2");
+
+    String spanName = named.getValue();
+    if (spanName == null || spanName.equals("")) {
+      spanName = "action";
+    }
+
+    MethodSpanWrapper wrapper = createWrapper();
 
     String value = traceEntity.getValue();
-    JavaClassSource source;
-    File file = new File(value);
+    if (isBulk(value, name -> javaSourceFacet.getPackage(name).exists())) {
+      return executeBulk(context, javaSourceFacet, value, wrapper);
+    }
 
-    JavaSourceFacet javaSourceFacet = project.getFacet(JavaSourceFacet.class);
+    JavaClassSource source;
     if (!value.contains(".")) {
-      value = project.getFacet(JavaSourceFacet.class).getBasePackage() + "." + value;
+      value = javaSourceFacet.getBasePackage() + "." + value;
     }
     JavaResource javaResource = javaSourceFacet.getJavaResource(value);
     if (!javaResource.exists()) {
 
       source = Roaster.create(JavaClassSource.class)
-          .setPackage(project.getFacet(JavaSourceFacet.class).getBasePackage())
+          .setPackage(javaSourceFacet.getBasePackage())
           .setName(traceEntity.getValue());
     } else {
       source = Roaster.parse(JavaClassSource.class, javaResource.getContents());
     }
 
-    boolean isJaxRs = false;
-    Dependency dependency = DependencyBuilder.create("io.opentracing.contrib")
-        				        .setArtifactId("opentracing-jaxrs2");
-    if (getSelectedProject(context).getFacet(DependencyFacet.class)
-      				.hasDirectDependency(dependency))
-
-    {
-      isJaxRs = true;
+    if (wrapper.hasSelection()) {
+      List<String> wrapped = wrapper.wrapMethods(source);
+      if (wrapped.isEmpty()) {
+        return Results.success("No method of " + source.getName() + " needed a span");
+      }
+      javaSourceFacet.saveJavaSource(source);
+      return Results.success("Wrapped " + String.join(", ", wrapped) + " of " + source.getName() + " in spans");
     }
 
+    addTracedAction(source, isJaxRs, spanName, wrapper);
+
+    javaSourceFacet.saveJavaSource(source);
+
+		return Results
+				.success("Command 'Jaeger: add traced action' successfully executed!");
+	}
+
+  static void addTracedAction(JavaClassSource source, boolean isJaxRs, String spanName, MethodSpanWrapper wrapper) {
     if (isJaxRs) {
       source.addImport("javax.ws.rs.GET");
       source.addImport("javax.ws.rs.Path");
     }
 
-    source.addImport("io.opentracing.ActiveSpan");
-    source.addImport("javax.inject.Inject");
-
-    source.addField().setName("tracer").setType("io.opentracing.Tracer")
-    		 .addAnnotation("Inject");
-
-    String spanName = named.getValue();
-    if (spanName == null || spanName.equals("")) {
-      spanName = "action";
+    String operation = wrapper.operationConstant(source, spanName, spanName);
+    if (!source.hasField("MY_TAG")) {
+      source.addField().setPrivate().setStatic(true).setFinal(true).setType(String.class)
+          .setName("MY_TAG").setStringInitializer("myTag");
+    }
+    if (!source.hasMethodSignature("isSampled", "ActiveSpan")) {
+      source.addMethod()
+          .setName("isSampled")
+          .setPrivate()
+          .setStatic(true)
+          .setReturnType(boolean.class)
+          .setBody("io.opentracing.SpanContext context = span.context();\n" +
+                   "return context instanceof com.uber.jaeger.SpanContext\n" +
+                   "    && ((com.uber.jaeger.SpanContext) context).isSampled();")
+          .addParameter("ActiveSpan", "span");
     }
 
+    boolean noopFastPath = wrapper.isNoopFastPath();
     MethodSource<JavaClassSource> action = source.addMethod();
     action.setName("action")
           .setPublic()
           .setReturnType("String")
-          .setBody("try (ActiveSpan span = tracer.buildSpan(\"" + spanName + "\").startActive()) {\n" +
+          .setBody(MethodSpanWrapper.openSpan("span", operation, noopFastPath) +
                    "\n" +
-                   "   span.setTag(\"myTag\",\"myVal\");\n" +
+                   "// Only compute tag values for spans that are recorded\n" +
+                   "if (" + (noopFastPath ? "span != null && " : "") + "isSampled(span)) {\n" +
+                   "   span.setTag(MY_TAG,\"myVal\");\n" +
+                   "}\n" +
                    "\n" +
                    "  System.out.println(\" TODO your code goes here.\");\n" +
                    "\n" +
-                   "  return \"Success  \";\n" +
-                   "    }");
+                   "  return \"Success  \";" +
+                   MethodSpanWrapper.closeSpan("span", noopFastPath));
     if (isJaxRs) {
       action.addAnnotation("GET");
       action.addAnnotation("Path").setLiteralValue("\"/" +spanName + "\"");
     }
+  }
 
+  private MethodSpanWrapper createWrapper() {
+    Set<String> annotations = new HashSet<>();
+    if (wrapAnnotations.getValue() != null) {
+      for (String annotation : wrapAnnotations.getValue().split(",")) {
+        annotation = annotation.trim();
+        if (annotation.startsWith("@")) {
+          annotation = annotation.substring(1);
+        }
+        if (!annotation.isEmpty()) {
+          annotations.add(annotation);
+        }
+      }
+    }
+    Visibility visibility = null;
+    if (wrapVisibility.getValue() != null) {
+      visibility = "package".equals(wrapVisibility.getValue())
+          ? Visibility.PACKAGE_PRIVATE : Visibility.valueOf(wrapVisibility.getValue().toUpperCase());
+    }
+    return new MethodSpanWrapper(wrapNames.getValue(), annotations, visibility,
+                                 Boolean.TRUE.equals(noopFastPath.getValue()));
+  }
+
+  /**
+   * A glob over fully qualified class names (* within a package, ** across packages)
+   * or the name of an existing package selects many classes at once.
+   */
+  static boolean isBulk(String value, Predicate<String> packageExists) {
+    if (value.contains("*") || value.contains("?")) {
+      return true;
+    }
+    return value.contains(".") && packageExists.test(value);
+  }
 
-    JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
-    facet.saveJavaSource(source);
+  private Result executeBulk(UIExecutionContext context, JavaSourceFacet facet, String value,
+                             MethodSpanWrapper wrapper) {
+    PrintStream out = context.getUIContext().getProvider().getOutput().out();
+    Pattern classNamePattern = toClassNamePattern(value.contains("*") || value.contains("?") ? value : value + ".*");
+
+    Path sourceDir = facet.getSourceDirectory().getUnderlyingResourceObject().toPath();
+    List<File> matches = new ArrayList<>();
+    facet.visitJavaSources(new JavaResourceVisitor() {
+      @Override
+      public void visit(VisitContext visitContext, JavaResource resource) {
+        File file = resource.getUnderlyingResourceObject();
+        if (classNamePattern.matcher(className(sourceDir, file.toPath())).matches()) {
+          matches.add(file);
+        }
+      }
+    });
+
+    List<String> unparsable = new ArrayList<>();
+    List<JavaClassSource> changed = wrapMethods(matches, wrapper, unparsable);
+
+    for (JavaClassSource source : changed) {
+      facet.saveJavaSource(source);
+      out.println("Instrumented " + source.getQualifiedName());
+    }
+    for (String file : unparsable) {
+      out.println("WARN: Could not parse " + file + ", left it alone");
+    }
 
-		return Results
-				.success("Command 'Jaeger: add traced action' successfully executed!");
-	}
+    return Results.success("Instrumented " + changed.size() + " of " + matches.size()
+                               + " classes matching '" + value + "'"
+                               + (unparsable.isEmpty() ? "" : ", " + unparsable.size() + " could not be parsed"));
+  }
+
+  /**
+   * com/acme/Orders.java below the source directory -> com.acme.Orders
+   */
+  static String className(Path sourceDir, Path file) {
+    String path = sourceDir.relativize(file).toString();
+    return path.substring(0, path.length() - ".java".length()).replace(File.separatorChar, '.');
+  }
+
+  /**
+   * Wraps the selected methods of the classes in the given files.
+   * @param unparsable gets the files that could not be read or have syntax errors
+   * @return the classes that were changed
+   */
+  static List<JavaClassSource> wrapMethods(List<File> files, MethodSpanWrapper wrapper, List<String> unparsable) {
+    List<String> failed = Collections.synchronizedList(new ArrayList<>());
+    // Parsing and changing the sources is independent per class
+    List<JavaClassSource> changed = files.parallelStream()
+        .map(file -> parseClass(file, failed))
+        .filter(Objects::nonNull)
+        .filter(source -> !wrapper.wrapMethods(source).isEmpty())
+        .collect(Collectors.toList());
+    failed.stream().sorted().forEach(unparsable::add);
+    return changed;
+  }
+
+  // Interfaces, enums and annotations are nothing to wrap and no failure
+  private static JavaClassSource parseClass(File file, List<String> failed) {
+    try {
+      JavaType<?> type = Roaster.parse(file);
+      if (type.isClass() && type instanceof JavaClassSource && !((JavaClassSource) type).hasSyntaxErrors()) {
+        return (JavaClassSource) type;
+      }
+      if (type instanceof JavaSource && ((JavaSource<?>) type).hasSyntaxErrors()) {
+        failed.add(file.getPath());
+      }
+    } catch (IOException | RuntimeException e) {
+      failed.add(file.getPath());
+    }
+    return null;
+  }
+
+  static Pattern toClassNamePattern(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+        regex.append(".*");
+        i++;
+      } else if (c == '*') {
+        regex.append("[^.]*");
+      } else if (c == '?') {
+        regex.append("[^.]");
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
 
   @Override
 	public void validate(UIValidationContext validator) {
 		// super.validate(validator); // TODO: Customise this generated block
+    String value = traceEntity.getValue();
+    if (value == null || createWrapper().hasSelection()) {
+      return;
+    }
+    // An action stub in every matching class is never what is wanted
+    JavaSourceFacet facet = getSelectedProject(validator.getUIContext()).getFacet(JavaSourceFacet.class);
+    if (isBulk(value, name -> facet.getPackage(name).exists())) {
+      validator.addValidationError(wrapNames, "Tracing many classes wraps their existing methods, "
+          + "select them by name, annotation or visibility");
+    }
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,338 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.jaeger.tracing.addon.util.WriteClassHelper.findPackageOf;
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeClassFromTemplate;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.inject.Inject;
+import javax.lang.model.SourceVersion;
+import org.apache.maven.model.Model;
+import org.jaeger.tracing.addon.util.MethodSpanWrapper;
+import org.jboss.forge.addon.dependencies.Dependency;
+import org.jboss.forge.addon.dependencies.builder.CoordinateBuilder;
+import org.jboss.forge.addon.dependencies.builder.DependencyBuilder;
+import org.jboss.forge.addon.maven.plugins.ConfigurationBuilder;
+import org.jboss.forge.addon.maven.plugins.ConfigurationElementBuilder;
+import org.jboss.forge.addon.maven.plugins.ExecutionBuilder;
+import org.jboss.forge.addon.maven.plugins.MavenPluginBuilder;
+import org.jboss.forge.addon.maven.profiles.ProfileBuilder;
+import org.jboss.forge.addon.maven.projects.MavenFacet;
+import org.jboss.forge.addon.maven.projects.MavenPluginFacet;
+import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
+import org.jboss.forge.addon.parser.java.resources.JavaResource;
+import org.jboss.forge.addon.parser.java.resources.JavaResourceVisitor;
+import org.jboss.forge.addon.projects.Project;
+import org.jboss.forge.addon.projects.ProjectFactory;
+import org.jboss.forge.addon.projects.ui.AbstractProjectCommand;
+import org.jboss.forge.addon.resource.visit.VisitContext;
+import org.jboss.forge.addon.ui.context.UIBuilder;
+import org.jboss.forge.addon.ui.context.UIContext;
+import org.jboss.forge.addon.ui.context.UIExecutionContext;
+import org.jboss.forge.addon.ui.metadata.UICommandMetadata;
+import org.jboss.forge.addon.ui.result.Result;
+import org.jboss.forge.addon.ui.result.Results;
+import org.jboss.forge.addon.ui.util.Categories;
+import org.jboss.forge.addon.ui.util.Metadata;
+import org.jboss.forge.roaster.model.JavaType;
+import org.jboss.forge.roaster.model.source.FieldSource;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.MethodSource;
+import org.jboss.forge.roaster.model.source.ParameterSource;
+
+/**
+ * Adds a JMH benchmark of the tracing overhead to the project, together with
+ * a Maven profile that runs it. Besides a synthetic call, the benchmark calls the
+ * methods of the project that are wrapped in spans, as far as it can call them
+ * without a container.
+ */
+public class JaegerBenchmarkCommand extends AbstractProjectCommand {
+
+  private static final String PROFILE_ID = "jaeger-benchmark";
+  private static final String JMH_VERSION = "1.19";
+
+  @Inject
+  private ProjectFactory projectFactory;
+
+  @Override
+  public UICommandMetadata getMetadata(UIContext context) {
+    return Metadata.forCommand(JaegerBenchmarkCommand.class)
+        .name("Jaeger: generate overhead benchmark")
+        .category(Categories.create("Tracing"));
+  }
+
+  @Override
+  public void initializeUI(UIBuilder builder) throws Exception {
+  }
+
+  @Override
+  protected boolean isProjectRequired() {
+    return true;
+  }
+
+  @Override
+  protected ProjectFactory getProjectFactory() {
+    return projectFactory;
+  }
+
+  @Override
+  public Result execute(UIExecutionContext context) throws Exception {
+    Project project = getSelectedProject(context);
+    JavaSourceFacet javaSourceFacet = project.getFacet(JavaSourceFacet.class);
+
+    // The benchmark measures the tracer as the application builds it, through the generated factory
+    String tracerPackage = findPackageOf(javaSourceFacet, "JaegerTracerFactory");
+    if (tracerPackage == null) {
+      return Results.fail("No JaegerTracerFactory found, run 'Jaeger Setup Tracing' first");
+    }
+
+    PrintStream out = context.getUIContext().getProvider().getOutput().out();
+    EntryPoints entryPoints = new EntryPoints();
+    javaSourceFacet.visitJavaSources(new JavaResourceVisitor() {
+      @Override
+      public void visit(VisitContext visitContext, JavaResource resource) {
+        try {
+          JavaType<?> type = resource.getJavaType();
+          if (type instanceof JavaClassSource) {
+            entryPoints.add((JavaClassSource) type);
+          }
+        } catch (FileNotFoundException e) {
+          // Gone in the meantime
+        }
+      }
+    });
+    for (String skipped : entryPoints.skipped) {
+      out.println("INFO: Not benchmarked: " + skipped);
+    }
+
+    Map<String, Object> model = new HashMap<>();
+    model.put("profileId", PROFILE_ID);
+    model.put("targets", entryPoints.targets);
+    model.put("entryPoints", entryPoints.methods);
+    model.put("skipped", entryPoints.skipped);
+    JavaClassSource benchmark = writeClassFromTemplate(tracerPackage, "TracingOverheadBenchmark.java.ftl", model,
+                                                       out);
+    javaSourceFacet.saveTestJavaSource(benchmark);
+
+    // Header parsing per propagation format, if the setup command generated the codecs
+    String propagationPackage = findPackageOf(javaSourceFacet, "TracePropagation");
+    if (propagationPackage != null) {
+      JavaClassSource propagationBenchmark = writeClassFromTemplate(
+          propagationPackage, "PropagationBenchmark.java.ftl", model, out);
+      javaSourceFacet.saveTestJavaSource(propagationBenchmark);
+    }
+
+    installBenchmarkProfile(project, benchmark.getQualifiedName());
+
+    return Results.success("Benchmark " + benchmark.getQualifiedName() + " of " + entryPoints.methods.size()
+                               + " traced methods added, run it with 'mvn -P" + PROFILE_ID + " verify'");
+  }
+
+  private void installBenchmarkProfile(Project project, String mainClass) {
+    MavenFacet maven = project.getFacet(MavenFacet.class);
+    Model pom = maven.getModel();
+    if (pom.getProfiles().stream().anyMatch(p -> PROFILE_ID.equals(p.getId()))) {
+      return;
+    }
+
+    ProfileBuilder profile = ProfileBuilder.create()
+        .setId(PROFILE_ID)
+        .addDependency(jmhDependency("jmh-core"))
+        .addDependency(jmhDependency("jmh-generator-annprocess"));
+    pom.addProfile(profile.getAsMavenProfile());
+    maven.setModel(pom);
+
+    // JMH forks its own JVMs, so it needs to run as a separate java process with the test classpath
+    MavenPluginBuilder plugin = MavenPluginBuilder.create()
+        .setCoordinate(CoordinateBuilder.create("org.codehaus.mojo:exec-maven-plugin:1.6.0"))
+        .addExecution(ExecutionBuilder.create()
+                          .setId("run-tracing-benchmark")
+                          .setPhase("integration-test")
+                          .addGoal("exec"));
+    ConfigurationBuilder configuration = ConfigurationBuilder.create(plugin);
+    configuration.createConfigurationElement("executable").setText("java");
+    configuration.createConfigurationElement("classpathScope").setText("test");
+    ConfigurationElementBuilder arguments = configuration.createConfigurationElement("arguments");
+    arguments.addChild("argument").setText("-classpath");
+    arguments.addChild("classpath");
+    arguments.addChild("argument").setText(mainClass);
+    plugin.setConfiguration(configuration);
+
+    project.getFacet(MavenPluginFacet.class).addPlugin(plugin, profile);
+  }
+
+  private Dependency jmhDependency(String artifactId) {
+    return DependencyBuilder.create("org.openjdk.jmh")
+        .setArtifactId(artifactId)
+        .setVersion(JMH_VERSION)
+        .setScopeType("test");
+  }
+
+  /**
+   * The methods wrapped in spans that the benchmark can call as they are: public methods
+   * taking primitives or strings, of public classes with a no-arg constructor that need
+   * nothing injected but the tracer. Anything else would need a container or test data,
+   * so it is listed as skipped, with the reason.
+   */
+  static class EntryPoints {
+
+    // Injection points the benchmark cannot fill in
+    private static final Set<String> INJECTED = new HashSet<>(Arrays.asList(
+        "Inject", "EJB", "Resource", "PersistenceContext", "PersistenceUnit", "Context", "Autowired"));
+
+    /** type and instance of each class to instantiate */
+    final List<Map<String, Object>> targets = new ArrayList<>();
+    /** instance, method, arguments, name and returnsValue of each benchmark */
+    final List<Map<String, Object>> methods = new ArrayList<>();
+    final List<String> skipped = new ArrayList<>();
+
+    // Members of the benchmark class, the generated ones must not hide them
+    private final Set<String> names = new HashSet<>(Arrays.asList(
+        "sampling", "reporting", "tokens", "tracer", "reporter", "sampler", "counter", "createTracer",
+        "clearReportedSpans", "closeTracer", "untraced", "traced", "tracedWithTag", "work", "isSampled",
+        "inject", "main"));
+
+    void add(JavaClassSource source) {
+      List<MethodSource<JavaClassSource>> wrapped = new ArrayList<>();
+      for (MethodSource<JavaClassSource> method : source.getMethods()) {
+        if (!method.isStatic() && MethodSpanWrapper.isWrapped(method)) {
+          wrapped.add(method);
+        }
+      }
+      if (wrapped.isEmpty()) {
+        return;
+      }
+      String problem = instantiationProblem(source);
+      if (problem != null) {
+        skipped.add(source.getQualifiedName() + " (" + problem + ")");
+        return;
+      }
+
+      String instance = uniqueName(decapitalize(source.getName()));
+      int added = 0;
+      for (MethodSource<JavaClassSource> method : wrapped) {
+        String arguments = arguments(method);
+        if (!method.isPublic() || arguments == null) {
+          skipped.add(source.getQualifiedName() + "." + method.getName()
+                          + (method.isPublic() ? " (takes arguments other than primitives or strings)" : " (not public)"));
+          continue;
+        }
+        Map<String, Object> entryPoint = new HashMap<>();
+        entryPoint.put("instance", instance);
+        entryPoint.put("method", method.getName());
+        entryPoint.put("arguments", arguments);
+        entryPoint.put("name", uniqueName(instance + capitalize(method.getName())));
+        entryPoint.put("returnsValue", !method.isReturnTypeVoid());
+        methods.add(entryPoint);
+        added++;
+      }
+      if (added > 0) {
+        Map<String, Object> target = new HashMap<>();
+        target.put("type", source.getQualifiedName());
+        target.put("instance", instance);
+        targets.add(target);
+      }
+    }
+
+    private static String instantiationProblem(JavaClassSource source) {
+      if (!source.isPublic() || source.isAbstract() || !source.getTypeVariables().isEmpty()) {
+        return "not a public, concrete, non generic class";
+      }
+      boolean hasConstructor = false;
+      boolean hasNoArgConstructor = false;
+      for (MethodSource<JavaClassSource> method : source.getMethods()) {
+        if (method.isConstructor()) {
+          hasConstructor = true;
+          hasNoArgConstructor |= method.isPublic() && method.getParameters().isEmpty();
+        }
+      }
+      if (hasConstructor && !hasNoArgConstructor) {
+        return "no public no-arg constructor";
+      }
+      FieldSource<JavaClassSource> tracer = source.getField("tracer");
+      if (tracer == null || tracer.isStatic() || !tracer.getType().getName().equals("Tracer")) {
+        return "no tracer field";
+      }
+      for (FieldSource<JavaClassSource> field : source.getFields()) {
+        if (!field.getName().equals("tracer") && field.getAnnotations().stream().anyMatch(a -> INJECTED.contains(a.getName()))) {
+          return "needs " + field.getName() + " injected";
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Literals to call the method with, or null if it takes arguments the benchmark cannot make up.
+     */
+    static String arguments(MethodSource<?> method) {
+      List<String> arguments = new ArrayList<>();
+      for (ParameterSource<?> parameter : method.getParameters()) {
+        if (parameter.isVarArgs() || parameter.getType().isArray()) {
+          return null;
+        }
+        String literal = literal(parameter.getType().getName());
+        if (literal == null) {
+          return null;
+        }
+        arguments.add(literal);
+      }
+      return String.join(", ", arguments);
+    }
+
+    private static String literal(String type) {
+      switch (type) {
+        case "boolean":
+        case "Boolean":
+          return "true";
+        case "char":
+        case "Character":
+          return "'x'";
+        case "byte":
+        case "Byte":
+          return "(byte) 1";
+        case "short":
+        case "Short":
+          return "(short) 1";
+        case "int":
+        case "Integer":
+          return "1";
+        case "long":
+        case "Long":
+          return "1L";
+        case "float":
+        case "Float":
+          return "1f";
+        case "double":
+        case "Double":
+          return "1d";
+        case "String":
+          return "\"benchmark\"";
+        default:
+          return null;
+      }
+    }
+
+    private String uniqueName(String name) {
+      String unique = name;
+      for (int i = 2; SourceVersion.isKeyword(unique) || !names.add(unique); i++) {
+        unique = name + i;
+      }
+      return unique;
+    }
+
+    private static String decapitalize(String name) {
+      return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String capitalize(String name) {
+      return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package org.jaeger.tracing.addon.commands;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
+import org.jaeger.tracing.addon.util.TracingCostAnalyzer;
+import org.jaeger.tracing.addon.util.TracingCostAnalyzer.Finding;
+import org.jaeger.tracing.addon.util.TracingCostAnalyzer.Kind;
+import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
+import org.jboss.forge.addon.projects.Project;
+import org.jboss.forge.addon.projects.ProjectFactory;
+import org.jboss.forge.addon.projects.ui.AbstractProjectCommand;
+import org.jboss.forge.addon.ui.context.UIBuilder;
+import org.jboss.forge.addon.ui.context.UIContext;
+import org.jboss.forge.addon.ui.context.UIExecutionContext;
+import org.jboss.forge.addon.ui.input.UIInput;
+import org.jboss.forge.addon.ui.metadata.UICommandMetadata;
+import org.jboss.forge.addon.ui.metadata.WithAttributes;
+import org.jboss.forge.addon.ui.result.Result;
+import org.jboss.forge.addon.ui.result.Results;
+import org.jboss.forge.addon.ui.util.Categories;
+import org.jboss.forge.addon.ui.util.Metadata;
+
+/**
+ * Reports span code of the project that costs more than it needs to, the code
+ * generated by 'Jaeger: add traced action' as well as hand-written code.
+ * The most costly findings come first.
+ */
+public class JaegerCostReportCommand extends AbstractProjectCommand {
+
+  @Inject
+  private ProjectFactory projectFactory;
+
+  @Inject
+  @WithAttributes(label = "Include test sources", defaultValue = "false")
+  private UIInput<Boolean> includeTestsInput;
+
+  @Override
+  public UICommandMetadata getMetadata(UIContext context) {
+    return Metadata.forCommand(JaegerCostReportCommand.class)
+        .name("Jaeger: tracing cost report")
+        .category(Categories.create("Tracing"));
+  }
+
+  @Override
+  public void initializeUI(UIBuilder builder) throws Exception {
+    builder.add(includeTestsInput);
+  }
+
+  @Override
+  protected boolean isProjectRequired() {
+    return true;
+  }
+
+  @Override
+  protected ProjectFactory getProjectFactory() {
+    return projectFactory;
+  }
+
+  @Override
+  public Result execute(UIExecutionContext context) throws Exception {
+    Project project = getSelectedProject(context);
+    JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
+    PrintStream out = context.getUIContext().getProvider().getOutput().out();
+
+    List<File> sourceDirs = new ArrayList<>();
+    sourceDirs.add(facet.getSourceDirectory().getUnderlyingResourceObject());
+    if (Boolean.TRUE.equals(includeTestsInput.getValue())) {
+      sourceDirs.add(facet.getTestSourceDirectory().getUnderlyingResourceObject());
+    }
+
+    List<Finding> findings = TracingCostAnalyzer.analyze(sourceDirs);
+    if (findings.isEmpty()) {
+      return Results.success("No costly span placement found");
+    }
+
+    Map<Kind, Integer> counts = new EnumMap<>(Kind.class);
+    int rank = 1;
+    for (Finding finding : findings) {
+      out.println(String.format("%3d. [%s] %s", rank++, finding.getKind(), finding));
+      counts.merge(finding.getKind(), 1, Integer::sum);
+    }
+    out.println();
+    counts.forEach((kind, count) -> out.println(String.format("%-16s %4d", kind, count)));
+
+    return Results.success(findings.size() + " costly span placements found");
+  }
+}
@@ -0,0 +1,178 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.jaeger.tracing.addon.util.WriteClassHelper.findPackageOf;
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeClassFromTemplate;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.inject.Inject;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Profile;
+import org.jboss.forge.addon.dependencies.builder.CoordinateBuilder;
+import org.jboss.forge.addon.maven.plugins.ConfigurationBuilder;
+import org.jboss.forge.addon.maven.plugins.ConfigurationElementBuilder;
+import org.jboss.forge.addon.maven.plugins.ExecutionBuilder;
+import org.jboss.forge.addon.maven.plugins.MavenPluginBuilder;
+import org.jboss.forge.addon.maven.profiles.ProfileBuilder;
+import org.jboss.forge.addon.maven.projects.MavenFacet;
+import org.jboss.forge.addon.maven.projects.MavenPluginFacet;
+import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
+import org.jboss.forge.addon.projects.Project;
+import org.jboss.forge.addon.projects.ProjectFactory;
+import org.jboss.forge.addon.projects.ui.AbstractProjectCommand;
+import org.jboss.forge.addon.ui.context.UIBuilder;
+import org.jboss.forge.addon.ui.context.UIContext;
+import org.jboss.forge.addon.ui.context.UIExecutionContext;
+import org.jboss.forge.addon.ui.context.UIValidationContext;
+import org.jboss.forge.addon.ui.input.UIInput;
+import org.jboss.forge.addon.ui.metadata.UICommandMetadata;
+import org.jboss.forge.addon.ui.metadata.WithAttributes;
+import org.jboss.forge.addon.ui.result.Result;
+import org.jboss.forge.addon.ui.result.Results;
+import org.jboss.forge.addon.ui.util.Categories;
+import org.jboss.forge.addon.ui.util.Metadata;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+
+/**
+ * Adds a load test of the tracer generated by 'Jaeger Setup Tracing' to the project:
+ * an in-process fake collector and a harness that sends spans at a given rate through
+ * the tracer to it, together with a Maven profile that runs it and fails the build when
+ * spans are lost or arrive too late.
+ */
+public class JaegerLoadTestCommand extends AbstractProjectCommand {
+
+  private static final String PROFILE_ID = "jaeger-load-test";
+
+  @Inject
+  private ProjectFactory projectFactory;
+
+  @Inject
+  @WithAttributes(label = "Spans per second", defaultValue = "1000")
+  private UIInput<Integer> spansPerSecondInput;
+
+  @Inject
+  @WithAttributes(label = "Duration (s)", defaultValue = "60")
+  private UIInput<Integer> secondsInput;
+
+  @Inject
+  @WithAttributes(label = "Maximum span loss", defaultValue = "0.001",
+      description = "Share of the spans that may be lost before the load test fails")
+  private UIInput<String> maxLossInput;
+
+  @Override
+  public UICommandMetadata getMetadata(UIContext context) {
+    return Metadata.forCommand(JaegerLoadTestCommand.class)
+        .name("Jaeger: generate load test")
+        .category(Categories.create("Tracing"));
+  }
+
+  @Override
+  public void initializeUI(UIBuilder builder) throws Exception {
+    builder.add(spansPerSecondInput).add(secondsInput).add(maxLossInput);
+  }
+
+  @Override
+  public void validate(UIValidationContext validator) {
+    if (spansPerSecondInput.getValue() == null || spansPerSecondInput.getValue() <= 0) {
+      validator.addValidationError(spansPerSecondInput, "The load test needs at least one span per second");
+    }
+    if (secondsInput.getValue() == null || secondsInput.getValue() <= 0) {
+      validator.addValidationError(secondsInput, "The load test needs to run at least a second");
+    }
+    try {
+      double maxLoss = Double.parseDouble(maxLossInput.getValue());
+      if (maxLoss < 0 || maxLoss > 1) {
+        validator.addValidationError(maxLossInput, "The maximum span loss must be between 0 and 1");
+      }
+    } catch (NumberFormatException | NullPointerException e) {
+      validator.addValidationError(maxLossInput, "The maximum span loss must be a number");
+    }
+  }
+
+  @Override
+  protected boolean isProjectRequired() {
+    return true;
+  }
+
+  @Override
+  protected ProjectFactory getProjectFactory() {
+    return projectFactory;
+  }
+
+  @Override
+  public Result execute(UIExecutionContext context) throws Exception {
+    Project project = getSelectedProject(context);
+    JavaSourceFacet javaSourceFacet = project.getFacet(JavaSourceFacet.class);
+    PrintStream out = context.getUIContext().getProvider().getOutput().out();
+
+    // The harness builds the tracer like the application does, through the generated factory
+    String tracerPackage = findPackageOf(javaSourceFacet, "JaegerTracerFactory");
+    if (tracerPackage == null) {
+      return Results.fail("No JaegerTracerFactory found, run 'Jaeger Setup Tracing' first");
+    }
+
+    Map<String, Object> model = new HashMap<>();
+    model.put("profileId", PROFILE_ID);
+    model.put("loadSpansPerSecond", String.valueOf(spansPerSecondInput.getValue()));
+    model.put("loadSeconds", String.valueOf(secondsInput.getValue()));
+    model.put("loadMaxLoss", maxLossInput.getValue());
+    javaSourceFacet.saveTestJavaSource(writeClassFromTemplate(tracerPackage, "FakeCollector.java.ftl", model, out));
+    JavaClassSource loadTest = writeClassFromTemplate(tracerPackage, "TracerLoadTest.java.ftl", model, out);
+    javaSourceFacet.saveTestJavaSource(loadTest);
+
+    installLoadTestProfile(project, loadTest.getQualifiedName());
+
+    return Results.success("Load test " + loadTest.getQualifiedName() + " added, run it with 'mvn -P"
+                               + PROFILE_ID + " verify'");
+  }
+
+  private void installLoadTestProfile(Project project, String mainClass) {
+    MavenFacet maven = project.getFacet(MavenFacet.class);
+    Model pom = maven.getModel();
+    Optional<Profile> existing = pom.getProfiles().stream().filter(p -> PROFILE_ID.equals(p.getId())).findFirst();
+    if (existing.isPresent()) {
+      // Generated before, only the limits change
+      limits().forEach(existing.get().getProperties()::setProperty);
+      maven.setModel(pom);
+      return;
+    }
+
+    ProfileBuilder profile = ProfileBuilder.create().setId(PROFILE_ID);
+    limits().forEach(profile::addProperty);
+    pom.addProfile(profile.getAsMavenProfile());
+    maven.setModel(pom);
+
+    // Runs as a java process of its own, so the -D limits are system properties of the harness
+    MavenPluginBuilder plugin = MavenPluginBuilder.create()
+        .setCoordinate(CoordinateBuilder.create("org.codehaus.mojo:exec-maven-plugin:1.6.0"))
+        .addExecution(ExecutionBuilder.create()
+                          .setId("run-tracer-load-test")
+                          .setPhase("integration-test")
+                          .addGoal("exec"));
+    ConfigurationBuilder configuration = ConfigurationBuilder.create(plugin);
+    configuration.createConfigurationElement("executable").setText("java");
+    configuration.createConfigurationElement("classpathScope").setText("test");
+    ConfigurationElementBuilder arguments = configuration.createConfigurationElement("arguments");
+    arguments.addChild("argument").setText("-Dspans=${tracing.load.spans}");
+    arguments.addChild("argument").setText("-Dseconds=${tracing.load.seconds}");
+    arguments.addChild("argument").setText("-DmaxLoss=${tracing.load.maxLoss}");
+    arguments.addChild("argument").setText("-classpath");
+    arguments.addChild("classpath");
+    arguments.addChild("argument").setText(mainClass);
+    plugin.setConfiguration(configuration);
+
+    project.getFacet(MavenPluginFacet.class).addPlugin(plugin, profile);
+  }
+
+  // Profile properties, overridable on the command line, e.g. -Dtracing.load.spans=5000
+  private Map<String, String> limits() {
+    Map<String, String> limits = new LinkedHashMap<>();
+    limits.put("tracing.load.spans", String.valueOf(spansPerSecondInput.getValue()));
+    limits.put("tracing.load.seconds", String.valueOf(secondsInput.getValue()));
+    limits.put("tracing.load.maxLoss", maxLossInput.getValue());
+    return limits;
+  }
+}
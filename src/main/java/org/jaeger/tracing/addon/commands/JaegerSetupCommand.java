@@ -1,30 +1,49 @@
 package org.jaeger.tracing.addon.commands;
 
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeAnnotationFromTemplate;
 import static org.jaeger.tracing.addon.util.WriteClassHelper.writeClassFromTemplate;
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeInterfaceFromTemplate;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.inject.Inject;
 import me.gastaldi.forge.reflections.facet.ReflectionsFacet;
+import org.apache.maven.model.Model;
+import org.jaeger.tracing.addon.util.DependencyChangeSet;
+import org.jaeger.tracing.addon.util.DependencyIndex;
+import org.jaeger.tracing.addon.util.DeploymentSizing;
+import org.jaeger.tracing.addon.util.SourceAnnotationIndex;
+import org.jaeger.tracing.addon.util.StepTimer;
 import org.jboss.forge.addon.dependencies.Dependency;
 import org.jboss.forge.addon.dependencies.builder.DependencyBuilder;
 import org.jboss.forge.addon.facets.FacetFactory;
+import org.jboss.forge.addon.maven.projects.MavenFacet;
 import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
 import org.jboss.forge.addon.parser.yaml.resource.YamlResource;
 import org.jboss.forge.addon.projects.Project;
 import org.jboss.forge.addon.projects.ProjectFactory;
-import org.jboss.forge.addon.projects.dependencies.DependencyInstaller;
-import org.jboss.forge.addon.projects.facets.DependencyFacet;
 import org.jboss.forge.addon.projects.facets.ResourcesFacet;
+import org.jboss.forge.addon.projects.facets.WebResourcesFacet;
 import org.jboss.forge.addon.projects.ui.AbstractProjectCommand;
 import org.jboss.forge.addon.resource.FileResource;
 import org.jboss.forge.addon.resource.Resource;
@@ -32,6 +51,8 @@ import org.jboss.forge.addon.resource.ResourceFactory;
 import org.jboss.forge.addon.ui.context.UIBuilder;
 import org.jboss.forge.addon.ui.context.UIContext;
 import org.jboss.forge.addon.ui.context.UIExecutionContext;
+import org.jboss.forge.addon.ui.context.UIValidationContext;
+import org.jboss.forge.addon.ui.input.UIInput;
 import org.jboss.forge.addon.ui.input.UISelectOne;
 import org.jboss.forge.addon.ui.metadata.UICommandMetadata;
 import org.jboss.forge.addon.ui.metadata.WithAttributes;
@@ -46,7 +67,19 @@ import org.reflections.Reflections;
 public class JaegerSetupCommand extends AbstractProjectCommand {
 
   private static final String IO_OPENTRACING_CONTRIB_GROUP_ID = "io.opentracing.contrib";
+  private static final String SPRING_BOOT_APPLICATION = "org.springframework.boot.autoconfigure.SpringBootApplication";
+  private static final String ANNOTATION_INDEX_CACHE = "target/jaeger-addon/source-annotations.idx";
   private String [] technologies = {"jax-rs","spring-boot","vert.x","ejb"};
+  private String [] samplerTypes = {"const","probabilistic","ratelimiting","remote","adaptive"};
+  private String [] senderTypes = {"agent-sidecar","http"};
+  private String [] redMetricsExposures = {"none","jmx","prometheus","jmx,prometheus"};
+  private String [] tracerStartups = {"eager","first-span","warm-up"};
+  private String [] propagationFormats = {"jaeger","b3","w3c"};
+  private static final String AGENT_CONTAINER_NAME = "jaeger-agent";
+  // A fixed release, later ones renamed --collector.host-port; speaks TChannel to the collector like the 0.20 clients
+  private static final String AGENT_IMAGE = "jaegertracing/jaeger-agent:1.2.0";
+  private static final Pattern HOST_PORT =
+      Pattern.compile("(?:\\[[0-9A-Fa-f:.]+\\]|[A-Za-z0-9](?:[A-Za-z0-9.-]*[A-Za-z0-9])?):([0-9]{1,5})");
 
 	@Inject
   private ProjectFactory projectFactory;
@@ -54,9 +87,6 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
   @Inject
   private FacetFactory facetFactory;
 
-	@Inject
-	private DependencyInstaller dependencyInstaller;
-
   @Inject
   private ResourceFactory resourceFactory;
 
@@ -64,6 +94,101 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
 	@WithAttributes(label = "Technology", required = true)
 	private UISelectOne<String> techInput;
 
+  @Inject
+  @WithAttributes(label = "Sampler type", defaultValue = "probabilistic",
+      description = "const, probabilistic, ratelimiting, remote (per operation strategies from the agent) "
+          + "or adaptive (probabilistic, lowered under reporter or CPU pressure)")
+  private UISelectOne<String> samplerTypeInput;
+
+  @Inject
+  @WithAttributes(label = "Sampler parameter",
+      description = "0/1 for const, the rate for probabilistic, traces per second for ratelimiting, "
+          + "the initial rate for remote, the rate without load for adaptive")
+  private UIInput<String> samplerParamInput;
+
+  @Inject
+  @WithAttributes(label = "Sampling manager host:port", defaultValue = "localhost:5778")
+  private UIInput<String> samplerManagerInput;
+
+  @Inject
+  @WithAttributes(label = "Span transport", defaultValue = "agent-sidecar",
+      description = "agent-sidecar: UDP to a jaeger-agent container in the pod, http: send to the collector "
+          + "directly (the HttpSender of jaeger-core 0.20 stops sending after the first batch the collector accepts)")
+  private UISelectOne<String> senderInput;
+
+  @Inject
+  @WithAttributes(label = "Reporter queue size", defaultValue = "100",
+      description = "Spans buffered before new ones are dropped")
+  private UIInput<Integer> reporterQueueSizeInput;
+
+  @Inject
+  @WithAttributes(label = "Reporter flush interval (ms)", defaultValue = "1000")
+  private UIInput<Integer> reporterFlushIntervalInput;
+
+  @Inject
+  @WithAttributes(label = "Reporter max packet size (bytes)", defaultValue = "65000",
+      description = "Upper bound for one batch of spans sent to the collector")
+  private UIInput<Integer> reporterMaxPacketSizeInput;
+
+  @Inject
+  @WithAttributes(label = "Expected sampled spans per second", defaultValue = "0",
+      description = "Sizes the reporter queue, flush interval and pod memory limit. 0 keeps the values given above and 250Mi")
+  private UIInput<Integer> spansPerSecondInput;
+
+  @Inject
+  @WithAttributes(label = "Average span size (bytes)", defaultValue = "500",
+      description = "Size of a reported span incl. tags and logs, used with the expected spans per second")
+  private UIInput<Integer> avgSpanSizeInput;
+
+  @Inject
+  @WithAttributes(label = "Only report traces slower than (ms)", defaultValue = "0",
+      description = "0 reports every sampled trace. Failing traces and the baseline sample are always reported")
+  private UIInput<Integer> filterLatencyInput;
+
+  @Inject
+  @WithAttributes(label = "Baseline rate of fast traces", defaultValue = "0.01",
+      description = "Share of fast traces reported anyway when filtering by latency")
+  private UIInput<String> filterBaselineInput;
+
+  @Inject
+  @WithAttributes(label = "Span metrics", defaultValue = "none",
+      description = "Exact rate, errors and duration per operation from all spans, sampled or not, via JMX and/or Prometheus")
+  private UISelectOne<String> redMetricsInput;
+
+  @Inject
+  @WithAttributes(label = "Tracer startup", defaultValue = "eager",
+      description = "eager builds the tracer at startup. first-span and warm-up build it in the background, "
+          + "on the first span or right away; spans are no-ops until then")
+  private UISelectOne<String> tracerStartupInput;
+
+  @Inject
+  @WithAttributes(label = "Propagation formats", defaultValue = "jaeger",
+      description = "Comma separated, any of jaeger, b3 and w3c. All are written, the first one found is read")
+  private UIInput<String> propagationInput;
+
+  @Inject
+  @WithAttributes(label = "Paths without spans", defaultValue = "/health/**,/metrics/**,/static/**,*.css,*.js,*.ico",
+      description = "Comma separated: /exact, /prefix/**, /prefix*, *.suffix. Changeable later with TRACING_SKIP_PATHS")
+  private UIInput<String> skipPathsInput;
+
+  @Inject
+  @WithAttributes(label = "Trace all EJB methods", defaultValue = "true",
+      description = "If unset, only beans and methods annotated with @EjbTraced are traced")
+  private UIInput<Boolean> ejbTraceAllInput;
+
+  @Inject
+  @WithAttributes(label = "Print timings as JSON", defaultValue = "false",
+      description = "Print the time spent in each setup phase as one line of JSON instead of a table")
+  private UIInput<Boolean> timingsAsJsonInput;
+
+  @Inject
+  @WithAttributes(label = "Set up all modules", defaultValue = "false",
+      description = "Set up every module of the reactor at once, with the technology detected per module")
+  private UIInput<Boolean> allModulesInput;
+
+  // Buffers and memory limit derived from the expected load, null if none was given
+  private DeploymentSizing sizing;
+
 	@Override
 	public UICommandMetadata getMetadata(UIContext context) {
 		return Metadata.forCommand(JaegerSetupCommand.class)
@@ -89,28 +214,105 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
 
     techInput.setValueChoices(techList);
 		builder.add(techInput);
+
+    samplerTypeInput.setValueChoices(Arrays.asList(samplerTypes));
+    samplerParamInput.setDefaultValue(() -> defaultSamplerParam(samplerTypeInput.getValue()));
+    builder.add(samplerTypeInput).add(samplerParamInput).add(samplerManagerInput);
+    senderInput.setValueChoices(Arrays.asList(senderTypes));
+    builder.add(senderInput);
+    builder.add(reporterQueueSizeInput).add(reporterFlushIntervalInput).add(reporterMaxPacketSizeInput);
+    builder.add(spansPerSecondInput).add(avgSpanSizeInput);
+    builder.add(filterLatencyInput).add(filterBaselineInput);
+    redMetricsInput.setValueChoices(Arrays.asList(redMetricsExposures));
+    builder.add(redMetricsInput);
+    tracerStartupInput.setValueChoices(Arrays.asList(tracerStartups));
+    builder.add(tracerStartupInput);
+    builder.add(propagationInput);
+    builder.add(skipPathsInput);
+    builder.add(ejbTraceAllInput);
+    builder.add(timingsAsJsonInput);
+    // The technology is detected per module then
+    techInput.setRequired(() -> !Boolean.TRUE.equals(allModulesInput.getValue()));
+    builder.add(allModulesInput);
 	}
 
+  @Override
+  public void validate(UIValidationContext validator) {
+    String samplerParamError = samplerParamError(samplerTypeInput.getValue(), samplerParamInput.getValue());
+    if (samplerParamError != null) {
+      validator.addValidationError(samplerParamInput, samplerParamError);
+    }
+    String skipPathsError = skipPathsError(skipPaths());
+    if (skipPathsError != null) {
+      validator.addValidationError(skipPathsInput, skipPathsError);
+    }
+    if (!isHostPort(samplerManagerInput.getValue())) {
+      validator.addValidationError(samplerManagerInput, "The sampling manager must be given as host:port");
+    }
+    try {
+      double baseline = Double.parseDouble(filterBaselineInput.getValue());
+      if (baseline < 0 || baseline > 1) {
+        validator.addValidationError(filterBaselineInput, "The baseline rate must be between 0 and 1");
+      }
+    } catch (NumberFormatException | NullPointerException e) {
+      validator.addValidationError(filterBaselineInput, "The baseline rate must be a number");
+    }
+    for (String format : propagation().split(",")) {
+      if (!Arrays.asList(propagationFormats).contains(format)) {
+        validator.addValidationError(propagationInput, "Unknown propagation format " + format
+            + ", use " + String.join(", ", propagationFormats));
+      }
+    }
+    if (spansPerSecondInput.getValue() != null && spansPerSecondInput.getValue() > 0
+        && (avgSpanSizeInput.getValue() == null || avgSpanSizeInput.getValue() <= 0)) {
+      validator.addValidationError(avgSpanSizeInput, "The average span size must be positive");
+    }
+  }
+
   private boolean detectWildFlySwarm(UIContext context) {
-	  DependencyFacet dependencyFacet = getSelectedProject(context).getFacet(DependencyFacet.class);
-    List<Dependency> dependencies = dependencyFacet.getDependencies();
-    boolean found = dependencies.stream()
-        .map(dependency -> dependency.getCoordinate())
-        .anyMatch(coordinate ->
-                      "org.wildfly.swarm".equals(coordinate.getGroupId()));
-    return found;
+    return detectWildFlySwarm(context, getSelectedProject(context));
+  }
+
+  private boolean detectWildFlySwarm(UIContext context, Project project) {
+    return DependencyIndex.get(context, project).hasGroup("org.wildfly.swarm");
   }
 
   private boolean detectSpringBoot(UIContext context) {
-    DependencyFacet dependencyFacet = getSelectedProject(context).getFacet(DependencyFacet.class);
-     List<Dependency> dependencies = dependencyFacet.getDependencies();
-     boolean found = dependencies.stream()
-         .map(dependency -> dependency.getCoordinate())
-         .anyMatch(coordinate ->
-                       "org.springframework.boot".equals(coordinate.getGroupId())
-         && coordinate.getArtifactId().startsWith("spring-boot-starter"));
-     return found;
+    return detectSpringBoot(context, getSelectedProject(context));
+  }
 
+  private boolean detectSpringBoot(UIContext context, Project project) {
+    return DependencyIndex.get(context, project)
+        .hasArtifactWithPrefix("org.springframework.boot", "spring-boot-starter");
+  }
+
+  /**
+   * The technology a module would get as default selection, null for modules that use
+   * none of the supported ones, e.g. plain libraries.
+   */
+  private String detectTechnology(UIContext context, Project project) {
+    if (detectSpringBoot(context, project)) {
+      return "spring-boot";
+    }
+    if (detectWildFlySwarm(context, project)) {
+      return "WF Swarm";
+    }
+    DependencyIndex index = DependencyIndex.get(context, project);
+    if (index.hasGroup("io.vertx")) {
+      return "vert.x";
+    }
+    if (index.hasDirectDependency("javax.ejb", "javax.ejb-api")
+        || index.hasArtifactWithPrefix("org.jboss.spec.javax.ejb", "jboss-ejb-api")) {
+      return "ejb";
+    }
+    if (index.hasDirectDependency("javax", "javaee-api")
+        || index.hasDirectDependency("javax.ws.rs", "javax.ws.rs-api")
+        || index.hasArtifactWithPrefix("org.jboss.spec.javax.ws.rs", "jboss-jaxrs-api")
+        || index.hasGroup("org.jboss.resteasy")
+        || index.hasGroup("org.glassfish.jersey.core")) {
+      return "jax-rs";
+    }
+    return null;
   }
 
   @Override
@@ -126,63 +328,229 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
 	@Override
 	public Result execute(UIExecutionContext context) throws Exception
 	{
+    PrintStream out = context.getUIContext().getProvider().getOutput().out();
+    sizing = null;
+    if (spansPerSecondInput.getValue() != null && spansPerSecondInput.getValue() > 0) {
+      sizing = new DeploymentSizing(spansPerSecondInput.getValue(), avgSpanSizeInput.getValue(),
+          reporterMaxPacketSizeInput.getValue(), filterLatencyMs() > 0);
+      out.println("Sized for the expected load: " + sizing);
+    }
 
-    facetFactory.install(getSelectedProject(context),ResourcesFacet.class);
-    facetFactory.install(getSelectedProject(context),ReflectionsFacet.class);
+    if (Boolean.TRUE.equals(allModulesInput.getValue())) {
+      return executeAllModules(context);
+    }
 
-		Map map = context.getUIContext().getAttributeMap();
+    ModuleSetup setup = new ModuleSetup(context.getUIContext(), getSelectedProject(context), out,
+                                        context.getUIContext().getProvider().getOutput().err(),
+                                        new ConcurrentHashMap<>());
+    String failure = setupModule(setup, techInput.getValue());
+    if (failure != null) {
+      return Results.fail(failure);
+    }
 
+    // TODO: not done yet, a furnace-test-harness benchmark that runs the setup per technology against
+    // sample projects and collects this breakdown. It needs the ui-test-harness addon and the sample projects.
+    if (Boolean.TRUE.equals(timingsAsJsonInput.getValue())) {
+      out.println(setup.timer.toJson());
+    } else {
+      setup.timer.printBreakdown(out);
+    }
 
-    installJaegerDependency(context);
-    installJaegerEnvironment(context);
+		return Results.success("Jaeger Tracing was successfully setup for the current project!");
+	}
 
-		switch (techInput.getValue()) {
-			case "jax-rs":
-				installJaxRs(context);
-				break;
-			case "spring-boot":
-				installSpringBoot(context);
-				break;
-			case "vert.x":
-			  installVertX(context);
-				break;
-      case "WF Swarm":
-        installSwarmJaegerFraction(context);
-        break;
-      case "ejb":
-        installEJB(context);
-        break;
-			default:
-				return Results.fail("Unknown selection " + techInput.getValue());
-		}
+  /**
+   * Runs the whole setup for one module.
+   * @return null on success, the reason otherwise
+   */
+  private String setupModule(ModuleSetup setup, String technology) throws Exception {
+    try (StepTimer.Split s = setup.timer.start("install ResourcesFacet")) {
+      facetFactory.install(setup.project, ResourcesFacet.class);
+    }
+    try (StepTimer.Split s = setup.timer.start("jaeger dependency")) {
+      installJaegerDependency(setup);
+    }
+    try (StepTimer.Split s = setup.timer.start("deployment.yml")) {
+      installJaegerEnvironment(setup);
+    }
 
+    try (StepTimer.Split s = setup.timer.start(technology)) {
+      switch (technology) {
+        case "jax-rs":
+          installJaxRs(setup);
+          break;
+        case "spring-boot":
+          installSpringBoot(setup);
+          break;
+        case "vert.x":
+          installVertX(setup);
+          break;
+        case "WF Swarm":
+          installSwarmJaegerFraction(setup);
+          break;
+        case "ejb":
+          installEJB(setup);
+          break;
+        default:
+          return "Unknown selection " + technology;
+      }
+    }
 
-		return Results.success("Jaeger Tracing was successfully setup for the current project!");
-	}
+    try (StepTimer.Split s = setup.timer.start("write pom.xml")) {
+      DependencyIndex index = DependencyIndex.get(setup.uiContext, setup.project);
+      for (Dependency added : setup.dependencyChanges.apply()) {
+        index.added(added);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sets up all modules of the reactor, each with the technology detected for it.
+   * Detecting the technology only reads the dependencies of a module, which is the
+   * expensive part, so that is done concurrently, one module per core. The setup
+   * itself then runs module by module: Forge projects and their Maven facets are not
+   * thread safe, and installing facets, writing the pom.xml and saving sources all go
+   * through them. The modules share the parsed templates and the versions resolved
+   * for dependencies. The output of each module is collected and printed in module
+   * order, followed by one line per module.
+   */
+  private Result executeAllModules(UIExecutionContext context) throws InterruptedException {
+    UIContext uiContext = context.getUIContext();
+    PrintStream out = uiContext.getProvider().getOutput().out();
+    Project root = getSelectedProject(context);
+
+    List<Project> modules = new ArrayList<>();
+    collectModules(root, modules);
+    if (modules.isEmpty()) {
+      return Results.fail("No modules to set up found below " + root.getRoot().getFullyQualifiedName());
+    }
+
+    long start = System.nanoTime();
+    Map<String, String> resolvedVersions = new ConcurrentHashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(modules.size(), Runtime.getRuntime().availableProcessors()));
+    List<Future<ModuleSetup>> results = new ArrayList<>();
+    try {
+      for (Project module : modules) {
+        results.add(executor.submit(() -> detectReactorModule(uiContext, module, resolvedVersions)));
+      }
+      List<ModuleSetup> setups = new ArrayList<>();
+      for (Future<ModuleSetup> result : results) {
+        try {
+          setups.add(result.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+
+      Path rootDir = ((File) root.getRoot().getUnderlyingResourceObject()).toPath();
+      List<String> report = new ArrayList<>();
+      int done = 0;
+      int failed = 0;
+      for (ModuleSetup setup : setups) {
+        setupReactorModule(setup);
+        String name = rootDir.relativize(((File) setup.project.getRoot().getUnderlyingResourceObject()).toPath())
+            .toString();
+        name = name.isEmpty() ? "." : name;
+        String outcome;
+        if (setup.failure != null) {
+          outcome = "FAILED  " + setup.failure;
+          failed++;
+        } else if (setup.technology == null) {
+          outcome = "skipped, no supported technology";
+        } else {
+          outcome = "ok";
+          done++;
+        }
+        if (setup.log.size() > 0) {
+          out.println("== " + name);
+          out.print(setup.log.toString());
+        }
+        report.add(String.format("%-40s %-12s %7.1f ms  %s", name, setup.technology == null ? "-" : setup.technology,
+                                 setup.timer.getTotalNanos() / 1e6, outcome));
+      }
+
+      out.println();
+      report.forEach(out::println);
+      out.println(String.format("%d modules in %.1f ms", modules.size(), (System.nanoTime() - start) / 1e6));
+      if (failed > 0) {
+        return Results.fail("Jaeger Tracing setup failed for " + failed + " of " + modules.size() + " modules");
+      }
+      return Results.success("Jaeger Tracing was set up for " + done + " of " + modules.size() + " modules");
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Only reads the module, several of them are detected concurrently
+  private ModuleSetup detectReactorModule(UIContext uiContext, Project module, Map<String, String> resolvedVersions) {
+    ModuleSetup setup = ModuleSetup.buffered(uiContext, module, resolvedVersions);
+    try {
+      setup.technology = detectTechnology(uiContext, module);
+    } catch (Exception e) {
+      setup.failure = String.valueOf(e);
+      e.printStackTrace(setup.err);
+    }
+    return setup;
+  }
+
+  // Writes to the module, called for one module after the other
+  private void setupReactorModule(ModuleSetup setup) {
+    if (setup.technology != null && setup.failure == null) {
+      try {
+        setup.failure = setupModule(setup, setup.technology);
+      } catch (Exception e) {
+        setup.failure = String.valueOf(e);
+        e.printStackTrace(setup.err);
+      }
+    }
+    setup.out.flush();
+  }
+
+  // The modules that build an artifact, i.e. all but the aggregating pom modules
+  private void collectModules(Project project, List<Project> modules) {
+    Model pom = project.getFacet(MavenFacet.class).getModel();
+    if (!"pom".equals(pom.getPackaging())) {
+      modules.add(project);
+    }
+    File dir = (File) project.getRoot().getUnderlyingResourceObject();
+    for (String module : pom.getModules()) {
+      File moduleDir = new File(dir, module);
+      if (moduleDir.isFile()) {
+        // A module may also be given as the path of its pom.xml
+        moduleDir = moduleDir.getParentFile();
+      }
+      Project child = projectFactory.findProject(resourceFactory.create(moduleDir));
+      if (child != null) {
+        collectModules(child, modules);
+      }
+    }
+  }
 
-  private void installSwarmJaegerFraction(UIExecutionContext context) {
+  private void installSwarmJaegerFraction(ModuleSetup setup) {
     Dependency dependency;
     dependency = DependencyBuilder.create("org.wildfly.swarm")
         .setArtifactId("jaeger");
-    installDependencyIfNeeded(context, dependency);
+    installDependencyIfNeeded(setup, dependency);
   }
 
-  private void installJaegerDependency(UIExecutionContext context) {
+  private void installJaegerDependency(ModuleSetup setup) {
     Dependency dependency;
     dependency = DependencyBuilder.create("com.uber.jaeger")
         .setArtifactId("jaeger-core")
         .setVersion("0.20.6");
-    installDependencyIfNeeded(context, dependency);
+    installDependencyIfNeeded(setup, dependency);
 
   }
 
   // assumes post-processing by Fabric8 docker maven plugin
-  private void installJaegerEnvironment(UIExecutionContext context) {
+  private void installJaegerEnvironment(ModuleSetup setup) {
 
     Map<String,Object> model;
     YamlResource resource;
 
-    Path f8path = Paths.get("src/main/fabric8");
+    Path f8path = ((File) setup.project.getRoot().getUnderlyingResourceObject()).toPath().resolve("src/main/fabric8");
     Path p = null;
     try {
       p = Files.createDirectories(f8path);
@@ -237,6 +605,34 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
     addIfNotExists(envEntries,"JAEGER_AGENT_PORT",6831);
     addIfNotExists(envEntries,"JAEGER_SERVICE_NAME","XXX-TODO"); // TODO
     addIfNotExists(envEntries,"JAEGER_HTTP_QUERY_URL","http://jaeger-agent-EDIT_ME.starter-us-east-2.openshiftapps.com/api/traces");
+    addIfNotExists(envEntries,"JAEGER_SAMPLER_TYPE",samplerTypeInput.getValue());
+    addIfNotExists(envEntries,"JAEGER_SAMPLER_PARAM",samplerParamInput.getValue());
+    addIfNotExists(envEntries,"JAEGER_SAMPLER_MANAGER_HOST_PORT",samplerManagerHostPort());
+    addIfNotExists(envEntries,"JAEGER_REPORTER_MAX_QUEUE_SIZE",String.valueOf(reporterQueueSize()));
+    addIfNotExists(envEntries,"JAEGER_REPORTER_FLUSH_INTERVAL",String.valueOf(reporterFlushInterval()));
+    addIfNotExists(envEntries,"JAEGER_REPORTER_MAX_PACKET_SIZE",String.valueOf(reporterMaxPacketSizeInput.getValue()));
+    addIfNotExists(envEntries,"JAEGER_SENDER_TYPE",isAgentSidecar() ? "udp" : "http");
+    addIfNotExists(envEntries,"TRACING_SKIP_PATHS",skipPaths());
+    if (!"jaeger".equals(propagation())) {
+      addIfNotExists(envEntries,"TRACING_PROPAGATION",propagation());
+    }
+    if ("adaptive".equals(samplerTypeInput.getValue())) {
+      addIfNotExists(envEntries,"TRACING_SAMPLER_MIN_PER_MINUTE","1");
+      addIfNotExists(envEntries,"TRACING_SAMPLER_MAX_SPANS_PER_SECOND",String.valueOf(samplerMaxSpansPerSecond()));
+      addIfNotExists(envEntries,"TRACING_SAMPLER_MAX_CPU","0.75");
+    }
+    if (!"eager".equals(tracerStartupInput.getValue())) {
+      addIfNotExists(envEntries,"TRACING_TRACER_STARTUP",tracerStartupInput.getValue());
+    }
+    if (!"none".equals(redMetricsInput.getValue())) {
+      addIfNotExists(envEntries,"TRACING_RED_METRICS",redMetricsInput.getValue());
+      addIfNotExists(envEntries,"TRACING_METRICS_PORT","9779");
+    }
+    if (filterLatencyMs() > 0) {
+      addIfNotExists(envEntries,"TRACING_FILTER_LATENCY_MS",String.valueOf(filterLatencyMs()));
+      addIfNotExists(envEntries,"TRACING_FILTER_BASELINE_RATE",filterBaselineInput.getValue());
+      addIfNotExists(envEntries,"TRACING_FILTER_MAX_SPANS",String.valueOf(filterMaxSpans()));
+    }
 
     Map resourcesMap = findMap(l,"resources");
     if (resourcesMap==null) {
@@ -246,12 +642,59 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
     }
     t = putMapIfAbsent(resourcesMap,"resources");
     t = putMapIfAbsent(t,"limits");
-    t.put("memory","250Mi");
+    t.put("memory",sizing != null ? sizing.getMemoryLimit() : DeploymentSizing.BASE_MEMORY_MI + "Mi");
+
+    if (isAgentSidecar()) {
+      addAgentSidecarIfNeeded(l);
+    }
 
     // save it
     resource.setContents(model);
   }
 
+  private boolean isAgentSidecar() {
+    return "agent-sidecar".equals(senderInput.getValue());
+  }
+
+  // The application reports via UDP to localhost:6831, the agent forwards to the collector
+  static void addAgentSidecarIfNeeded(List<Map> containers) {
+    boolean found = containers.stream().anyMatch(JaegerSetupCommand::isAgentContainer);
+    if (found) {
+      return;
+    }
+    Map<String,Object> agent = new LinkedHashMap<>();
+    agent.put("name", AGENT_CONTAINER_NAME);
+    agent.put("image", AGENT_IMAGE);
+    agent.put("args", new ArrayList<>(Arrays.asList("--collector.host-port=jaeger-collector-EDIT_ME:14267")));
+
+    List<Map> ports = new ArrayList<>();
+    ports.add(containerPort(5775, "UDP"));
+    ports.add(containerPort(6831, "UDP"));
+    ports.add(containerPort(6832, "UDP"));
+    ports.add(containerPort(5778, "TCP"));
+    agent.put("ports", ports);
+
+    Map<String,Object> limits = new HashMap<>();
+    limits.put("memory", "50Mi");
+    limits.put("cpu", "100m");
+    Map<String,Object> resources = new HashMap<>();
+    resources.put("limits", limits);
+    agent.put("resources", resources);
+
+    containers.add(agent);
+  }
+
+  private static Map<String,Object> containerPort(int port, String protocol) {
+    Map<String,Object> map = new LinkedHashMap<>();
+    map.put("containerPort", port);
+    map.put("protocol", protocol);
+    return map;
+  }
+
+  private static boolean isAgentContainer(Map container) {
+    return AGENT_CONTAINER_NAME.equals(container.get("name"));
+  }
+
   private Map<String, Object> putMapIfAbsent(Map<String, Object> model, String key) {
     Map<String, Object> out = (Map<String, Object>) model.get(key);
     if (out==null) {
@@ -271,48 +714,236 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
     }
   }
 
+  // The agent sidecar is never the application container we are looking for
   private boolean hasMap(List<Map> l, String keyToLookUp) {
-    return l.stream().anyMatch(m -> m.keySet().contains(keyToLookUp));
+    return l.stream().anyMatch(m -> !isAgentContainer(m) && m.keySet().contains(keyToLookUp));
   }
 
   private Map findMap(List<Map> l, String keyToLookUp) {
-    return l.stream().filter(m -> m.keySet().contains(keyToLookUp)).findFirst().orElse(null);
+    return l.stream().filter(m -> !isAgentContainer(m) && m.keySet().contains(keyToLookUp)).findFirst().orElse(null);
   }
 
-  private void installJaxRs(UIExecutionContext context) {
+  private void installJaxRs(ModuleSetup setup) {
     Dependency dependency;
     dependency = DependencyBuilder.create(IO_OPENTRACING_CONTRIB_GROUP_ID)
     				        .setArtifactId("opentracing-jaxrs2");
-    installDependencyIfNeeded(context,dependency);
+    installDependencyIfNeeded(setup,dependency);
 
     dependency = DependencyBuilder.create("javax")
           .setArtifactId("javaee-api")
         .setVersion("7.0")
         .setScopeType("provided");
-    installDependencyIfNeeded(context,dependency);
+    installDependencyIfNeeded(setup,dependency);
 
     dependency = DependencyBuilder.create("org.wildfly.swarm")
         .setArtifactId("cdi");
-    installDependencyIfNeeded(context,dependency);
+    installDependencyIfNeeded(setup,dependency);
 
-    createBeansXmlIfNeeded(context);
+    createBeansXmlIfNeeded(setup);
 
     // Create the setup listener
-    Project project = getSelectedProject(context);
-    String basePackage = project.getFacet(JavaSourceFacet.class).getBasePackage();
-    Map map = new HashMap();
-    JavaClassSource source = writeClassFromTemplate(basePackage,"JaXRSTracerSetupListener.java.ftl", map,
-                                                    context.getUIContext().getProvider().getOutput().out());
+    try (StepTimer.Split s = setup.timer.start("templates")) {
+      Project project = setup.project;
+      String basePackage = project.getFacet(JavaSourceFacet.class).getBasePackage();
+      Map map = tracerTemplateModel(basePackage);
+      JavaClassSource source = writeClassFromTemplate(basePackage,"JaXRSTracerSetupListener.java.ftl", map,
+                                                      setup.out);
+
+      JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
+      facet.saveJavaSource(source);
+      writeTracerFactory(setup, basePackage, map);
+      writeAsyncHelpers(setup, basePackage, map, true);
+      writeSkipFilter(setup, basePackage, map, "JaxRsTracingSkipFilter.java.ftl");
+    }
+
+  }
+
+  private Map<String, Object> tracerTemplateModel(String packageName) {
+    Map<String, Object> model = new HashMap<>();
+    model.put("package", packageName);
+    model.put("samplerType", samplerTypeInput.getValue());
+    model.put("samplerParam", samplerParamInput.getValue());
+    model.put("samplerManagerHostPort", samplerManagerHostPort());
+    model.put("samplerMaxSpansPerSecond", String.valueOf(samplerMaxSpansPerSecond()));
+    // Numbers go in as strings, Freemarker would otherwise format them with grouping separators
+    model.put("senderType", isAgentSidecar() ? "udp" : "http");
+    model.put("reporterMaxQueueSize", String.valueOf(reporterQueueSize()));
+    model.put("reporterFlushInterval", String.valueOf(reporterFlushInterval()));
+    model.put("reporterMaxPacketSize", String.valueOf(reporterMaxPacketSizeInput.getValue()));
+    model.put("skipPaths", skipPaths());
+    model.put("filterLatencyMs", String.valueOf(filterLatencyMs()));
+    model.put("filterBaselineRate", filterBaselineInput.getValue());
+    model.put("filterMaxSpans", String.valueOf(filterMaxSpans()));
+    model.put("redMetrics", redMetricsInput.getValue());
+    model.put("tracerStartup", tracerStartupInput.getValue());
+    model.put("propagation", propagation());
+    return model;
+  }
+
+  // deployment.yml and the generated tracer take the reporter settings from here, so they agree
+  private int reporterQueueSize() {
+    return sizing != null ? sizing.getQueueSize() : reporterQueueSizeInput.getValue();
+  }
+
+  private int reporterFlushInterval() {
+    return sizing != null ? sizing.getFlushIntervalMs() : reporterFlushIntervalInput.getValue();
+  }
+
+  private int filterMaxSpans() {
+    return sizing != null && sizing.getFilterMaxSpans() > 0 ? sizing.getFilterMaxSpans() : 10000;
+  }
+
+  // The adaptive sampler lowers the rate above the load the reporter was sized for
+  private int samplerMaxSpansPerSecond() {
+    return sizing != null ? spansPerSecondInput.getValue() : 0;
+  }
+
+  private String samplerManagerHostPort() {
+    return samplerManagerInput.getValue().trim();
+  }
+
+  // Sample everything with const, a trace per second when rate limited, one in a thousand otherwise
+  static String defaultSamplerParam(String samplerType) {
+    if ("const".equals(samplerType) || "ratelimiting".equals(samplerType)) {
+      return "1";
+    }
+    return "0.001";
+  }
+
+  /**
+   * Checks the sampler parameter against the range the sampler of the given type takes,
+   * the generated factory would fail at startup otherwise.
+   * @return null if the parameter fits, the reason otherwise
+   */
+  static String samplerParamError(String samplerType, String param) {
+    double value;
+    try {
+      value = Double.parseDouble(param);
+    } catch (NumberFormatException | NullPointerException e) {
+      return "The sampler parameter must be a number";
+    }
+    if ("const".equals(samplerType)) {
+      return value == 0 || value == 1 ? null : "The const sampler takes 0 (sample nothing) or 1 (sample everything)";
+    }
+    if ("ratelimiting".equals(samplerType)) {
+      return value >= 0 && !Double.isInfinite(value) ? null : "The traces per second must not be negative";
+    }
+    // probabilistic, remote and adaptive take a sampling rate
+    return value >= 0 && value <= 1 ? null
+        : "The sampling rate of the " + samplerType + " sampler must be between 0 and 1";
+  }
+
+  /**
+   * Checks the skip patterns against what TracingSkipMatcher understands: a * only at
+   * the start (*.css), as /** at the end or at the end (/metrics*). Anywhere else the
+   * matcher would take it literally and never match.
+   * @return null if all patterns fit, the reason otherwise
+   */
+  static String skipPathsError(String patterns) {
+    for (String pattern : patterns.split(",")) {
+      pattern = pattern.trim();
+      String rest;
+      if (pattern.startsWith("*")) {
+        rest = pattern.substring(1);
+      } else if (pattern.endsWith("/**")) {
+        rest = pattern.substring(0, pattern.length() - 3);
+      } else if (pattern.endsWith("*")) {
+        rest = pattern.substring(0, pattern.length() - 1);
+      } else {
+        rest = pattern;
+      }
+      if (rest.indexOf('*') >= 0) {
+        return "Unsupported wildcard in " + pattern + ", use /exact, /prefix/**, /prefix* or *.suffix";
+      }
+    }
+    return null;
+  }
+
+  // e.g. localhost:5778, jaeger-agent.tracing.svc:5778 or [::1]:5778
+  static boolean isHostPort(String value) {
+    Matcher matcher = value == null ? null : HOST_PORT.matcher(value.trim());
+    if (matcher == null || !matcher.matches()) {
+      return false;
+    }
+    int port = Integer.parseInt(matcher.group(1));
+    return port > 0 && port <= 65535;
+  }
+
+  private int filterLatencyMs() {
+    return filterLatencyInput.getValue() == null ? 0 : Math.max(filterLatencyInput.getValue(), 0);
+  }
 
+  // e.g. "b3, jaeger" -> "b3,jaeger"
+  private String propagation() {
+    if (propagationInput.getValue() == null || propagationInput.getValue().trim().isEmpty()) {
+      return "jaeger";
+    }
+    return propagationInput.getValue().toLowerCase().replaceAll("\\s+", "");
+  }
+
+  private String skipPaths() {
+    return skipPathsInput.getValue() == null ? "" : skipPathsInput.getValue().trim();
+  }
+
+  // Requests to health checks, metrics and static assets get no span at all
+  private void writeSkipFilter(ModuleSetup setup, String packageName, Map model, String filterTemplate) {
+    JavaSourceFacet facet = setup.project.getFacet(JavaSourceFacet.class);
+    PrintStream out = setup.out;
+
+    facet.saveJavaSource(writeClassFromTemplate(packageName, "TracingSkipMatcher.java.ftl", model, out));
+    facet.saveJavaSource(writeClassFromTemplate(packageName, filterTemplate, model, out));
+  }
+
+  // The setup classes delegate to the generated JaegerTracerFactory to build the tracer
+  private void writeTracerFactory(ModuleSetup setup, String packageName, Map model) {
+    Project project = setup.project;
     JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
-    facet.saveJavaSource(source);
+    PrintStream out = setup.out;
+
+    facet.saveJavaSource(writeClassFromTemplate(packageName, "JaegerTracerFactory.java.ftl", model, out));
+    facet.saveJavaSource(writeClassFromTemplate(packageName, "ReporterStats.java.ftl", model, out));
+    // Only what the chosen options need, the factory is generated without the others
+    if (filterLatencyMs() > 0) {
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "FilteringReporter.java.ftl", model, out));
+    }
+    if (!"none".equals(redMetricsInput.getValue())) {
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "MeteredTracer.java.ftl", model, out));
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "RedMetrics.java.ftl", model, out));
+      facet.saveJavaSource(writeInterfaceFromTemplate(packageName, "RedMetricsMXBean.java.ftl", model, out));
+    }
+    if (!"jaeger".equals(propagation())) {
+      // The Jaeger client reads and writes its own headers without help
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "TracePropagation.java.ftl", model, out));
+    }
+    if (!"eager".equals(tracerStartupInput.getValue())) {
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "LazyTracer.java.ftl", model, out));
+      facet.saveTestJavaSource(writeClassFromTemplate(packageName, "TracerStartupComparison.java.ftl", model, out));
+    }
+    if ("adaptive".equals(samplerTypeInput.getValue())) {
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "AdaptiveSampler.java.ftl", model, out));
+      facet.saveTestJavaSource(writeClassFromTemplate(packageName, "AdaptiveSamplerSimulation.java.ftl", model, out));
+    }
+    if ("remote".equals(samplerTypeInput.getValue())) {
+      // Lets the remote sampler be tried without a Jaeger agent
+      facet.saveTestJavaSource(writeClassFromTemplate(packageName, "SamplingStrategyServer.java.ftl", model, out));
+    }
+  }
+
+  // Keep the active span when work moves to executors, CompletableFutures or suspended JAX-RS requests
+  private void writeAsyncHelpers(ModuleSetup setup, String packageName, Map model, boolean jaxRs) {
+    JavaSourceFacet facet = setup.project.getFacet(JavaSourceFacet.class);
+    PrintStream out = setup.out;
 
+    facet.saveJavaSource(writeClassFromTemplate(packageName, "TracedExecutors.java.ftl", model, out));
+    if (jaxRs) {
+      facet.saveJavaSource(writeClassFromTemplate(packageName, "TracedAsyncResponse.java.ftl", model, out));
+    }
   }
 
-  private void createBeansXmlIfNeeded(UIExecutionContext context) {
+  private void createBeansXmlIfNeeded(ModuleSetup setup) {
 
-	  Project project = getSelectedProject(context);
-    ResourcesFacet facet = getSelectedProject(context).getFacet(ResourcesFacet.class);
+	  Project project = setup.project;
+    ResourcesFacet facet = setup.project.getFacet(ResourcesFacet.class);
     FileResource fr = facet.getResource("META-INF/beans.xml");
     if (!fr.exists()) {
       fr.createNewFile();
@@ -326,78 +957,223 @@ public class JaegerSetupCommand extends AbstractProjectCommand {
 
   }
 
-  private void installSpringBoot(UIExecutionContext context) {
+  private void installSpringBoot(ModuleSetup setup) {
 	  Dependency dependency = DependencyBuilder.create(IO_OPENTRACING_CONTRIB_GROUP_ID)
 	  				        .setArtifactId("opentracing-spring-web-autoconfigure")
 	  				        .setScopeType("compile");
 
-    Project project = getSelectedProject(context);
+    Project project = setup.project;
 
-    installDependencyIfNeeded(context, dependency);
-    String sbaPackage = findSpringBootApplicationPackage(context, project);
+    installDependencyIfNeeded(setup, dependency);
+    String sbaPackage;
+    try (StepTimer.Split s = setup.timer.start("find @SpringBootApplication")) {
+      sbaPackage = findSpringBootApplicationPackage(setup, project);
+    }
     if (sbaPackage==null) {
       sbaPackage = project.getFacet(JavaSourceFacet.class).getBasePackage();
-      context.getUIContext().getProvider().getOutput().err().println("** No @SpringBootApplication found **");
+      setup.err.println("** No @SpringBootApplication found **");
     }
 
-    Map root = new HashMap();
-    root.put("package",sbaPackage);
-    JavaClassSource source = writeClassFromTemplate(sbaPackage, "SBTracerSetup.java.ftl", root,
-                                                    context.getUIContext().getProvider().getOutput().out());
+    try (StepTimer.Split s = setup.timer.start("templates")) {
+      Map root = tracerTemplateModel(sbaPackage);
+      JavaClassSource source = writeClassFromTemplate(sbaPackage, "SBTracerSetup.java.ftl", root,
+                                                      setup.out);
 
-    JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
-    facet.saveJavaSource(source);
+      JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
+      facet.saveJavaSource(source);
+      writeTracerFactory(setup, sbaPackage, root);
+      writeAsyncHelpers(setup, sbaPackage, root, false);
+      writeSkipFilter(setup, sbaPackage, root, "SBTracingSkipConfiguration.java.ftl");
+    }
 
 
   }
 
 
-  private String findSpringBootApplicationPackage(UIExecutionContext context, Project project) {
-    ReflectionsFacet facet = project.getFacet(ReflectionsFacet.class);
-    Reflections reflections = facet.getReflections();
+  private String findSpringBootApplicationPackage(ModuleSetup setup, Project project) {
+    Set<String> sbaTypes;
+    try (StepTimer.Split s = setup.timer.start("source annotation index")) {
+      sbaTypes = findSpringBootApplicationsInSources(setup, project);
+    }
+    return springBootApplicationPackage(sbaTypes, () -> {
+      try (StepTimer.Split s = setup.timer.start("ReflectionsFacet scan")) {
+        facetFactory.install(project, ReflectionsFacet.class);
+        ReflectionsFacet facet = project.getFacet(ReflectionsFacet.class);
+        Reflections reflections = facet.getReflections();
+
+        //Returns all classes in the project (including its dependencies) annotated with @SpringBootApplication
+        return reflections.getTypesAnnotatedWith(org.springframework.boot.autoconfigure
+                                                   .SpringBootApplication.class);
+      }
+    });
+  }
 
-    //Returns all classes in the project (including its dependencies) annotated with @Entity
-    Set<Class<?>> sbaClasses = reflections.getTypesAnnotatedWith(org.springframework.boot.autoconfigure
-                                                                   .SpringBootApplication.class);
+  /**
+   * The package of the first @SpringBootApplication found in the sources or, if there is
+   * none, by the scan of the project including its dependencies. The scan is expensive,
+   * so it only runs when the sources have no answer.
+   * @return the package or null if neither finds one
+   */
+  static String springBootApplicationPackage(Set<String> sbaTypesInSources, Supplier<Set<Class<?>>> scan) {
+    if (!sbaTypesInSources.isEmpty()) {
+      String type = sbaTypesInSources.iterator().next();
+      int lastDot = type.lastIndexOf('.');
+      return lastDot > 0 ? type.substring(0, lastDot) : "";
+    }
 
+    Set<Class<?>> sbaClasses = scan.get();
     if (sbaClasses==null || sbaClasses.isEmpty()) {
       return null;
     }
     return  sbaClasses.iterator().next().getPackage().getName();
   }
 
-  private void installEJB(UIExecutionContext context) {
-    Dependency dependency = DependencyBuilder.create(IO_OPENTRACING_CONTRIB_GROUP_ID)
-    		        .setArtifactId("opentracing-ejb")
-                .setVersion("0.0.2")
-    		        .setScopeType("compile");
-    installDependencyIfNeeded(context, dependency);
+  private Set<String> findSpringBootApplicationsInSources(ModuleSetup setup, Project project) {
+    File sourceDir = project.getFacet(JavaSourceFacet.class).getSourceDirectory().getUnderlyingResourceObject();
+    File projectDir = (File) project.getRoot().getUnderlyingResourceObject();
+    File cacheFile = new File(projectDir, ANNOTATION_INDEX_CACHE);
+
+    try {
+      return SourceAnnotationIndex.load(sourceDir, cacheFile).getTypesAnnotatedWith(SPRING_BOOT_APPLICATION);
+    } catch (IOException e) {
+      setup.err.println("** Could not index sources: " + e.getMessage());
+      return Collections.emptySet();
+    }
+  }
 
-    if (detectWildFlySwarm(context.getUIContext())) {
+  private void installEJB(ModuleSetup setup) {
+    Dependency dependency = DependencyBuilder.create("javax")
+        .setArtifactId("javaee-api")
+        .setVersion("7.0")
+        .setScopeType("provided");
+    installDependencyIfNeeded(setup, dependency);
+
+    if (detectWildFlySwarm(setup.uiContext, setup.project)) {
       dependency = DependencyBuilder.create("org.wildfly.swarm")
           .setArtifactId("ejb");
-      installDependencyIfNeeded(context, dependency);
+      installDependencyIfNeeded(setup, dependency);
     }
 
-    installSwarmJaegerFraction(context);
+    installSwarmJaegerFraction(setup);
+
+    // A project local interceptor instead of opentracing-ejb, so that naming and cost are under our control
+    try (StepTimer.Split s = setup.timer.start("templates")) {
+      Project project = setup.project;
+      JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
+      String basePackage = facet.getBasePackage();
+      PrintStream out = setup.out;
+
+      Map map = tracerTemplateModel(basePackage);
+      map.put("ejbTraceAll", !Boolean.FALSE.equals(ejbTraceAllInput.getValue()));
+      facet.saveJavaSource(writeAnnotationFromTemplate(basePackage, "EjbTraced.java.ftl", map, out));
+      JavaClassSource interceptor = writeClassFromTemplate(basePackage, "EjbTracingInterceptor.java.ftl", map, out);
+      facet.saveJavaSource(interceptor);
+      facet.saveJavaSource(writeClassFromTemplate(basePackage, "EjbTracerSetup.java.ftl", map, out));
+      writeTracerFactory(setup, basePackage, map);
+      writeAsyncHelpers(setup, basePackage, map, false);
+
+      bindDefaultInterceptor(setup, interceptor.getQualifiedName());
+    }
+  }
 
+  // Binds the interceptor to all beans of the module via ejb-jar.xml, unless there already is one
+  private void bindDefaultInterceptor(ModuleSetup setup, String interceptorClass) {
+    Project project = setup.project;
+    FileResource<?> ejbJar;
+    if (project.hasFacet(WebResourcesFacet.class)) {
+      ejbJar = project.getFacet(WebResourcesFacet.class).getWebResource("WEB-INF/ejb-jar.xml");
+    } else {
+      ejbJar = project.getFacet(ResourcesFacet.class).getResource("META-INF/ejb-jar.xml");
+    }
+
+    if (ejbJar.exists()) {
+      setup.err.println("** " + ejbJar.getName() + " exists, add an interceptor-binding for " + interceptorClass + " **");
+      return;
+    }
+    ejbJar.createNewFile();
+    ejbJar.setContents("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                           "<ejb-jar xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\"\n" +
+                           "  xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+                           "  xsi:schemaLocation=\"http://xmlns.jcp.org/xml/ns/javaee http://xmlns.jcp.org/xml/ns/javaee/ejb-jar_3_2.xsd\"\n" +
+                           "  version=\"3.2\">\n" +
+                           "  <interceptors>\n" +
+                           "    <interceptor>\n" +
+                           "      <interceptor-class>" + interceptorClass + "</interceptor-class>\n" +
+                           "    </interceptor>\n" +
+                           "  </interceptors>\n" +
+                           "  <assembly-descriptor>\n" +
+                           "    <interceptor-binding>\n" +
+                           "      <ejb-name>*</ejb-name>\n" +
+                           "      <interceptor-class>" + interceptorClass + "</interceptor-class>\n" +
+                           "    </interceptor-binding>\n" +
+                           "  </assembly-descriptor>\n" +
+                           "</ejb-jar>\n");
   }
 
 
-  private void installVertX(UIExecutionContext context) {
-    Dependency dependency = DependencyBuilder.create(IO_OPENTRACING_CONTRIB_GROUP_ID)
-    		        .setArtifactId("tracing-vert-x TODO") // TODO
-    		        .setScopeType("compile");
+  private void installVertX(ModuleSetup setup) {
+    Dependency dependency = DependencyBuilder.create("io.vertx")
+        .setArtifactId("vertx-web");
+    installDependencyIfNeeded(setup, dependency);
 
-    installDependencyIfNeeded(context, dependency);
+    // The request span lives in the RoutingContext, the thread local active span is no use on an event loop
+    try (StepTimer.Split s = setup.timer.start("templates")) {
+      Project project = setup.project;
+      String basePackage = project.getFacet(JavaSourceFacet.class).getBasePackage();
+      Map map = tracerTemplateModel(basePackage);
+      JavaClassSource source = writeClassFromTemplate(basePackage, "VertxTracing.java.ftl", map,
+                                                      setup.out);
+
+      JavaSourceFacet facet = project.getFacet(JavaSourceFacet.class);
+      facet.saveJavaSource(source);
+      writeTracerFactory(setup, basePackage, map);
+      setup.out.println("Call " + source.getQualifiedName() + ".install(vertx, router) when creating the router");
+    }
+  }
 
+  private void installDependencyIfNeeded(ModuleSetup setup, Dependency dependency) {
+    if (!DependencyIndex.get(setup.uiContext, setup.project).hasDirectDependency(dependency)) {
+      setup.dependencyChanges.add(dependency);
+    }
   }
 
-  private void installDependencyIfNeeded(UIExecutionContext context, Dependency dependency) {
-    if (!getSelectedProject(context).getFacet(DependencyFacet.class)
-  				.hasDirectDependency(dependency))
-  		{
-  			dependencyInstaller.install(getSelectedProject(context), dependency);
-  		}
+  /**
+   * What the setup of one module works on. The setup of a reactor writes the output of
+   * each module to its own buffer, as modules are looked at concurrently.
+   */
+  private static class ModuleSetup {
+    final UIContext uiContext;
+    final Project project;
+    final PrintStream out;
+    final PrintStream err;
+    // Dependencies to add, written to the pom.xml once at the end of the setup
+    final DependencyChangeSet dependencyChanges;
+    // Time spent in the phases of the setup
+    final StepTimer timer = new StepTimer();
+    // Holds out and err of a buffered setup, null otherwise
+    final ByteArrayOutputStream log;
+    String technology;
+    String failure;
+
+    ModuleSetup(UIContext uiContext, Project project, PrintStream out, PrintStream err,
+                Map<String, String> resolvedVersions) {
+      this(uiContext, project, out, err, null, resolvedVersions);
+    }
+
+    private ModuleSetup(UIContext uiContext, Project project, PrintStream out, PrintStream err,
+                        ByteArrayOutputStream log, Map<String, String> resolvedVersions) {
+      this.uiContext = uiContext;
+      this.project = project;
+      this.out = out;
+      this.err = err;
+      this.log = log;
+      this.dependencyChanges = new DependencyChangeSet(project, resolvedVersions);
+    }
+
+    static ModuleSetup buffered(UIContext uiContext, Project project, Map<String, String> resolvedVersions) {
+      ByteArrayOutputStream log = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(log, true);
+      return new ModuleSetup(uiContext, project, out, out, log, resolvedVersions);
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Model;
+import org.jboss.forge.addon.dependencies.Coordinate;
+import org.jboss.forge.addon.dependencies.Dependency;
+import org.jboss.forge.addon.maven.projects.MavenFacet;
+import org.jboss.forge.addon.projects.Project;
+import org.jboss.forge.addon.projects.facets.DependencyFacet;
+import org.jboss.forge.furnace.versions.SingleVersion;
+
+/**
+ * Collects the dependencies to add to a project and writes them to the pom.xml in one go.
+ * Dependencies without a version that are not managed by the project get the newest
+ * release found in the local Maven repository, so no remote resolution is needed
+ * in the common case. Snapshots and pre-releases are never picked, also not from
+ * the remote repositories. Resolved versions can be shared between the change sets of
+ * several modules, so that each version is looked up once.
+ * @author hrupp
+ */
+public class DependencyChangeSet {
+
+  private static final Set<String> RELEASE_QUALIFIERS = new HashSet<>(Arrays.asList("FINAL", "GA", "RELEASE"));
+
+  private final Project project;
+  // groupId:artifactId -> dependency, in the order they were added
+  private final Map<String, Dependency> additions = new LinkedHashMap<>();
+  // groupId:artifactId -> version resolved for unmanaged dependencies
+  private final Map<String, String> resolvedVersions;
+
+  public DependencyChangeSet(Project project) {
+    this(project, new HashMap<>());
+  }
+
+  /**
+   * @param resolvedVersions versions resolved so far, must be thread safe when shared
+   *                         between change sets used concurrently
+   */
+  public DependencyChangeSet(Project project, Map<String, String> resolvedVersions) {
+    this.project = project;
+    this.resolvedVersions = resolvedVersions;
+  }
+
+  public void add(Dependency dependency) {
+    additions.putIfAbsent(key(dependency.getCoordinate().getGroupId(), dependency.getCoordinate().getArtifactId()),
+                          dependency);
+  }
+
+  public boolean isEmpty() {
+    return additions.isEmpty();
+  }
+
+  /**
+   * Writes all collected dependencies that are not yet present to the pom.xml.
+   * @return the dependencies that were actually added
+   */
+  public List<Dependency> apply() {
+    if (additions.isEmpty()) {
+      return Collections.emptyList();
+    }
+    MavenFacet maven = project.getFacet(MavenFacet.class);
+    Model model = maven.getModel();
+
+    Set<String> present = new HashSet<>();
+    for (org.apache.maven.model.Dependency d : model.getDependencies()) {
+      present.add(key(d.getGroupId(), d.getArtifactId()));
+    }
+    Set<String> managed = null;
+
+    List<Dependency> added = new ArrayList<>();
+    for (Map.Entry<String, Dependency> entry : additions.entrySet()) {
+      if (present.contains(entry.getKey())) {
+        continue;
+      }
+      Coordinate coordinate = entry.getValue().getCoordinate();
+      org.apache.maven.model.Dependency d = new org.apache.maven.model.Dependency();
+      d.setGroupId(coordinate.getGroupId());
+      d.setArtifactId(coordinate.getArtifactId());
+      d.setClassifier(coordinate.getClassifier());
+      if (coordinate.getPackaging() != null && !"jar".equals(coordinate.getPackaging())) {
+        d.setType(coordinate.getPackaging());
+      }
+      if (entry.getValue().getScopeType() != null && !"compile".equals(entry.getValue().getScopeType())) {
+        d.setScope(entry.getValue().getScopeType());
+      }
+
+      String version = coordinate.getVersion();
+      if (version == null || version.isEmpty()) {
+        if (managed == null) {
+          managed = managedKeys(maven);
+        }
+        if (!managed.contains(entry.getKey())) {
+          version = resolvedVersions.get(entry.getKey());
+          if (version == null) {
+            version = resolveVersion(maven, entry.getValue());
+            if (version != null) {
+              resolvedVersions.put(entry.getKey(), version);
+            }
+          }
+        }
+      }
+      d.setVersion(version);
+
+      model.addDependency(d);
+      present.add(entry.getKey());
+      added.add(entry.getValue());
+    }
+
+    if (!added.isEmpty()) {
+      maven.setModel(model);
+    }
+    additions.clear();
+    return added;
+  }
+
+  private Set<String> managedKeys(MavenFacet maven) {
+    Set<String> keys = new HashSet<>();
+    // The effective model is built once and includes parents and imported BOMs
+    DependencyManagement management = maven.getEffectiveModel().getDependencyManagement();
+    if (management != null) {
+      for (org.apache.maven.model.Dependency d : management.getDependencies()) {
+        keys.add(key(d.getGroupId(), d.getArtifactId()));
+      }
+    }
+    return keys;
+  }
+
+  private String resolveVersion(MavenFacet maven, Dependency dependency) {
+    Coordinate coordinate = dependency.getCoordinate();
+    File localRepo = maven.getLocalRepositoryDirectory().getUnderlyingResourceObject();
+    File artifactDir = new File(localRepo, coordinate.getGroupId().replace('.', File.separatorChar)
+        + File.separator + coordinate.getArtifactId());
+
+    SingleVersion newest = null;
+    File[] versions = artifactDir.listFiles(File::isDirectory);
+    if (versions != null) {
+      for (File dir : versions) {
+        newest = newerRelease(newest, dir.getName());
+      }
+    }
+    if (newest != null) {
+      return newest.toString();
+    }
+
+    // Not in the local repository, so we have to ask the remote ones
+    for (Coordinate available : project.getFacet(DependencyFacet.class).resolveAvailableVersions(dependency)) {
+      newest = newerRelease(newest, available.getVersion());
+    }
+    return newest == null ? null : newest.toString();
+  }
+
+  // The newer of the two if the given version is a release, so snapshots and milestones never get pinned
+  private static SingleVersion newerRelease(SingleVersion newest, String version) {
+    if (!isRelease(version)) {
+      return newest;
+    }
+    SingleVersion candidate = SingleVersion.valueOf(version);
+    return newest == null || candidate.compareTo(newest) > 0 ? candidate : newest;
+  }
+
+  /**
+   * True for release versions: no SNAPSHOT and no qualifier other than the ones
+   * projects use to mark a release, e.g. 1.2.3, 1.2.3.Final or 1.2.3.RELEASE, but
+   * not 1.2.3-SNAPSHOT, 1.2.3-RC1 or 1.2.3.Beta2.
+   */
+  static boolean isRelease(String version) {
+    if (version == null || version.isEmpty() || version.endsWith("-SNAPSHOT")) {
+      return false;
+    }
+    String qualifier = SingleVersion.valueOf(version).getQualifier();
+    return qualifier == null || qualifier.isEmpty() || RELEASE_QUALIFIERS.contains(qualifier.toUpperCase(Locale.ROOT));
+  }
+
+  private static String key(String groupId, String artifactId) {
+    return groupId + ":" + artifactId;
+  }
+}
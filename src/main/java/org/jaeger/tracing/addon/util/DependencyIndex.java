@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jboss.forge.addon.dependencies.Coordinate;
+import org.jboss.forge.addon.dependencies.Dependency;
+import org.jboss.forge.addon.projects.Project;
+import org.jboss.forge.addon.projects.facets.DependencyFacet;
+import org.jboss.forge.addon.ui.context.UIContext;
+
+/**
+ * Dependency coordinates of a project, indexed by groupId and artifactId.
+ * One index is kept per {@link UIContext} and project; it is rebuilt when the pom.xml
+ * changes on disk.
+ * The indexes of different projects may be used concurrently, one index is not
+ * meant to be used by several threads at once.
+ * @author hrupp
+ */
+public class DependencyIndex {
+
+  private final File pom;
+  private long pomStamp;
+
+  // groupId -> artifactIds
+  private final Map<String, Set<String>> direct = new HashMap<>();
+
+  private DependencyIndex(Project project) {
+    this.pom = new File((File) project.getRoot().getUnderlyingResourceObject(), "pom.xml");
+    this.pomStamp = stamp(pom);
+    index(project.getFacet(DependencyFacet.class).getDependencies(), direct);
+  }
+
+  /**
+   * Returns the index of the given project for this UI context, building it on
+   * first use or when the pom.xml changed since.
+   */
+  public static DependencyIndex get(UIContext context, Project project) {
+    Map<Object, Object> attributes = context.getAttributeMap();
+    Object key = key(project);
+    DependencyIndex index;
+    synchronized (attributes) {
+      index = (DependencyIndex) attributes.get(key);
+    }
+    if (index == null || index.pomStamp != stamp(index.pom)) {
+      // Built outside the lock, the setup of a reactor detects its modules concurrently
+      index = new DependencyIndex(project);
+      synchronized (attributes) {
+        attributes.put(key, index);
+      }
+    }
+    return index;
+  }
+
+  public static void invalidate(UIContext context, Project project) {
+    Map<Object, Object> attributes = context.getAttributeMap();
+    synchronized (attributes) {
+      attributes.remove(key(project));
+    }
+  }
+
+  public boolean hasGroup(String groupId) {
+    return direct.containsKey(groupId);
+  }
+
+  public boolean hasDirectDependency(String groupId, String artifactId) {
+    Set<String> artifacts = direct.get(groupId);
+    return artifacts != null && artifacts.contains(artifactId);
+  }
+
+  public boolean hasDirectDependency(Dependency dependency) {
+    Coordinate coordinate = dependency.getCoordinate();
+    return hasDirectDependency(coordinate.getGroupId(), coordinate.getArtifactId());
+  }
+
+  public boolean hasArtifactWithPrefix(String groupId, String artifactPrefix) {
+    Set<String> artifacts = direct.get(groupId);
+    return artifacts != null && artifacts.stream().anyMatch(a -> a.startsWith(artifactPrefix));
+  }
+
+  /**
+   * Records a dependency this addon just added, so that the index stays valid
+   * without re-reading the pom.xml we wrote ourselves.
+   */
+  public void added(Dependency dependency) {
+    Coordinate coordinate = dependency.getCoordinate();
+    direct.computeIfAbsent(coordinate.getGroupId(), g -> new HashSet<>()).add(coordinate.getArtifactId());
+    pomStamp = stamp(pom);
+  }
+
+  private static void index(List<Dependency> dependencies, Map<String, Set<String>> target) {
+    for (Dependency dependency : dependencies) {
+      Coordinate coordinate = dependency.getCoordinate();
+      target.computeIfAbsent(coordinate.getGroupId(), g -> new HashSet<>()).add(coordinate.getArtifactId());
+    }
+  }
+
+  private static String key(Project project) {
+    return DependencyIndex.class.getName() + ":" + project.getRoot().getFullyQualifiedName();
+  }
+
+  private static long stamp(File pom) {
+    return pom.lastModified() * 31 + pom.length();
+  }
+}
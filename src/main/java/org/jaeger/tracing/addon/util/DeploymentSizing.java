@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+/**
+ * Sizes the reporter buffers of the tracer and the memory limit of the pod together,
+ * from the expected number of sampled spans per second and their average size.
+ * <ul>
+ * <li>The flush interval is the time it takes to fill one packet, so batches go out
+ * full, but between 100ms and 1s.</li>
+ * <li>The reporter queue holds the spans of two flush intervals, at least one second,
+ * so a slow send does not drop spans right away.</li>
+ * <li>The latency filter buffers every span for up to {@link #FILTER_BUFFER_MS}.</li>
+ * <li>The memory limit is the former fixed limit plus the heap taken by all of these
+ * spans, rounded up to 16Mi.</li>
+ * </ul>
+ * @author hrupp
+ */
+public class DeploymentSizing {
+
+  /** Memory limit of the application container without tracing buffers, in Mi */
+  public static final int BASE_MEMORY_MI = 250;
+  /** How long the latency filter keeps the spans of an unfinished trace, TRACING_FILTER_BUFFER_MS */
+  public static final int FILTER_BUFFER_MS = 10000;
+
+  private static final int MIN_FLUSH_INTERVAL_MS = 100;
+  private static final int MAX_FLUSH_INTERVAL_MS = 1000;
+  private static final int MIN_QUEUE_SIZE = 100;
+  private static final int MIN_FILTER_SPANS = 1000;
+  // A span on the heap (objects, UTF-16 strings, tag maps) is a few times its Thrift size
+  private static final int HEAP_BYTES_PER_WIRE_BYTE = 3;
+  private static final int MEMORY_STEP_MI = 16;
+  private static final long MI = 1024 * 1024;
+
+  private final int flushIntervalMs;
+  private final int queueSize;
+  private final int filterMaxSpans;
+  private final int memoryLimitMi;
+
+  /**
+   * @param spansPerSecond sampled spans per second, must be positive
+   * @param avgSpanBytes average size of a reported span, must be positive
+   * @param maxPacketSize upper bound for one batch sent by the reporter
+   * @param latencyFilter whether the latency filter buffers the spans as well
+   */
+  public DeploymentSizing(int spansPerSecond, int avgSpanBytes, int maxPacketSize, boolean latencyFilter) {
+    if (spansPerSecond <= 0 || avgSpanBytes <= 0) {
+      throw new IllegalArgumentException("Spans per second and span size must be positive");
+    }
+    long spansPerPacket = Math.max(1, maxPacketSize / avgSpanBytes);
+    flushIntervalMs = (int) clamp(spansPerPacket * 1000 / spansPerSecond, MIN_FLUSH_INTERVAL_MS,
+        MAX_FLUSH_INTERVAL_MS);
+
+    long bufferedMs = Math.max(2L * flushIntervalMs, 1000);
+    queueSize = (int) clamp(ceilDiv(spansPerSecond * bufferedMs, 1000), MIN_QUEUE_SIZE, Integer.MAX_VALUE);
+
+    filterMaxSpans = latencyFilter
+        ? (int) clamp((long) spansPerSecond * FILTER_BUFFER_MS / 1000, MIN_FILTER_SPANS, Integer.MAX_VALUE)
+        : 0;
+
+    // The sender keeps the packet being filled and the one being sent
+    long tracingBytes = ((long) queueSize + filterMaxSpans) * avgSpanBytes * HEAP_BYTES_PER_WIRE_BYTE
+        + 2L * maxPacketSize;
+    long memoryMi = BASE_MEMORY_MI + ceilDiv(tracingBytes, MI);
+    memoryLimitMi = (int) (ceilDiv(memoryMi, MEMORY_STEP_MI) * MEMORY_STEP_MI);
+  }
+
+  public int getFlushIntervalMs() {
+    return flushIntervalMs;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * @return spans the latency filter may buffer, 0 without the filter
+   */
+  public int getFilterMaxSpans() {
+    return filterMaxSpans;
+  }
+
+  public int getMemoryLimitMi() {
+    return memoryLimitMi;
+  }
+
+  public String getMemoryLimit() {
+    return memoryLimitMi + "Mi";
+  }
+
+  @Override
+  public String toString() {
+    return "queue " + queueSize + " spans, flush every " + flushIntervalMs + "ms"
+        + (filterMaxSpans > 0 ? ", filter buffer " + filterMaxSpans + " spans" : "")
+        + ", memory limit " + getMemoryLimit();
+  }
+
+  private static long clamp(long value, long min, long max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  private static long ceilDiv(long x, long y) {
+    return (x + y - 1) / y;
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jboss.forge.roaster.model.Visibility;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.MethodSource;
+
+/**
+ * Wraps existing methods of a class in a span.
+ * Methods are selected by name, annotation or visibility. Methods selected by name or
+ * visibility are skipped when a span would cost more than it tells: getters, setters,
+ * bodies of a single statement and methods the class calls from within a loop.
+ * Methods selected by annotation (e.g. GET) are entry points and always wrapped.
+ * Wrapping is idempotent, an already wrapped method is left alone.
+ * <p>
+ * The generated code keeps the per call cost low: operation names are static final
+ * constants and, optionally, no span is built at all when the tracer is a NoopTracer.
+ * The tracer is injected; objects the container does not manage, e.g. created with new,
+ * use the GlobalTracer instead (without the NoopTracer fast path, the GlobalTracer is none).
+ * @author hrupp
+ */
+public class MethodSpanWrapper {
+
+  // tracer() since the fallback to the GlobalTracer, the field before
+  private static final String TRACER = "tracer(\\s*\\(\\s*\\))?";
+  private static final Pattern WRAPPED = Pattern.compile(
+      "^\\s*(try\\s*\\(\\s*)?(final\\s+)?(io\\.opentracing\\.)?ActiveSpan\\s+\\w+\\s*=\\s*"
+          + "(" + TRACER + "\\s+instanceof\\s+[\\w.]*NoopTracer\\s*\\?\\s*null\\s*:\\s*)?" + TRACER
+          + "\\s*\\.\\s*buildSpan");
+  private static final Pattern LOOP = Pattern.compile("\\b(for|while|do)\\b");
+  private static final Pattern CALL = Pattern.compile("\\b([A-Za-z_$][\\w$]*)\\s*\\(");
+  private static final Pattern SPAN_IDENTIFIER = Pattern.compile("\\bspan\\b");
+  private static final Pattern GETTER = Pattern.compile("(get|is)[A-Z].*");
+  private static final Pattern SETTER = Pattern.compile("set[A-Z].*");
+
+  private final Pattern namePattern;
+  private final Set<String> annotations;
+  private final Visibility visibility;
+  private final boolean noopFastPath;
+
+  /**
+   * @param names glob(s) for method names, alternatives separated by '|', e.g. "find*|save*"; may be null
+   * @param annotations simple or qualified annotation names; may be empty
+   * @param visibility wrap all methods with this visibility; may be null
+   * @param noopFastPath skip building the span when the tracer is a NoopTracer
+   */
+  public MethodSpanWrapper(String names, Set<String> annotations, Visibility visibility, boolean noopFastPath) {
+    this.namePattern = names == null || names.trim().isEmpty() ? null : toPattern(names.trim());
+    this.annotations = annotations == null ? Collections.emptySet() : annotations;
+    this.visibility = visibility;
+    this.noopFastPath = noopFastPath;
+  }
+
+  public boolean isNoopFastPath() {
+    return noopFastPath;
+  }
+
+  public boolean hasSelection() {
+    return namePattern != null || !annotations.isEmpty() || visibility != null;
+  }
+
+  /**
+   * Wraps the selected methods of the class.
+   * @return the names of the methods that were wrapped
+   */
+  public List<String> wrapMethods(JavaClassSource source) {
+    Set<String> calledInLoops = null;
+    List<String> wrapped = new ArrayList<>();
+
+    for (MethodSource<JavaClassSource> method : source.getMethods()) {
+      if (method.isConstructor() || method.isAbstract() || method.isNative() || method.isStatic()
+          || method.getBody() == null || isWrapped(method) || isTracerAccessor(method)) {
+        continue;
+      }
+      boolean entryPoint = isAnnotated(method);
+      if (!entryPoint && !matchesName(method) && !matchesVisibility(method)) {
+        continue;
+      }
+      if (!entryPoint) {
+        if (calledInLoops == null) {
+          calledInLoops = methodsCalledInLoops(source);
+        }
+        if (isTrivial(method) || calledInLoops.contains(method.getName())) {
+          continue;
+        }
+      }
+      String operation = operationConstant(source, method.getName(), source.getName() + "." + method.getName());
+      wrap(method, operation, noopFastPath);
+      wrapped.add(method.getName());
+    }
+
+    return wrapped;
+  }
+
+  public static boolean isWrapped(MethodSource<?> method) {
+    return method.getBody() != null && WRAPPED.matcher(stripLiterals(method.getBody())).find();
+  }
+
+  /**
+   * Puts the body of the method into a span named by the given constant.
+   */
+  public static void wrap(MethodSource<?> method, String operationConstant, boolean noopFastPath) {
+    String body = method.getBody();
+    String span = SPAN_IDENTIFIER.matcher(stripLiterals(body)).find() || hasParameter(method, "span")
+        ? "tracingSpan" : "span";
+    method.setBody(openSpan(span, operationConstant, noopFastPath) + body + closeSpan(span, noopFastPath));
+  }
+
+  /**
+   * Code that opens an active span in a variable of the given name, to be followed by
+   * the traced code and {@link #closeSpan(String, boolean)}.
+   */
+  public static String openSpan(String span, String operationConstant, boolean noopFastPath) {
+    if (noopFastPath) {
+      return "ActiveSpan " + span + " = tracer() instanceof NoopTracer ? null : tracer().buildSpan("
+          + operationConstant + ").startActive();\ntry {\n";
+    }
+    return "try (ActiveSpan " + span + " = tracer().buildSpan(" + operationConstant + ").startActive()) {\n";
+  }
+
+  public static String closeSpan(String span, boolean noopFastPath) {
+    if (noopFastPath) {
+      return "\n} finally {\nif (" + span + " != null) {\n" + span + ".close();\n}\n}";
+    }
+    return "\n}";
+  }
+
+  /**
+   * Adds a static final constant holding the operation name, unless the class already
+   * has one of that name, and adds what the span code needs to the class.
+   * @return the name of the constant
+   */
+  public String operationConstant(JavaClassSource source, String baseName, String operationName) {
+    String constant = constantName(baseName) + "_OPERATION";
+    if (!source.hasField(constant)) {
+      source.addField().setPrivate().setStatic(true).setFinal(true).setType(String.class)
+          .setName(constant).setStringInitializer(operationName);
+    }
+    addTracingMembers(source, noopFastPath);
+    return constant;
+  }
+
+  /**
+   * Adds the imports, the injected tracer field and the tracer() method the span code relies on.
+   * The @Inject field stays null outside of managed beans, tracer() falls back to the GlobalTracer.
+   */
+  public static void addTracingMembers(JavaClassSource source, boolean noopFastPath) {
+    source.addImport("io.opentracing.ActiveSpan");
+    if (noopFastPath) {
+      source.addImport("io.opentracing.NoopTracer");
+    }
+    if (!source.hasField("tracer")) {
+      source.addImport("javax.inject.Inject");
+      source.addField().setName("tracer").setType("io.opentracing.Tracer").addAnnotation("Inject");
+    }
+    if (!source.hasMethodSignature("tracer")) {
+      source.addMethod()
+          .setName("tracer")
+          .setPrivate()
+          .setReturnType("io.opentracing.Tracer")
+          .setBody("return tracer != null ? tracer : io.opentracing.util.GlobalTracer.get();");
+    }
+  }
+
+  /**
+   * findAll -> FIND_ALL, my-span -> MY_SPAN
+   */
+  public static String constantName(String name) {
+    StringBuilder constant = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(name.charAt(i - 1))) {
+        constant.append('_');
+      }
+      constant.append(Character.isJavaIdentifierPart(c) ? Character.toUpperCase(c) : '_');
+    }
+    if (constant.length() == 0 || !Character.isJavaIdentifierStart(constant.charAt(0))) {
+      constant.insert(0, '_');
+    }
+    return constant.toString();
+  }
+
+  /**
+   * Single statement bodies and getters / setters, including the lazily initializing kind.
+   */
+  static boolean isTrivial(MethodSource<?> method) {
+    String body = stripLiterals(method.getBody());
+    int statements = count(body, ';');
+    if (statements <= 1 && body.indexOf('{') < 0) {
+      return true;
+    }
+    int parameters = method.getParameters().size();
+    return statements <= 2 && (GETTER.matcher(method.getName()).matches() && parameters == 0
+        || SETTER.matcher(method.getName()).matches() && parameters == 1);
+  }
+
+  /**
+   * Names of the methods that are called from within a loop of any method of the class.
+   * Text based, so it errs on the side of skipping.
+   */
+  public static Set<String> methodsCalledInLoops(JavaClassSource source) {
+    Set<String> names = new HashSet<>();
+    for (MethodSource<JavaClassSource> method : source.getMethods()) {
+      if (method.getBody() == null) {
+        continue;
+      }
+      String body = stripLiterals(method.getBody());
+      Matcher loop = LOOP.matcher(body);
+      while (loop.find()) {
+        Matcher call = CALL.matcher(loopBlock(body, loop.end()));
+        while (call.find()) {
+          names.add(call.group(1));
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * The loop header and body starting at pos, i.e. right after the loop keyword.
+   */
+  public static String loopBlock(String body, int pos) {
+    int p = skipWhitespace(body, pos);
+    if (p < body.length() && body.charAt(p) == '(') {
+      p = skipWhitespace(body, matching(body, p, '(', ')') + 1);
+    }
+    if (p < body.length() && body.charAt(p) == '{') {
+      return body.substring(pos, Math.min(body.length(), matching(body, p, '{', '}') + 1));
+    }
+    int end = body.indexOf(';', p);
+    return body.substring(pos, end < 0 ? body.length() : end + 1);
+  }
+
+  /**
+   * Blanks out comments and the contents of string and char literals, so that the
+   * remaining text can be searched for code.
+   */
+  public static String stripLiterals(String code) {
+    StringBuilder out = new StringBuilder(code.length());
+    int i = 0;
+    while (i < code.length()) {
+      char c = code.charAt(i);
+      if (c == '/' && i + 1 < code.length() && code.charAt(i + 1) == '/') {
+        int end = code.indexOf('\n', i);
+        end = end < 0 ? code.length() : end;
+        blank(out, end - i);
+        i = end;
+      } else if (c == '/' && i + 1 < code.length() && code.charAt(i + 1) == '*') {
+        int end = code.indexOf("*/", i + 2);
+        end = end < 0 ? code.length() : end + 2;
+        blank(out, end - i);
+        i = end;
+      } else if (c == '"' || c == '\'') {
+        int end = i + 1;
+        while (end < code.length() && code.charAt(end) != c) {
+          end += code.charAt(end) == '\\' ? 2 : 1;
+        }
+        out.append(c);
+        blank(out, Math.min(end, code.length()) - i - 1);
+        if (end < code.length()) {
+          out.append(c);
+        }
+        i = end + 1;
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+    return out.toString();
+  }
+
+  private static boolean isTracerAccessor(MethodSource<JavaClassSource> method) {
+    return "tracer".equals(method.getName()) && method.getParameters().isEmpty();
+  }
+
+  private boolean isAnnotated(MethodSource<JavaClassSource> method) {
+    return annotations.stream().anyMatch(method::hasAnnotation);
+  }
+
+  private boolean matchesName(MethodSource<JavaClassSource> method) {
+    return namePattern != null && namePattern.matcher(method.getName()).matches();
+  }
+
+  private boolean matchesVisibility(MethodSource<JavaClassSource> method) {
+    return visibility != null && visibility == method.getVisibility();
+  }
+
+  private static boolean hasParameter(MethodSource<?> method, String name) {
+    return method.getParameters().stream().anyMatch(p -> name.equals(p.getName()));
+  }
+
+  private static Pattern toPattern(String names) {
+    StringBuilder regex = new StringBuilder();
+    for (String alternative : names.split("\\|")) {
+      if (regex.length() > 0) {
+        regex.append('|');
+      }
+      for (String part : alternative.trim().split("\\*", -1)) {
+        regex.append(Pattern.quote(part)).append(".*");
+      }
+      regex.setLength(regex.length() - 2);
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  static int matching(String text, int open, char openChar, char closeChar) {
+    int depth = 0;
+    for (int i = open; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == openChar) {
+        depth++;
+      } else if (c == closeChar && --depth == 0) {
+        return i;
+      }
+    }
+    return text.length() - 1;
+  }
+
+  private static int skipWhitespace(String text, int pos) {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static int count(String text, char c) {
+    int n = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == c) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  private static void blank(StringBuilder out, int length) {
+    for (int i = 0; i < length; i++) {
+      out.append(' ');
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.Annotation;
+import org.jboss.forge.roaster.model.AnnotationTarget;
+import org.jboss.forge.roaster.model.JavaType;
+
+/**
+ * Index of the type level annotations found in a source tree.
+ * Sources are parsed with Roaster in parallel. The result is kept in a cache file
+ * keyed by path, modification time and size of each source, so that a later
+ * run only needs to re-parse the files that changed since.
+ * @author hrupp
+ */
+public class SourceAnnotationIndex {
+
+  private static final String CACHE_VERSION = "#jaeger-annotation-index 1";
+
+  // relative source path -> entry
+  private final Map<String, Entry> entries;
+
+  private SourceAnnotationIndex(Map<String, Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Builds the index for all *.java files below sourceDir, re-using what is still
+   * valid from cacheFile and writing the updated index back to it.
+   */
+  public static SourceAnnotationIndex load(File sourceDir, File cacheFile) throws IOException {
+    Map<String, Entry> cached = readCache(cacheFile);
+    Map<String, Entry> current = new ConcurrentHashMap<>();
+    List<Path> toParse = new ArrayList<>();
+
+    Path root = sourceDir.toPath();
+    if (Files.isDirectory(root)) {
+      try (Stream<Path> files = Files.walk(root)) {
+        for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".java"))::iterator) {
+          String key = root.relativize(file).toString().replace(File.separatorChar, '/');
+          Entry entry = cached.get(key);
+          File f = file.toFile();
+          if (entry != null && entry.lastModified == f.lastModified() && entry.size == f.length()) {
+            current.put(key, entry);
+          } else {
+            toParse.add(file);
+          }
+        }
+      }
+    }
+
+    toParse.parallelStream().forEach(file -> {
+      File f = file.toFile();
+      String key = root.relativize(file).toString().replace(File.separatorChar, '/');
+      current.put(key, new Entry(f.lastModified(), f.length(), parseTypeAnnotations(file)));
+    });
+
+    if (!toParse.isEmpty() || current.size() != cached.size()) {
+      writeCache(cacheFile, current);
+    }
+    return new SourceAnnotationIndex(current);
+  }
+
+  /**
+   * Returns the fully qualified names of all top level types carrying the
+   * given annotation.
+   */
+  public Set<String> getTypesAnnotatedWith(String annotationName) {
+    Set<String> types = new LinkedHashSet<>();
+    for (Entry entry : entries.values()) {
+      entry.types.forEach((type, annotations) -> {
+        if (annotations.contains(annotationName)) {
+          types.add(type);
+        }
+      });
+    }
+    return types;
+  }
+
+  private static Map<String, Set<String>> parseTypeAnnotations(Path file) {
+    Map<String, Set<String>> types = new HashMap<>();
+    try (InputStream in = Files.newInputStream(file)) {
+      for (JavaType<?> type : Roaster.parseUnit(in).getTopLevelTypes()) {
+        if (type instanceof AnnotationTarget) {
+          Set<String> annotations = ((AnnotationTarget<?>) type).getAnnotations().stream()
+              .map(Annotation::getQualifiedName)
+              .collect(Collectors.toSet());
+          types.put(type.getQualifiedName(), annotations);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // Unparseable sources just don't contribute to the index
+    }
+    return types;
+  }
+
+  private static Map<String, Entry> readCache(File cacheFile) {
+    Map<String, Entry> cached = new HashMap<>();
+    if (!cacheFile.exists()) {
+      return cached;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+      if (!CACHE_VERSION.equals(reader.readLine())) {
+        return cached;
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // path|lastModified|size|type=a1,a2;type2=a3
+        String[] parts = line.split("\\|", -1);
+        if (parts.length != 4) {
+          continue;
+        }
+        Map<String, Set<String>> types = new HashMap<>();
+        for (String type : parts[3].split(";")) {
+          int eq = type.indexOf('=');
+          if (eq > 0) {
+            Set<String> annotations = new LinkedHashSet<>();
+            for (String annotation : type.substring(eq + 1).split(",")) {
+              if (!annotation.isEmpty()) {
+                annotations.add(annotation);
+              }
+            }
+            types.put(type.substring(0, eq), annotations);
+          }
+        }
+        cached.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), types));
+      }
+    } catch (IOException | RuntimeException e) {
+      // A broken cache is no worse than no cache
+      return new HashMap<>();
+    }
+    return cached;
+  }
+
+  private static void writeCache(File cacheFile, Map<String, Entry> entries) throws IOException {
+    Files.createDirectories(cacheFile.getParentFile().toPath());
+    try (BufferedWriter writer = Files.newBufferedWriter(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+      writer.write(CACHE_VERSION);
+      writer.newLine();
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        Entry entry = e.getValue();
+        writer.write(e.getKey() + "|" + entry.lastModified + "|" + entry.size + "|");
+        writer.write(entry.types.entrySet().stream()
+                         .map(t -> t.getKey() + "=" + String.join(",", t.getValue()))
+                         .collect(Collectors.joining(";")));
+        writer.newLine();
+      }
+    }
+  }
+
+  private static class Entry {
+    final long lastModified;
+    final long size;
+    final Map<String, Set<String>> types;
+
+    Entry(long lastModified, long size, Map<String, Set<String>> types) {
+      this.lastModified = lastModified;
+      this.size = size;
+      this.types = Collections.unmodifiableMap(types);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the phases of a command with the monotonic {@link System#nanoTime()} clock.
+ * A phase is measured from {@link #start(String)} until the returned split is closed,
+ * so it fits a try-with-resources block:
+ * <pre>
+ *   try (StepTimer.Split s = timer.start("dependencies")) {
+ *     ...
+ *   }
+ * </pre>
+ * Phases that are started while another one is open are reported indented below it.
+ * @author hrupp
+ */
+public class StepTimer {
+
+  private final long created = System.nanoTime();
+  private final List<Split> splits = new ArrayList<>();
+  private int depth;
+
+  public Split start(String name) {
+    Split split = new Split(name, depth++);
+    splits.add(split);
+    return split;
+  }
+
+  public long getTotalNanos() {
+    return System.nanoTime() - created;
+  }
+
+  /**
+   * Prints one line per phase with its duration and share of the total time.
+   */
+  public void printBreakdown(PrintStream out) {
+    long total = getTotalNanos();
+    int width = splits.stream().mapToInt(s -> s.name.length() + 2 * s.depth).max().orElse(0);
+    out.println("Timing breakdown:");
+    for (Split split : splits) {
+      String label = indent(split.depth) + split.name;
+      out.println(String.format(Locale.ROOT, "  %-" + width + "s %9.1f ms %5.1f%%", label,
+                                millis(split.nanos()), total == 0 ? 0.0 : 100.0 * split.nanos() / total));
+    }
+    out.println(String.format(Locale.ROOT, "  %-" + width + "s %9.1f ms", "total", millis(total)));
+  }
+
+  /**
+   * Returns the phases as a single line of JSON, for consumption by CI jobs:
+   * {"totalMs":12.3,"steps":[{"name":"...","depth":0,"ms":1.2}, ...]}
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder(64 + splits.size() * 48);
+    json.append("{\"totalMs\":").append(format(millis(getTotalNanos()))).append(",\"steps\":[");
+    for (int i = 0; i < splits.size(); i++) {
+      Split split = splits.get(i);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"name\":\"");
+      escape(split.name, json);
+      json.append("\",\"depth\":").append(split.depth)
+          .append(",\"ms\":").append(format(millis(split.nanos()))).append('}');
+    }
+    return json.append("]}").toString();
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static String format(double millis) {
+    return String.format(Locale.ROOT, "%.3f", millis);
+  }
+
+  private static String indent(int depth) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+    return sb.toString();
+  }
+
+  private static void escape(String s, StringBuilder out) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  /**
+   * A running phase. Closing it more than once has no further effect.
+   */
+  public class Split implements AutoCloseable {
+    private final String name;
+    private final int depth;
+    private final long begin = System.nanoTime();
+    private long end = -1;
+
+    private Split(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+
+    long nanos() {
+      return (end < 0 ? System.nanoTime() : end) - begin;
+    }
+
+    @Override
+    public void close() {
+      if (end < 0) {
+        end = System.nanoTime();
+        StepTimer.this.depth--;
+      }
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.enterprise.event.Observes;
+import org.jboss.forge.furnace.event.PreShutdown;
+
+/**
+ * Holds the one Freemarker configuration of this addon together with the
+ * templates parsed from it.
+ * Templates are only looked up on the classpath below /templates and are parsed
+ * once; they stay cached until {@link #invalidate()} is called or the addon shuts down.
+ * @author hrupp
+ */
+public class TemplateRegistry {
+
+  private static final String TEMPLATE_ROOT = "/templates";
+
+  private static volatile Configuration configuration;
+  private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+  public static Template getTemplate(String templateName) {
+    return templates.computeIfAbsent(templateName, name -> {
+      try {
+        return getConfiguration().getTemplate(name);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Drops all parsed templates and the configuration, so that the next
+   * lookup starts from scratch.
+   */
+  public static void invalidate() {
+    Configuration config = configuration;
+    configuration = null;
+    if (config != null) {
+      config.clearTemplateCache();
+    }
+    templates.clear();
+  }
+
+  private static Configuration getConfiguration() {
+    Configuration config = configuration;
+    if (config == null) {
+      synchronized (TemplateRegistry.class) {
+        config = configuration;
+        if (config == null) {
+          config = new Configuration();
+          config.setClassForTemplateLoading(TemplateRegistry.class, TEMPLATE_ROOT);
+          // We keep our own cache of parsed templates, no need to ever re-check the jar
+          config.setTemplateUpdateDelay(Integer.MAX_VALUE);
+          config.setLocalizedLookup(false);
+          configuration = config;
+        }
+      }
+    }
+    return config;
+  }
+
+  void onShutdown(@Observes PreShutdown event) {
+    invalidate();
+  }
+}
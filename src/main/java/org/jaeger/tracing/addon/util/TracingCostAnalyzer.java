@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.JavaType;
+import org.jboss.forge.roaster.model.source.JavaSource;
+import org.jboss.forge.roaster.model.source.MethodHolderSource;
+import org.jboss.forge.roaster.model.source.MethodSource;
+import org.jboss.forge.roaster.model.source.TypeHolderSource;
+
+/**
+ * Finds span code that costs more than it needs to. Sources are parsed with Roaster
+ * in parallel, the methods found are then searched as text with comments and
+ * literals blanked out, see {@link MethodSpanWrapper#stripLiterals(String)}.
+ * <p>
+ * Flagged are spans built inside a loop, operation names put together at runtime,
+ * tags whose value is computed even when the span is not sampled, and spans that
+ * are started but never finished. Being text based, the analysis is a hint and not
+ * a proof: a span handed over to other code is not reported as unfinished.
+ * @author hrupp
+ */
+public class TracingCostAnalyzer {
+
+  /**
+   * Kinds of findings, by the cost they cause per call.
+   */
+  public enum Kind {
+    SPAN_IN_LOOP(10, "span built in a loop, one span per iteration"),
+    UNFINISHED_SPAN(8, "span is never finished, it is not reported and its resources are kept"),
+    RUNTIME_NAME(5, "operation name built at runtime, allocates per call and makes many operations"),
+    COMPUTED_TAG(3, "tag value computed even for spans that are not sampled");
+
+    private final int weight;
+    private final String description;
+
+    Kind(int weight, String description) {
+      this.weight = weight;
+      this.description = description;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+  }
+
+  private static final Pattern BUILD_SPAN = Pattern.compile("\\.\\s*buildSpan\\s*\\(");
+  private static final Pattern START = Pattern.compile("\\.\\s*(startActive|startManual|start)\\s*\\(\\s*\\)");
+  private static final Pattern TAG = Pattern.compile("\\.\\s*(setTag|withTag)\\s*\\(");
+  private static final Pattern LOOP = Pattern.compile("\\b(for|while|do)\\b");
+  private static final Pattern SAMPLED_GUARD = Pattern.compile("\\bif\\s*\\(");
+  private static final Pattern ASSIGNED_TO = Pattern.compile("([A-Za-z_$][\\w$]*)\\s*=[^=]*$");
+  private static final Pattern RUNTIME_STRING = Pattern.compile("\\+|\\bString\\s*\\.\\s*format\\b|\\.\\s*concat\\s*\\(|StringBuilder");
+
+  private TracingCostAnalyzer() {
+  }
+
+  /**
+   * Analyzes all *.java files below the given directories.
+   * @return the findings, most costly first
+   */
+  public static List<Finding> analyze(List<File> sourceDirs) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (File dir : sourceDirs) {
+      if (dir != null && dir.isDirectory()) {
+        try (Stream<Path> walk = Files.walk(dir.toPath())) {
+          walk.filter(p -> p.toString().endsWith(".java")).forEach(files::add);
+        }
+      }
+    }
+    return files.parallelStream()
+        .flatMap(file -> analyzeFile(file).stream())
+        .sorted(Comparator.comparingInt((Finding f) -> -f.getKind().getWeight())
+                    .thenComparing(Finding::getFile)
+                    .thenComparingInt(Finding::getLine))
+        .collect(Collectors.toList());
+  }
+
+  static List<Finding> analyzeFile(Path file) {
+    String code;
+    try {
+      code = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      if (!code.contains("buildSpan")) {
+        return Collections.emptyList();
+      }
+    } catch (IOException e) {
+      return Collections.emptyList();
+    }
+    List<Finding> findings = new ArrayList<>();
+    try {
+      for (JavaType<?> type : Roaster.parseUnit(code).getTopLevelTypes()) {
+        if (type instanceof JavaSource) {
+          analyzeType(file, code, (JavaSource<?>) type, findings);
+        }
+      }
+    } catch (RuntimeException e) {
+      // Unparseable sources are left out of the report
+    }
+    return findings;
+  }
+
+  private static void analyzeType(Path file, String code, JavaSource<?> type, List<Finding> findings) {
+    if (type instanceof MethodHolderSource) {
+      for (MethodSource<?> method : ((MethodHolderSource<?>) type).getMethods()) {
+        if (method.getStartPosition() >= 0 && method.getEndPosition() > method.getStartPosition()) {
+          analyzeMethod(file, code, type.getName() + "." + method.getName(), method.getStartPosition(),
+                        Math.min(code.length(), method.getEndPosition() + 1), findings);
+        }
+      }
+    }
+    if (type instanceof TypeHolderSource) {
+      for (JavaSource<?> nested : ((TypeHolderSource<?>) type).getNestedTypes()) {
+        analyzeType(file, code, nested, findings);
+      }
+    }
+  }
+
+  private static void analyzeMethod(Path file, String code, String method, int start, int end,
+                                    List<Finding> findings) {
+    String text = MethodSpanWrapper.stripLiterals(code.substring(start, end));
+    if (!BUILD_SPAN.matcher(text).find()) {
+      return;
+    }
+    List<int[]> loops = blocks(text, LOOP, null);
+    List<int[]> sampledGuards = blocks(text, SAMPLED_GUARD, "isSampled");
+
+    Matcher buildSpan = BUILD_SPAN.matcher(text);
+    while (buildSpan.find()) {
+      int pos = buildSpan.start();
+      if (inAny(loops, pos)) {
+        findings.add(finding(file, code, method, start + pos, Kind.SPAN_IN_LOOP));
+      }
+      int open = buildSpan.end() - 1;
+      String operationName = text.substring(open + 1, MethodSpanWrapper.matching(text, open, '(', ')'));
+      if (RUNTIME_STRING.matcher(operationName).find()) {
+        findings.add(finding(file, code, method, start + pos, Kind.RUNTIME_NAME));
+      }
+      if (isUnfinished(text, pos)) {
+        findings.add(finding(file, code, method, start + pos, Kind.UNFINISHED_SPAN));
+      }
+    }
+
+    Matcher tag = TAG.matcher(text);
+    while (tag.find()) {
+      int open = tag.end() - 1;
+      String arguments = text.substring(open + 1, MethodSpanWrapper.matching(text, open, '(', ')'));
+      if (isComputed(valueArgument(arguments)) && !inAny(sampledGuards, tag.start())) {
+        findings.add(finding(file, code, method, start + tag.start(), Kind.COMPUTED_TAG));
+      }
+    }
+  }
+
+  /**
+   * A span started in the statement at pos and kept in a local variable that is
+   * neither closed, finished, returned nor passed on.
+   */
+  private static boolean isUnfinished(String text, int pos) {
+    int statementStart = Math.max(Math.max(text.lastIndexOf(';', pos), text.lastIndexOf('{', pos)),
+                                  text.lastIndexOf('}', pos)) + 1;
+    int statementEnd = text.indexOf(';', pos);
+    if (statementEnd < 0) {
+      return false;
+    }
+    String before = text.substring(statementStart, pos);
+    Matcher start = START.matcher(text.substring(pos, statementEnd));
+    // A span builder kept for later, a try-with-resources or a span returned right away
+    if (!start.find() || before.matches("(?s).*\\btry\\s*\\([^)]*") || before.trim().startsWith("return")) {
+      return false;
+    }
+    Matcher assigned = ASSIGNED_TO.matcher(before);
+    if (!assigned.find()) {
+      // Started and dropped right away, unless it is an argument to something else
+      return before.indexOf('(') < 0 && !before.contains("->");
+    }
+    String span = Pattern.quote(assigned.group(1));
+    String rest = text.substring(statementEnd);
+    String ending = "startActive".equals(start.group(1)) ? "(close|deactivate)" : "finish";
+    return !Pattern.compile("\\b" + span + "\\s*\\.\\s*" + ending + "\\s*\\(").matcher(rest).find()
+        && !Pattern.compile("\\breturn\\s+" + span + "\\b").matcher(rest).find()
+        && !Pattern.compile("[(,]\\s*" + span + "\\s*[,)]").matcher(rest).find()
+        && !Pattern.compile("\\b" + span + "\\s*\\)\\s*\\{").matcher(rest).find()
+        && !Pattern.compile("[\\w$.]+\\s*=\\s*" + span + "\\s*;").matcher(rest).find();
+  }
+
+  private static String valueArgument(String arguments) {
+    int depth = 0;
+    for (int i = 0; i < arguments.length(); i++) {
+      char c = arguments.charAt(i);
+      if (c == '(' || c == '[' || c == '{') {
+        depth++;
+      } else if (c == ')' || c == ']' || c == '}') {
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        return arguments.substring(i + 1);
+      }
+    }
+    return "";
+  }
+
+  // Anything beyond a literal, a constant or a variable costs something to compute
+  private static boolean isComputed(String value) {
+    return value.indexOf('(') >= 0 || RUNTIME_STRING.matcher(value).find();
+  }
+
+  /**
+   * Ranges of the blocks introduced by the given keyword pattern, optionally only those
+   * whose header contains the given text.
+   */
+  private static List<int[]> blocks(String text, Pattern keyword, String headerContains) {
+    List<int[]> blocks = new ArrayList<>();
+    Matcher matcher = keyword.matcher(text);
+    while (matcher.find()) {
+      int from = headerContains == null ? matcher.end() : matcher.end() - 1;
+      String block = MethodSpanWrapper.loopBlock(text, from);
+      if (headerContains != null) {
+        int headerEnd = MethodSpanWrapper.matching(text, from, '(', ')');
+        if (!text.substring(from, headerEnd).contains(headerContains)) {
+          continue;
+        }
+      }
+      blocks.add(new int[] {from, from + block.length()});
+    }
+    return blocks;
+  }
+
+  private static boolean inAny(List<int[]> blocks, int pos) {
+    for (int[] block : blocks) {
+      if (pos >= block[0] && pos < block[1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Finding finding(Path file, String code, String method, int pos, Kind kind) {
+    int line = 1;
+    for (int i = 0; i < pos; i++) {
+      if (code.charAt(i) == '\n') {
+        line++;
+      }
+    }
+    return new Finding(file.toString(), line, method, kind);
+  }
+
+  /**
+   * One costly span placement.
+   */
+  public static class Finding {
+    private final String file;
+    private final int line;
+    private final String method;
+    private final Kind kind;
+
+    Finding(String file, int line, String method, Kind kind) {
+      this.file = file;
+      this.line = line;
+      this.method = method;
+      this.kind = kind;
+    }
+
+    public String getFile() {
+      return file;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public String getMethod() {
+      return method;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    @Override
+    public String toString() {
+      return method + " (" + new File(file).getName() + ":" + line + ") " + kind.getDescription();
+    }
+  }
+}
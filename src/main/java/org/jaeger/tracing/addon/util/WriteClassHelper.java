@@ -16,48 +16,55 @@
  */
 package org.jaeger.tracing.addon.util;
 
-import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Map;
+import org.jboss.forge.addon.parser.java.facets.JavaSourceFacet;
+import org.jboss.forge.addon.parser.java.resources.JavaResource;
+import org.jboss.forge.addon.parser.java.resources.JavaResourceVisitor;
+import org.jboss.forge.addon.resource.visit.VisitContext;
 import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.JavaAnnotationSource;
 import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.JavaInterfaceSource;
+import org.jboss.forge.roaster.model.source.JavaSource;
 
 /**
  * Helper to create source files from Freemarker templates.
- * Templates are expected to live in src/main/resources/templates in the source code.
+ * Templates are expected to live in src/main/resources/templates in the source code and
+ * are loaded from the classpath via the {@link TemplateRegistry}.
  * @author hrupp
  */
 public class WriteClassHelper {
 
   public static JavaClassSource writeClassFromTemplate(String packageName, String templateName, Map configItems, PrintStream out) {
-    try {
+    return writeFromTemplate(JavaClassSource.class, packageName, templateName, configItems, out);
+  }
 
-      Configuration config = new Configuration();
-      File dir = new File("src/main/resources/");
-      if (!dir.exists()) {
-        out.println("DEBUG: src/main/resources not found");
-        dir = new File("templates");
-      }
-      if (!dir.exists()) {
-        out.println("DEBUG: Trying via classloader");
-        config.setDirectoryForTemplateLoading(dir);
-      }
-      else {
-        config.setClassForTemplateLoading(WriteClassHelper.class,"/");
-      }
+  public static JavaInterfaceSource writeInterfaceFromTemplate(String packageName, String templateName, Map configItems,
+                                                               PrintStream out) {
+    return writeFromTemplate(JavaInterfaceSource.class, packageName, templateName, configItems, out);
+  }
 
+  public static JavaAnnotationSource writeAnnotationFromTemplate(String packageName, String templateName,
+                                                                 Map configItems, PrintStream out) {
+    return writeFromTemplate(JavaAnnotationSource.class, packageName, templateName, configItems, out);
+  }
+
+  private static <T extends JavaSource<T>> T writeFromTemplate(Class<T> type, String packageName, String templateName,
+                                                              Map configItems, PrintStream out) {
+    try {
       out.println("INFO: Applying template " + templateName);
-      Template controllerTemplate = config.getTemplate("templates/"+ templateName);
+      Template controllerTemplate = TemplateRegistry.getTemplate(templateName);
       Writer contents = new StringWriter();
       controllerTemplate.process(configItems, contents);
       contents.flush();
-      JavaClassSource resource = Roaster.parse(JavaClassSource.class, contents.toString());
+      T resource = Roaster.parse(type, contents.toString());
       resource.setPackage(packageName);
 
       return resource;
@@ -66,5 +73,26 @@ public class WriteClassHelper {
     }
   }
 
+  /**
+   * Package of a class in the main sources, e.g. one generated by an earlier command.
+   * @return the package or null if there is no such class
+   */
+  public static String findPackageOf(JavaSourceFacet facet, String className) {
+    String[] found = new String[1];
+    facet.visitJavaSources(new JavaResourceVisitor() {
+      @Override
+      public void visit(VisitContext visitContext, JavaResource resource) {
+        if (found[0] == null && resource.getName().equals(className + ".java")) {
+          try {
+            found[0] = resource.getJavaType().getPackage();
+          } catch (FileNotFoundException e) {
+            // Gone in the meantime, keep looking
+          }
+        }
+      }
+    });
+    return found[0];
+  }
+
 }
 
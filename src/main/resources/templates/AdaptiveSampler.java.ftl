@@ -0,0 +1,284 @@
+import com.uber.jaeger.samplers.Sampler;
+import com.uber.jaeger.samplers.SamplingStatus;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Probabilistic sampler whose rate follows the load: it is lowered when the reporter
+ * queue fills up, spans are dropped, more spans are reported than the collector is
+ * sized for or the process is short of CPU, and raised again up to the configured
+ * rate when the pressure is gone.
+ * <p>
+ * Every operation still gets at least the given number of traces per minute, so rare
+ * operations do not disappear from Jaeger under load. The rate is recomputed on a
+ * background thread; sampling itself only reads volatile fields and, for the
+ * operation minimum, updates an AtomicLong per operation, without locking. The time
+ * for the minimum comes from a clock that thread ticks, System.nanoTime() would
+ * cost more than the rest of the decision.
+ */
+public class AdaptiveSampler implements Sampler {
+
+	public static final String TYPE = "adaptive";
+
+	/** The reporter queue may be half full before the rate is lowered. */
+	static final double QUEUE_FILL_LIMIT = 0.5;
+	/** Dropped spans count as this much pressure, i.e. halve the rate. */
+	static final double DROP_PRESSURE = 2;
+	/** Below this pressure the rate is raised again, in between it is kept. */
+	static final double RECOVER_BELOW = 0.8;
+	static final double STEP_UP = 1.25;
+	static final double MAX_STEP_DOWN = 4;
+	/** The rate is not lowered below this fraction of the configured one. */
+	static final double MIN_FRACTION = 0.001;
+	/** Operations beyond these, e.g. from names built at runtime, get no minimum. */
+	static final int MAX_OPERATIONS = 2000;
+
+	private static final SamplingStatus NOT_SAMPLED = SamplingStatus.of(false, Collections.emptyMap());
+
+	/**
+	 * Live load of the process, read once per adjustment. Counters only ever grow,
+	 * the sampler works with their difference since the last adjustment.
+	 */
+	public interface LoadSignals {
+		/** Fill level of the reporter queue, from 0 to 1. */
+		double queueFill();
+
+		/** Spans reported so far. */
+		long reported();
+
+		/** Spans dropped so far. */
+		long dropped();
+
+		/** CPU load of the process from 0 to 1, negative if not known. */
+		double cpuLoad();
+	}
+
+	private final double maxRate;
+	private final long operationIntervalNanos;
+	private final LoadSignals signals;
+	private final long maxSpansPerSecond;
+	private final double maxCpuLoad;
+	private final ScheduledExecutorService adjuster;
+	private final ConcurrentHashMap<String, AtomicLong> lastSampled = new ConcurrentHashMap<>();
+	private final LongAdder sampled = new LongAdder();
+	private final LongAdder sampledForMinimum = new LongAdder();
+
+	private volatile Rate rate;
+	private volatile long clock = System.nanoTime();
+	private volatile double pressure;
+	private long lastAdjustNanos;
+	private long lastReported;
+	private long lastDropped;
+
+	/**
+	 * @param maxRate the sampling rate without load, 0 to 1
+	 * @param minPerOperationPerMinute traces per operation and minute sampled in any case, 0 for none
+	 * @param maxSpansPerSecond reported spans per second the rate is lowered above, 0 for no limit
+	 * @param maxCpuLoad process CPU load from 0 to 1 the rate is lowered above, 0 for no limit
+	 * @param adjustIntervalMs how often the rate is recomputed, at least the reporter flush interval
+	 */
+	public AdaptiveSampler(double maxRate, double minPerOperationPerMinute, LoadSignals signals,
+			long maxSpansPerSecond, double maxCpuLoad, long adjustIntervalMs) {
+		if (maxRate < 0 || maxRate > 1) {
+			throw new IllegalArgumentException("The sampling rate must be between 0 and 1: " + maxRate);
+		}
+		this.maxRate = maxRate;
+		this.operationIntervalNanos = minPerOperationPerMinute > 0
+				? (long) (TimeUnit.MINUTES.toNanos(1) / minPerOperationPerMinute) : 0;
+		this.signals = signals;
+		this.maxSpansPerSecond = maxSpansPerSecond;
+		this.maxCpuLoad = maxCpuLoad;
+		this.rate = new Rate(maxRate);
+		this.lastAdjustNanos = System.nanoTime();
+		this.lastReported = signals.reported();
+		this.lastDropped = signals.dropped();
+
+		adjuster = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jaeger-adaptive-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		adjuster.scheduleAtFixedRate(this::adjust, adjustIntervalMs, adjustIntervalMs, TimeUnit.MILLISECONDS);
+		if (operationIntervalNanos > 0) {
+			// A tenth of the minimum's interval is accurate enough, but no finer than 10ms
+			long tickMs = Math.max(10,
+					Math.min(adjustIntervalMs, TimeUnit.NANOSECONDS.toMillis(operationIntervalNanos) / 10));
+			adjuster.scheduleAtFixedRate(() -> clock = System.nanoTime(), tickMs, tickMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Load signals from the reporter metrics and the OperatingSystemMXBean.
+	 */
+	public static LoadSignals reporterSignals(ReporterStats stats, int maxQueueSize) {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		return new LoadSignals() {
+			@Override
+			public double queueFill() {
+				return maxQueueSize > 0 ? (double) stats.getQueued() / maxQueueSize : 0;
+			}
+
+			@Override
+			public long reported() {
+				return stats.getFlushed() + stats.getFailed();
+			}
+
+			@Override
+			public long dropped() {
+				return stats.getDropped();
+			}
+
+			@Override
+			public double cpuLoad() {
+				if (os instanceof com.sun.management.OperatingSystemMXBean) {
+					return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+				}
+				return -1;
+			}
+		};
+	}
+
+	@Override
+	public SamplingStatus sample(String operation, long id) {
+		Rate current = rate;
+		AtomicLong last = operationIntervalNanos > 0 ? lastSampled(operation) : null;
+		// Same id ranges as the ProbabilisticSampler, so a trace is sampled alike by all services at the same rate
+		if (id >= 0 ? id < current.positiveBoundary : id >= current.negativeBoundary) {
+			if (last != null) {
+				last.lazySet(clock);
+			}
+			sampled.increment();
+			return current.sampled;
+		}
+		if (last != null) {
+			long now = clock;
+			long previous = last.get();
+			if (now - previous >= operationIntervalNanos && last.compareAndSet(previous, now)) {
+				sampledForMinimum.increment();
+				return current.lowerBound;
+			}
+		}
+		return NOT_SAMPLED;
+	}
+
+	private AtomicLong lastSampled(String operation) {
+		AtomicLong last = lastSampled.get(operation);
+		if (last == null && lastSampled.size() < MAX_OPERATIONS) {
+			// Only the first span of an operation gets here; it is due for the minimum right away
+			last = lastSampled.computeIfAbsent(operation,
+					op -> new AtomicLong(clock - operationIntervalNanos));
+		}
+		return last;
+	}
+
+	/**
+	 * Recomputes the rate from the load signals: lowered by the largest overshoot (by up to
+	 * {@link #MAX_STEP_DOWN} at a time), raised by {@link #STEP_UP} when all signals are
+	 * clearly below their limits.
+	 */
+	void adjust() {
+		try {
+			long now = System.nanoTime();
+			double seconds = Math.max((now - lastAdjustNanos) / 1e9, 0.001);
+			long reported = signals.reported();
+			long dropped = signals.dropped();
+
+			double load = signals.queueFill() / QUEUE_FILL_LIMIT;
+			if (dropped > lastDropped) {
+				load = Math.max(load, DROP_PRESSURE);
+			}
+			if (maxSpansPerSecond > 0) {
+				load = Math.max(load, (reported - lastReported) / seconds / maxSpansPerSecond);
+			}
+			double cpuLoad = signals.cpuLoad();
+			if (maxCpuLoad > 0 && cpuLoad >= 0) {
+				load = Math.max(load, cpuLoad / maxCpuLoad);
+			}
+			lastAdjustNanos = now;
+			lastReported = reported;
+			lastDropped = dropped;
+			pressure = load;
+
+			double probability = rate.probability;
+			if (load > 1) {
+				probability /= Math.min(load, MAX_STEP_DOWN);
+			} else if (load < RECOVER_BELOW) {
+				probability *= STEP_UP;
+			}
+			probability = Math.max(Math.min(probability, maxRate), maxRate * MIN_FRACTION);
+			if (probability != rate.probability) {
+				rate = new Rate(probability);
+			}
+		} catch (RuntimeException e) {
+			// A failing signal must not stop the adjustments, the rate is kept until the next one
+		}
+	}
+
+	/** The current sampling rate. */
+	public double getSamplingRate() {
+		return rate.probability;
+	}
+
+	/** The load at the last adjustment, 1 being the limit of the most loaded signal. */
+	public double getPressure() {
+		return pressure;
+	}
+
+	/** Traces sampled by the rate. */
+	public long getSampled() {
+		return sampled.sum();
+	}
+
+	/** Traces sampled only for the minimum per operation. */
+	public long getSampledForMinimum() {
+		return sampledForMinimum.sum();
+	}
+
+	@Override
+	public void close() {
+		adjuster.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveSampler{rate=" + getSamplingRate() + ", maxRate=" + maxRate
+				+ ", pressure=" + getPressure() + "}";
+	}
+
+	/**
+	 * A rate with everything the sampling decision needs, replaced as a whole so that
+	 * sampling sees a consistent state and allocates nothing.
+	 */
+	private static final class Rate {
+		final double probability;
+		final long positiveBoundary;
+		final long negativeBoundary;
+		final SamplingStatus sampled;
+		final SamplingStatus lowerBound;
+
+		Rate(double probability) {
+			this.probability = probability;
+			this.positiveBoundary = (long) (probability * Long.MAX_VALUE);
+			this.negativeBoundary = (long) (probability * Long.MIN_VALUE);
+			// Tagged like the samplers of the Jaeger client, so counts can be extrapolated from sampler.param
+			this.sampled = SamplingStatus.of(true, tags("probabilistic", probability));
+			this.lowerBound = SamplingStatus.of(true, tags("lowerbound", probability));
+		}
+
+		private static Map<String, Object> tags(String type, double param) {
+			Map<String, Object> tags = new HashMap<>();
+			tags.put("sampler.type", type);
+			tags.put("sampler.param", param);
+			return Collections.unmodifiableMap(tags);
+		}
+	}
+}
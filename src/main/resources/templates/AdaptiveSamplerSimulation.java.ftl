@@ -0,0 +1,157 @@
+import com.uber.jaeger.samplers.SamplingStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the {@link AdaptiveSampler} with synthetic load: generator threads make
+ * sampling decisions at the request rate of each phase, sampled traces go into a
+ * simulated reporter queue that a simulated collector drains at a fixed rate, and the
+ * CPU load is set per phase. Checks that the rate backs off at peak and under CPU
+ * pressure, comes back afterwards and that a rare operation keeps its minimum.
+ * <p>
+ * Run main() from the IDE or with the test classpath, e.g. via exec:java. Exits with 1
+ * if a check fails.
+ */
+public class AdaptiveSamplerSimulation {
+
+	private static final double MAX_RATE = 0.5;
+	private static final int SPANS_PER_TRACE = 5;
+	private static final int QUEUE_CAPACITY = 2000;
+	private static final int COLLECTOR_SPANS_PER_SECOND = 5000;
+	private static final int MAX_SPANS_PER_SECOND = 4000;
+	private static final double MAX_CPU = 0.75;
+	private static final int MIN_PER_OPERATION_PER_MINUTE = 120;
+	private static final int ADJUST_INTERVAL_MS = 200;
+	private static final int GENERATORS = 4;
+	private static final int TICK_MS = 10;
+	private static final String RARE_OPERATION = "GET /admin/report";
+
+	// The simulated reporter
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong reported = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong rareSampled = new AtomicLong();
+	private volatile int requestsPerSecond;
+	private volatile double cpuLoad;
+
+	private final AdaptiveSampler sampler = new AdaptiveSampler(MAX_RATE, MIN_PER_OPERATION_PER_MINUTE,
+			new AdaptiveSampler.LoadSignals() {
+				@Override
+				public double queueFill() {
+					return (double) queued.get() / QUEUE_CAPACITY;
+				}
+
+				@Override
+				public long reported() {
+					return reported.get();
+				}
+
+				@Override
+				public long dropped() {
+					return dropped.get();
+				}
+
+				@Override
+				public double cpuLoad() {
+					return cpuLoad;
+				}
+			}, MAX_SPANS_PER_SECOND, MAX_CPU, ADJUST_INTERVAL_MS);
+
+	private final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args) throws InterruptedException {
+		AdaptiveSamplerSimulation simulation = new AdaptiveSamplerSimulation();
+		simulation.run();
+		if (!simulation.failures.isEmpty()) {
+			simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	private void run() throws InterruptedException {
+		ScheduledExecutorService load = Executors.newScheduledThreadPool(GENERATORS + 1);
+		for (int i = 0; i < GENERATORS; i++) {
+			load.scheduleAtFixedRate(this::generate, 0, TICK_MS, TimeUnit.MILLISECONDS);
+		}
+		load.scheduleAtFixedRate(this::collect, 0, TICK_MS, TimeUnit.MILLISECONDS);
+
+		System.out.printf("%-9s %8s %8s %8s %9s %9s %6s %8s %5s%n", "phase", "req/s", "cpu", "rate",
+				"pressure", "reported", "queue", "dropped", "rare");
+		phase("off-peak", 1000, 0.2, 4);
+		check(sampler.getSamplingRate() == MAX_RATE, "the full rate is used off-peak");
+
+		long droppedBefore = dropped.get();
+		phase("peak", 20000, 0.5, 4);
+		check(sampler.getSamplingRate() < MAX_RATE / 4, "the rate is lowered at peak");
+		long droppedAtPeak = dropped.get();
+		phase("peak", 20000, 0.5, 4);
+		check(dropped.get() - droppedAtPeak < (droppedAtPeak - droppedBefore) / 10,
+				"spans are hardly dropped any more once the rate has settled");
+
+		double rateBefore = sampler.getSamplingRate();
+		phase("cpu", 1000, 0.95, 3);
+		check(sampler.getSamplingRate() < rateBefore / 10, "the rate is lowered under CPU pressure");
+
+		phase("recovery", 1000, 0.2, 8);
+		check(sampler.getSamplingRate() == MAX_RATE, "the full rate is used again after the load");
+
+		load.shutdownNow();
+		sampler.close();
+	}
+
+	private void phase(String name, int requestsPerSecond, double cpuLoad, int seconds) throws InterruptedException {
+		this.requestsPerSecond = requestsPerSecond;
+		this.cpuLoad = cpuLoad;
+		for (int i = 0; i < seconds; i++) {
+			long reportedBefore = reported.get();
+			long droppedBefore = dropped.get();
+			long rareBefore = rareSampled.get();
+			Thread.sleep(1000);
+			long rare = rareSampled.get() - rareBefore;
+			System.out.printf("%-9s %8d %8.2f %8.4f %9.2f %9d %6d %8d %5d%n", name, requestsPerSecond, cpuLoad,
+					sampler.getSamplingRate(), sampler.getPressure(), reported.get() - reportedBefore, queued.get(),
+					dropped.get() - droppedBefore, rare);
+			// At least one of the two traces a second the minimum guarantees
+			check(rare >= 1, RARE_OPERATION + " is sampled every second in " + name);
+		}
+	}
+
+	// One tick of requests of one generator; 1 in 100 is the rare operation
+	private void generate() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int requests = requestsPerSecond * TICK_MS / 1000 / GENERATORS;
+		for (int i = 0; i < requests; i++) {
+			int pick = random.nextInt(1000);
+			String operation = pick < 10 ? RARE_OPERATION : pick < 100 ? "POST /checkout" : "GET /orders";
+			SamplingStatus status = sampler.sample(operation, random.nextLong());
+			if (status.isSampled()) {
+				if (pick < 10) {
+					rareSampled.incrementAndGet();
+				}
+				if (queued.addAndGet(SPANS_PER_TRACE) > QUEUE_CAPACITY) {
+					queued.addAndGet(-SPANS_PER_TRACE);
+					dropped.addAndGet(SPANS_PER_TRACE);
+				}
+			}
+		}
+	}
+
+	// One tick of the collector taking spans from the queue
+	private void collect() {
+		long taken = Math.min(queued.get(), COLLECTOR_SPANS_PER_SECOND * TICK_MS / 1000);
+		queued.addAndGet(-taken);
+		reported.addAndGet(taken);
+	}
+
+	private void check(boolean condition, String description) {
+		if (!condition) {
+			failures.add(description);
+		}
+	}
+}
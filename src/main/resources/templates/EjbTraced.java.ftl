@@ -0,0 +1,20 @@
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Switches tracing by the {@link EjbTracingInterceptor} on or off for a bean class
+ * or a single business method. An annotation on the method wins over one on the class.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface EjbTraced {
+
+	boolean value() default true;
+
+	/**
+	 * Operation name of the span, Class.method if empty.
+	 */
+	String operationName() default "";
+}
@@ -0,0 +1,19 @@
+import io.opentracing.util.GlobalTracer;
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Registers the tracer used by the {@link EjbTracingInterceptor} at deployment.
+ */
+@Singleton
+@Startup
+public class EjbTracerSetup {
+
+	@PostConstruct
+	void registerTracer() {
+		if (!GlobalTracer.isRegistered()) {
+			GlobalTracer.register(JaegerTracerFactory.createTracer("ejb"));
+		}
+	}
+}
@@ -0,0 +1,89 @@
+import io.opentracing.ActiveSpan;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import io.opentracing.util.GlobalTracer;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Starts a span around EJB business method calls.
+ * <p>
+ * Whether a method is traced, its operation name and its tags are worked out once
+ * per {@link Method} and cached, so a call only costs a map lookup on top of the span.
+ * <#if ejbTraceAll>All methods are traced unless switched off with {@code @EjbTraced(false)}.<#else>Only methods and classes annotated with {@link EjbTraced} are traced.</#if>
+ */
+public class EjbTracingInterceptor {
+
+	private static final boolean TRACE_ALL = ${ejbTraceAll?c};
+
+	private static final ConcurrentMap<Method, Operation> OPERATIONS = new ConcurrentHashMap<>();
+
+	private final Tracer tracer = GlobalTracer.get();
+
+	@AroundInvoke
+	public Object trace(InvocationContext invocation) throws Exception {
+		Method method = invocation.getMethod();
+		if (method == null) {
+			// Lifecycle callback, not a business method
+			return invocation.proceed();
+		}
+		Operation operation = OPERATIONS.get(method);
+		if (operation == null) {
+			operation = Operation.of(invocation.getTarget().getClass(), method);
+			Operation raced = OPERATIONS.putIfAbsent(method, operation);
+			if (raced != null) {
+				operation = raced;
+			}
+		}
+		if (!operation.traced) {
+			return invocation.proceed();
+		}
+
+		try (ActiveSpan span = tracer.buildSpan(operation.name)
+				.withTag(Tags.COMPONENT.getKey(), "ejb")
+				.withTag("ejb.class", operation.className)
+				.withTag("ejb.method", operation.methodName)
+				.startActive()) {
+			try {
+				return invocation.proceed();
+			} catch (Exception e) {
+				Tags.ERROR.set(span, Boolean.TRUE);
+				span.setTag("error.kind", e.getClass().getName());
+				throw e;
+			}
+		}
+	}
+
+	private static final class Operation {
+		final boolean traced;
+		final String name;
+		final String className;
+		final String methodName;
+
+		private Operation(boolean traced, String name, String className, String methodName) {
+			this.traced = traced;
+			this.name = name;
+			this.className = className;
+			this.methodName = methodName;
+		}
+
+		static Operation of(Class<?> beanClass, Method method) {
+			// Container proxies and subclasses do not carry the annotations, the declaring class does
+			Class<?> declaring = method.getDeclaringClass();
+			EjbTraced onMethod = method.getAnnotation(EjbTraced.class);
+			EjbTraced onClass = declaring.getAnnotation(EjbTraced.class);
+			if (onClass == null) {
+				onClass = beanClass.getAnnotation(EjbTraced.class);
+			}
+
+			boolean traced = onMethod != null ? onMethod.value() : onClass != null ? onClass.value() : TRACE_ALL;
+			String name = onMethod != null && !onMethod.operationName().isEmpty()
+					? onMethod.operationName()
+					: declaring.getSimpleName() + "." + method.getName();
+			return new Operation(traced, name, declaring.getName(), method.getName());
+		}
+	}
+}
@@ -0,0 +1,208 @@
+import com.sun.net.httpserver.HttpServer;
+import com.uber.jaeger.agent.thrift.Agent;
+import com.uber.jaeger.thriftjava.Batch;
+import com.uber.jaeger.thriftjava.Span;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+/**
+ * In-process stand-in for the Jaeger backend. Takes span batches like the collector,
+ * as Thrift over HTTP on /api/traces, and like the agent, as compact Thrift emitBatch
+ * calls on UDP. Spans are only counted, together with the time from their end until
+ * they arrived.
+ * <p>
+ * Port 0 picks a free port. main() starts it on the default ports 14268 and 6831, for
+ * trying the application without Jaeger.
+ */
+public class FakeCollector implements AutoCloseable {
+
+	private static final int MAX_UDP_PACKET = 65535;
+	private static final int MAX_LATENCY_MS = 60000;
+
+	private final HttpServer http;
+	private final ExecutorService httpThreads = Executors.newFixedThreadPool(2);
+	private final DatagramSocket udp;
+	private final Thread udpReader;
+
+	private final LongAdder spans = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder undecodable = new LongAdder();
+	// Spans per ms from their end until they arrived, the last slot takes everything slower
+	private final AtomicLongArray latencies = new AtomicLongArray(MAX_LATENCY_MS + 1);
+	private long countFromMicros = Long.MIN_VALUE;
+
+	public FakeCollector(int httpPort, int udpPort) throws IOException {
+		// The address the senders get for "localhost", which may be ::1
+		InetAddress localhost = InetAddress.getByName("localhost");
+		http = HttpServer.create(new InetSocketAddress(localhost, httpPort), 0);
+		http.createContext("/api/traces", exchange -> {
+			byte[] body = readAll(exchange.getRequestBody());
+			// Accepted, like the collector
+			int status = 202;
+			try {
+				Batch batch = new Batch();
+				new TDeserializer(new TBinaryProtocol.Factory()).deserialize(batch, body);
+				received(batch, body.length);
+			} catch (TException e) {
+				undecodable.increment();
+				status = 400;
+			}
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+		});
+		http.setExecutor(httpThreads);
+
+		udp = new DatagramSocket(new InetSocketAddress(localhost, udpPort));
+		// Like the agent, take in bursts instead of losing them in a small OS buffer
+		udp.setReceiveBufferSize(8 * 1024 * 1024);
+		udpReader = new Thread(this::readUdp, "fake-collector-udp");
+		udpReader.setDaemon(true);
+	}
+
+	public FakeCollector start() {
+		http.start();
+		udpReader.start();
+		return this;
+	}
+
+	@Override
+	public void close() {
+		http.stop(0);
+		httpThreads.shutdownNow();
+		udp.close();
+	}
+
+	/**
+	 * Starts counting anew, with only the spans started at or after the given time (epoch
+	 * micros), e.g. to leave out a warm-up.
+	 */
+	public synchronized void countFrom(long startMicros) {
+		countFromMicros = startMicros;
+		spans.reset();
+		for (int i = 0; i < latencies.length(); i++) {
+			latencies.set(i, 0);
+		}
+	}
+
+	public String getHttpUrl() {
+		return "http://localhost:" + http.getAddress().getPort() + "/api/traces";
+	}
+
+	public int getUdpPort() {
+		return udp.getLocalPort();
+	}
+
+	/** Spans received on both endpoints, see {@link #countFrom(long)}. */
+	public long getSpans() {
+		return spans.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/** Size of the received batches on the wire. */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/** Requests and packets that were no span batch. */
+	public long getUndecodable() {
+		return undecodable.sum();
+	}
+
+	/**
+	 * Time from the end of a span until it arrived here, below which the given share
+	 * of the spans arrived, e.g. 0.99 for the 99th percentile. Capped at 60s.
+	 */
+	public long getLatencyPercentileMs(double share) {
+		long total = 0;
+		for (int i = 0; i < latencies.length(); i++) {
+			total += latencies.get(i);
+		}
+		long rank = (long) Math.ceil(total * share);
+		long seen = 0;
+		for (int i = 0; i < latencies.length(); i++) {
+			seen += latencies.get(i);
+			if (seen >= rank && seen > 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	private void readUdp() {
+		byte[] buffer = new byte[MAX_UDP_PACKET];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!udp.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				udp.receive(packet);
+				TCompactProtocol protocol = new TCompactProtocol(
+						new TMemoryInputTransport(buffer, 0, packet.getLength()));
+				protocol.readMessageBegin();
+				Agent.emitBatch_args args = new Agent.emitBatch_args();
+				args.read(protocol);
+				protocol.readMessageEnd();
+				received(args.getBatch(), packet.getLength());
+			} catch (TException | RuntimeException e) {
+				undecodable.increment();
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+	}
+
+	// Synchronized with countFrom(), so a batch is counted either before or after it
+	private synchronized void received(Batch batch, int size) {
+		long nowMicros = System.currentTimeMillis() * 1000;
+		batches.increment();
+		bytes.add(size);
+		if (batch.getSpans() == null) {
+			return;
+		}
+		for (Span span : batch.getSpans()) {
+			if (span.getStartTime() >= countFromMicros) {
+				long latencyMs = (nowMicros - span.getStartTime() - span.getDuration()) / 1000;
+				latencies.incrementAndGet((int) Math.max(0, Math.min(latencyMs, MAX_LATENCY_MS)));
+				spans.increment();
+			}
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	public static void main(String[] args) throws Exception {
+		try (FakeCollector collector = new FakeCollector(14268, 6831).start()) {
+			System.out.println("Taking spans on " + collector.getHttpUrl() + " and udp://localhost:" + collector.getUdpPort());
+			while (true) {
+				Thread.sleep(5000);
+				System.out.printf("%d spans in %d batches, p99 %d ms%n", collector.getSpans(), collector.getBatches(),
+						collector.getLatencyPercentileMs(0.99));
+			}
+		}
+	}
+}
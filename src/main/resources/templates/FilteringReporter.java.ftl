@@ -0,0 +1,195 @@
+import com.uber.jaeger.Span;
+import com.uber.jaeger.reporters.Reporter;
+import io.opentracing.tag.Tags;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes on only the traces worth looking at: those with a span slower than the
+ * latency threshold, with an error tag, marked as debug, or falling into the
+ * baseline sample.
+ * <p>
+ * The spans of a trace are held back until the first of them qualifies; from then on
+ * the buffered and all later spans of that trace go to the delegate. Usually this is
+ * the local root span, which finishes last. Traces that did not qualify within the
+ * buffer time are dropped. At most maxBufferedSpans spans are held, a kept trace
+ * counting as one for as long as its id is remembered; beyond that the oldest traces
+ * are evicted until the buffer is within the bound again, and the pending ones count
+ * as filtered. The baseline is picked from the trace id, so all services keep the
+ * same baseline traces.
+ * <p>
+ * Each trace has a lock of its own, so spans of different traces do not wait for
+ * each other. Only sampled spans reach a reporter, so this works best with a high
+ * sampling rate. The decisions are counted in {@link ReporterStats}.
+ */
+public class FilteringReporter implements Reporter {
+
+	private static final int BASELINE_RESOLUTION = 1_000_000;
+
+	private final Reporter delegate;
+	private final ReporterStats stats;
+	private final long latencyThresholdMicros;
+	private final long baselineBound;
+	private final long bufferNanos;
+	private final int maxBufferedSpans;
+
+	// trace id -> pending or kept trace
+	private final ConcurrentMap<Long, Trace> traces = new ConcurrentHashMap<>();
+	// The same traces, oldest first
+	private final Queue<Trace> arrivals = new ConcurrentLinkedQueue<>();
+	// Buffered spans, plus one for each kept trace
+	private final AtomicInteger held = new AtomicInteger();
+
+	private final ScheduledExecutorService expiry = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "jaeger-filtering-reporter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public FilteringReporter(Reporter delegate, ReporterStats stats, long latencyThresholdMs, double baselineRate,
+			long bufferMs, int maxBufferedSpans) {
+		this.delegate = delegate;
+		this.stats = stats;
+		this.latencyThresholdMicros = TimeUnit.MILLISECONDS.toMicros(latencyThresholdMs);
+		this.baselineBound = (long) (baselineRate * BASELINE_RESOLUTION);
+		this.bufferNanos = TimeUnit.MILLISECONDS.toNanos(bufferMs);
+		this.maxBufferedSpans = maxBufferedSpans;
+		long period = Math.max(bufferMs / 4, 10);
+		expiry.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void report(Span span) {
+		long traceId = span.context().getTraceId();
+		boolean qualifies = span.getDuration() >= latencyThresholdMicros || isError(span)
+				|| span.context().isDebug() || isBaseline(traceId);
+
+		List<Span> toReport = null;
+		boolean kept = false;
+		while (true) {
+			Trace trace = traces.get(traceId);
+			if (trace == null) {
+				Trace created = new Trace(traceId, System.nanoTime());
+				trace = traces.putIfAbsent(traceId, created);
+				if (trace == null) {
+					trace = created;
+					arrivals.add(created);
+				}
+			}
+			synchronized (trace) {
+				if (trace.removed) {
+					// Expired or evicted in the meantime, the span starts a trace anew
+					continue;
+				}
+				if (trace.spans == null) {
+					// Already decided to keep this one
+					toReport = Collections.singletonList(span);
+				} else if (qualifies) {
+					// The buffered spans make way for the one held for the kept trace
+					held.addAndGet(1 - trace.spans.size());
+					toReport = trace.spans;
+					toReport.add(span);
+					trace.spans = null;
+					kept = true;
+				} else {
+					trace.spans.add(span);
+					held.incrementAndGet();
+				}
+			}
+			break;
+		}
+
+		if (kept) {
+			stats.traceKept();
+		}
+		if (toReport != null) {
+			stats.spansKept(toReport.size());
+			for (Span s : toReport) {
+				delegate.report(s);
+			}
+		}
+		if (held.get() > maxBufferedSpans) {
+			evict();
+		}
+	}
+
+	@Override
+	public void close() {
+		expiry.shutdownNow();
+		for (Trace trace = arrivals.poll(); trace != null; trace = arrivals.poll()) {
+			remove(trace);
+		}
+		delegate.close();
+	}
+
+	private static boolean isError(Span span) {
+		Object error = span.getTags().get(Tags.ERROR.getKey());
+		return Boolean.TRUE.equals(error) || "true".equals(error);
+	}
+
+	private boolean isBaseline(long traceId) {
+		return (traceId & Long.MAX_VALUE) % BASELINE_RESOLUTION < baselineBound;
+	}
+
+	// Oldest first, until the bound is kept again
+	private void evict() {
+		while (held.get() > maxBufferedSpans) {
+			Trace oldest = arrivals.poll();
+			if (oldest == null) {
+				return;
+			}
+			remove(oldest);
+		}
+	}
+
+	private void expire() {
+		long now = System.nanoTime();
+		for (Trace oldest = arrivals.peek(); oldest != null && now - oldest.created >= bufferNanos;
+				oldest = arrivals.peek()) {
+			// Unless evict() was quicker
+			if (arrivals.remove(oldest)) {
+				remove(oldest);
+			}
+		}
+	}
+
+	// The trace is already out of the arrivals
+	private void remove(Trace trace) {
+		traces.remove(trace.traceId, trace);
+		int filtered;
+		synchronized (trace) {
+			trace.removed = true;
+			if (trace.spans == null) {
+				held.decrementAndGet();
+				return;
+			}
+			filtered = trace.spans.size();
+			held.addAndGet(-filtered);
+		}
+		if (filtered > 0) {
+			stats.traceFiltered(filtered);
+		}
+	}
+
+	private static final class Trace {
+		final long traceId;
+		final long created;
+		// null once the trace is kept
+		List<Span> spans = new ArrayList<>(4);
+		boolean removed;
+
+		Trace(long traceId, long created) {
+			this.traceId = traceId;
+			this.created = created;
+		}
+	}
+}
@@ -1,7 +1,4 @@
 
-import com.uber.jaeger.Configuration;
-import com.uber.jaeger.samplers.ProbabilisticSampler;
-import com.uber.jaeger.senders.HttpSender;
 import io.opentracing.util.GlobalTracer;
 import javax.enterprise.inject.Produces;
 import javax.inject.Inject;
@@ -31,15 +28,6 @@ public class TracerSetupListener
 	@Produces
 	@Singleton
 	static Tracer jaegerTracer() {
-        String jaegerHttpUrl = System.getenv("JAEGER_HTTP_QUERY_URL");
-        if (jaegerHttpUrl == null || jaegerHttpUrl.isEmpty()) {
-            jaegerHttpUrl = "http://localhost:14268/api/traces";
-        }
-        HttpSender httpSender = new HttpSender(jaegerHttpUrl, 0);
-
-		return new Configuration("wildfly-swarm",
-				new Configuration.SamplerConfiguration(
-						ProbabilisticSampler.TYPE, 1),
-				new Configuration.ReporterConfiguration(httpSender)).getTracer();
+		return JaegerTracerFactory.createTracer("wildfly-swarm");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+import com.uber.jaeger.metrics.Metrics;
+import com.uber.jaeger.metrics.StatsFactoryImpl;
+import com.uber.jaeger.reporters.RemoteReporter;
+import com.uber.jaeger.reporters.Reporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import com.uber.jaeger.samplers.HttpSamplingManager;
+import com.uber.jaeger.samplers.ProbabilisticSampler;
+import com.uber.jaeger.samplers.RateLimitingSampler;
+import com.uber.jaeger.samplers.RemoteControlledSampler;
+import com.uber.jaeger.samplers.Sampler;
+import com.uber.jaeger.senders.HttpSender;
+import com.uber.jaeger.senders.Sender;
+import com.uber.jaeger.senders.UdpSender;
+import io.opentracing.Tracer;
+
+/**
+ * Builds the Jaeger tracer. Settings are taken from the JAEGER_* environment
+ * variables, the defaults are the values chosen when tracing was set up.
+ */
+public class JaegerTracerFactory {
+
+	private static final ReporterStats REPORTER_STATS = new ReporterStats();
+
+<#if tracerStartup != "eager">
+	/**
+	 * eager: builds the tracer right away. warm-up: returns a {@link LazyTracer} that
+	 * builds it on a background thread right away, first-span: one that starts doing so
+	 * with the first span. Spans are no-ops until the tracer is built.
+	 */
+	public static Tracer createTracer(String serviceName) {
+		String startup = env("TRACING_TRACER_STARTUP", "${tracerStartup}");
+		if ("eager".equals(startup)) {
+			return createEagerTracer(serviceName);
+		}
+		return new LazyTracer(() -> createEagerTracer(serviceName), "warm-up".equals(startup));
+	}
+<#else>
+	public static Tracer createTracer(String serviceName) {
+		return createEagerTracer(serviceName);
+	}
+</#if>
+
+	public static Tracer createEagerTracer(String serviceName) {
+		Metrics metrics = createMetrics();
+		return createEagerTracer(serviceName, createReporter(metrics), createSampler(serviceName, metrics), metrics);
+	}
+
+	/**
+	 * Builds the tracer around the given reporter and sampler, e.g. ones sending to a
+	 * local collector in tests; everything else is set up as for the application.
+	 */
+	public static Tracer createEagerTracer(String serviceName, Reporter reporter, Sampler sampler, Metrics metrics) {
+		com.uber.jaeger.Tracer.Builder builder = new com.uber.jaeger.Tracer.Builder(serviceName, reporter, sampler)
+				.withMetrics(metrics);
+<#if propagation != "jaeger">
+		// The formats of the span context in headers, see TracePropagation
+		Tracer tracer = TracePropagation.register(builder, TracePropagation.formatsFromEnvironment()).build();
+<#else>
+		Tracer tracer = builder.build();
+</#if>
+<#if redMetrics != "none">
+
+		// Rate, errors and duration from all spans, not just the sampled ones; see RedMetrics
+		String redMetrics = env("TRACING_RED_METRICS", "${redMetrics}");
+		if (!"none".equals(redMetrics)) {
+			int port = Integer.parseInt(env("TRACING_METRICS_PORT", "9779"));
+			tracer = new MeteredTracer(tracer, RedMetrics.get().expose(redMetrics, port));
+		}
+</#if>
+		return tracer;
+	}
+
+	/**
+	 * Spans are queued and sent in batches from a background thread. When the queue
+	 * is full, new spans are dropped instead of blocking the traced request;
+	 * see {@link ReporterStats#getDropped()}.
+	 */
+	public static Reporter createReporter(Metrics metrics) {
+		return createReporter(metrics, createSender(getMaxPacketSize()));
+	}
+
+	public static Reporter createReporter(Metrics metrics, Sender sender) {
+		int flushIntervalMs = getFlushIntervalMs();
+		int maxQueueSize = Integer.parseInt(env("JAEGER_REPORTER_MAX_QUEUE_SIZE", "${reporterMaxQueueSize}"));
+
+		Reporter reporter = new RemoteReporter(sender, flushIntervalMs, maxQueueSize, metrics);
+<#if filterLatencyMs != "0">
+
+		// Only keep traces that are slow, failed or in the baseline sample, see FilteringReporter
+		long latencyThresholdMs = Long.parseLong(env("TRACING_FILTER_LATENCY_MS", "${filterLatencyMs}"));
+		if (latencyThresholdMs > 0) {
+			double baselineRate = Double.parseDouble(env("TRACING_FILTER_BASELINE_RATE", "${filterBaselineRate}"));
+			long bufferMs = Long.parseLong(env("TRACING_FILTER_BUFFER_MS", "10000"));
+			int maxBufferedSpans = Integer.parseInt(env("TRACING_FILTER_MAX_SPANS", "${filterMaxSpans}"));
+			reporter = new FilteringReporter(reporter, REPORTER_STATS, latencyThresholdMs, baselineRate, bufferMs,
+					maxBufferedSpans);
+		}
+</#if>
+		return reporter;
+	}
+
+	/**
+	 * udp: compact Thrift to the jaeger-agent (usually a sidecar on localhost:6831),
+	 * http: Thrift over HTTP straight to the collector.
+	 */
+	public static Sender createSender(int maxPacketSize) {
+		if ("udp".equals(getSenderType())) {
+			String agentHost = env("JAEGER_AGENT_HOST", UdpSender.DEFAULT_AGENT_UDP_HOST);
+			int agentPort = Integer.parseInt(env("JAEGER_AGENT_PORT", String.valueOf(UdpSender.DEFAULT_AGENT_UDP_COMPACT_PORT)));
+			return new UdpSender(agentHost, agentPort, maxPacketSize);
+		}
+		String jaegerHttpUrl = env("JAEGER_HTTP_QUERY_URL", "http://localhost:14268/api/traces");
+		return new HttpSender(jaegerHttpUrl, maxPacketSize);
+	}
+
+	/**
+	 * const: param 0 or 1, probabilistic: param is the sampling rate,
+	 * ratelimiting: param is traces per second, remote: strategies (incl. per operation)
+	 * are fetched from JAEGER_SAMPLER_MANAGER_HOST_PORT, param is the initial rate<#if samplerType == "adaptive">,
+	 * adaptive: param is the rate without load, see {@link AdaptiveSampler}</#if>.
+	 */
+	public static Sampler createSampler(String serviceName, Metrics metrics) {
+		String type = env("JAEGER_SAMPLER_TYPE", "${samplerType}");
+		double param = Double.parseDouble(env("JAEGER_SAMPLER_PARAM", "${samplerParam}"));
+		switch (type) {
+			case ConstSampler.TYPE :
+				return new ConstSampler(param != 0);
+			case RateLimitingSampler.TYPE :
+				return new RateLimitingSampler(param);
+			case RemoteControlledSampler.TYPE :
+				String managerHostPort = env("JAEGER_SAMPLER_MANAGER_HOST_PORT", "${samplerManagerHostPort?j_string}");
+				return new RemoteControlledSampler(serviceName, new HttpSamplingManager(managerHostPort),
+						new ProbabilisticSampler(param), metrics);
+<#if samplerType == "adaptive">
+			case AdaptiveSampler.TYPE :
+				int maxQueueSize = Integer.parseInt(env("JAEGER_REPORTER_MAX_QUEUE_SIZE", "${reporterMaxQueueSize}"));
+				return new AdaptiveSampler(param,
+						Double.parseDouble(env("TRACING_SAMPLER_MIN_PER_MINUTE", "1")),
+						AdaptiveSampler.reporterSignals(REPORTER_STATS, maxQueueSize),
+						Long.parseLong(env("TRACING_SAMPLER_MAX_SPANS_PER_SECOND", "${samplerMaxSpansPerSecond}")),
+						Double.parseDouble(env("TRACING_SAMPLER_MAX_CPU", "0.75")),
+						Math.max(1000, getFlushIntervalMs()));
+</#if>
+			default :
+				return new ProbabilisticSampler(param);
+		}
+	}
+
+	/** The reporter metrics end up in {@link #getReporterStats()}. */
+	public static Metrics createMetrics() {
+		return new Metrics(new StatsFactoryImpl(REPORTER_STATS));
+	}
+
+	/** udp or http */
+	public static String getSenderType() {
+		return env("JAEGER_SENDER_TYPE", "${senderType}");
+	}
+
+	public static int getFlushIntervalMs() {
+		return Integer.parseInt(env("JAEGER_REPORTER_FLUSH_INTERVAL", "${reporterFlushInterval}"));
+	}
+
+	public static int getMaxPacketSize() {
+		return Integer.parseInt(env("JAEGER_REPORTER_MAX_PACKET_SIZE", "${reporterMaxPacketSize}"));
+	}
+
+	public static ReporterStats getReporterStats() {
+		return REPORTER_STATS;
+	}
+
+	static String env(String name, String defaultValue) {
+		String value = System.getenv(name);
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		return value;
+	}
+}
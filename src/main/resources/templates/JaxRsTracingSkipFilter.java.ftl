@@ -0,0 +1,36 @@
+import io.opentracing.NoopSpan;
+import io.opentracing.contrib.jaxrs2.internal.SpanWrapper;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Keeps the requests matched by {@link TracingSkipMatcher} from getting a span.
+ * Paths are relative to the JAX-RS application root.
+ * <p>
+ * The ServerTracingFilter of opentracing-jaxrs2 does not start a span for a request
+ * that already has one in its span property. This filter runs before it and puts a
+ * no-op span there, so skipped requests never reach the tracer.
+ */
+@Provider
+@PreMatching
+public class TracingSkipFilter implements ContainerRequestFilter {
+
+	// ServerTracingFilter.SPAN_PROP_ID, which is not public
+	private static final String SPAN_PROPERTY =
+			"io.opentracing.contrib.jaxrs2.server.ServerTracingFilter.activeSpanWrapper";
+
+	private static final SpanWrapper NO_SPAN = new SpanWrapper(NoopSpan.INSTANCE);
+
+	private final TracingSkipMatcher matcher = TracingSkipMatcher.fromEnvironment();
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) {
+		String path = requestContext.getUriInfo().getPath();
+		// Some implementations return the path without the leading slash
+		if (matcher.matches(path.startsWith("/") ? path : "/" + path)) {
+			requestContext.setProperty(SPAN_PROPERTY, NO_SPAN);
+		}
+	}
+}
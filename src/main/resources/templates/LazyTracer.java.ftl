@@ -0,0 +1,199 @@
+import io.opentracing.ActiveSpan;
+import io.opentracing.BaseSpan;
+import io.opentracing.NoopSpanContext;
+import io.opentracing.NoopTracer;
+import io.opentracing.NoopTracerFactory;
+import io.opentracing.References;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stands in for the Jaeger tracer until it is built, so that building it, with its
+ * sender, reporter thread and sampler polling, does not add to the startup time.
+ * <p>
+ * The real tracer is built on a background thread, started right away in warm-up
+ * mode or by the first span otherwise. Until it is ready, everything is passed to a
+ * NoopTracer: spans cost next to nothing, are not reported and carry no context to
+ * other services.
+ * <p>
+ * Spans and contexts stay with the tracer that created them. A no-op context that is
+ * still around once the real tracer is in place is not injected, and a real span
+ * started with it as parent becomes the root of a trace of its own.
+ */
+public class LazyTracer implements Tracer {
+
+	private static final NoopTracer NOOP = NoopTracerFactory.create();
+
+	private final Supplier<Tracer> factory;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final CountDownLatch built = new CountDownLatch(1);
+	private volatile Tracer delegate = NOOP;
+	private volatile boolean ready;
+
+	public LazyTracer(Supplier<Tracer> factory, boolean warmUp) {
+		this.factory = factory;
+		if (warmUp) {
+			start();
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Builds the real tracer if that has not started yet and waits for it, e.g. in tests.
+	 * @return whether the real tracer is in place
+	 */
+	public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+		start();
+		return built.await(timeout, unit) && ready;
+	}
+
+	@Override
+	public SpanBuilder buildSpan(String operationName) {
+		Tracer tracer = tracer();
+		SpanBuilder builder = tracer.buildSpan(operationName);
+		return tracer == NOOP ? builder : new RealSpanBuilder(builder);
+	}
+
+	@Override
+	public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+		// The real tracer cannot inject a no-op context, the NoopTracer injects nothing
+		owner(spanContext).inject(spanContext, format, carrier);
+	}
+
+	@Override
+	public <C> SpanContext extract(Format<C> format, C carrier) {
+		return tracer().extract(format, carrier);
+	}
+
+	@Override
+	public ActiveSpan activeSpan() {
+		return delegate.activeSpan();
+	}
+
+	@Override
+	public ActiveSpan makeActive(Span span) {
+		return owner(span.context()).makeActive(span);
+	}
+
+	private Tracer owner(SpanContext context) {
+		return context instanceof NoopSpanContext ? NOOP : delegate;
+	}
+
+	private Tracer tracer() {
+		if (!ready) {
+			start();
+		}
+		return delegate;
+	}
+
+	private void start() {
+		if (started.compareAndSet(false, true)) {
+			Thread thread = new Thread(this::build, "jaeger-tracer-init");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void build() {
+		try {
+			delegate = factory.get();
+			ready = true;
+		} catch (RuntimeException e) {
+			// Not retried, spans stay no-ops rather than failing requests. The logger is only
+			// looked up here, setting up logging is a noticeable part of the startup cost
+			Logger.getLogger(LazyTracer.class.getName())
+					.log(Level.SEVERE, "Could not create the tracer, requests are not traced", e);
+		} finally {
+			built.countDown();
+		}
+	}
+
+	/**
+	 * Builds spans of the real tracer. Parents from the NoopTracer are dropped, the span
+	 * then also does not pick up the active span, as that is not the parent asked for.
+	 */
+	private final class RealSpanBuilder implements SpanBuilder {
+		private final SpanBuilder builder;
+
+		RealSpanBuilder(SpanBuilder builder) {
+			this.builder = builder;
+		}
+
+		@Override
+		public SpanBuilder asChildOf(SpanContext parent) {
+			return addReference(References.CHILD_OF, parent);
+		}
+
+		@Override
+		public SpanBuilder asChildOf(BaseSpan<?> parent) {
+			return addReference(References.CHILD_OF, parent == null ? null : parent.context());
+		}
+
+		@Override
+		public SpanBuilder addReference(String referenceType, SpanContext referencedContext) {
+			if (referencedContext instanceof NoopSpanContext) {
+				builder.ignoreActiveSpan();
+			} else {
+				builder.addReference(referenceType, referencedContext);
+			}
+			return this;
+		}
+
+		@Override
+		public SpanBuilder ignoreActiveSpan() {
+			builder.ignoreActiveSpan();
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, String value) {
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, boolean value) {
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, Number value) {
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withStartTimestamp(long microseconds) {
+			builder.withStartTimestamp(microseconds);
+			return this;
+		}
+
+		@Override
+		public ActiveSpan startActive() {
+			return builder.startActive();
+		}
+
+		@Override
+		public Span startManual() {
+			return builder.startManual();
+		}
+
+		@Override
+		@Deprecated
+		public Span start() {
+			return builder.start();
+		}
+	}
+}
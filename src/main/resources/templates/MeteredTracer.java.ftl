@@ -0,0 +1,253 @@
+import io.opentracing.ActiveSpan;
+import io.opentracing.BaseSpan;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.tag.Tags;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracer that feeds every finished span into {@link RedMetrics}, sampled or not.
+ * The Jaeger tracer only hands sampled spans to its reporter, so this hooks in
+ * one level higher: the spans it starts are wrapped to see their operation name,
+ * error tag and finish. Like the span, the duration comes from the timestamps when
+ * they are given, otherwise from the monotonic clock.
+ */
+public class MeteredTracer implements Tracer {
+
+	private final Tracer delegate;
+	private final RedMetrics metrics;
+
+	public MeteredTracer(Tracer delegate, RedMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public SpanBuilder buildSpan(String operationName) {
+		return new MeteredSpanBuilder(delegate.buildSpan(operationName), operationName);
+	}
+
+	@Override
+	public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+		delegate.inject(spanContext, format, carrier);
+	}
+
+	@Override
+	public <C> SpanContext extract(Format<C> format, C carrier) {
+		return delegate.extract(format, carrier);
+	}
+
+	@Override
+	public ActiveSpan activeSpan() {
+		return delegate.activeSpan();
+	}
+
+	@Override
+	public ActiveSpan makeActive(Span span) {
+		return delegate.makeActive(span);
+	}
+
+	private static long currentTimeMicros() {
+		return TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+	}
+
+	private static boolean isErrorTag(String key, Object value) {
+		return Tags.ERROR.getKey().equals(key) && (Boolean.TRUE.equals(value) || "true".equals(value));
+	}
+
+	private final class MeteredSpanBuilder implements SpanBuilder {
+		private final SpanBuilder builder;
+		private final String operationName;
+		private boolean error;
+		private long startMicros = -1;
+
+		MeteredSpanBuilder(SpanBuilder builder, String operationName) {
+			this.builder = builder;
+			this.operationName = operationName;
+		}
+
+		@Override
+		public SpanBuilder asChildOf(SpanContext parent) {
+			builder.asChildOf(parent);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder asChildOf(BaseSpan<?> parent) {
+			builder.asChildOf(parent);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder addReference(String referenceType, SpanContext referencedContext) {
+			builder.addReference(referenceType, referencedContext);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder ignoreActiveSpan() {
+			builder.ignoreActiveSpan();
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, String value) {
+			error |= isErrorTag(key, value);
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, boolean value) {
+			error |= isErrorTag(key, value);
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withTag(String key, Number value) {
+			builder.withTag(key, value);
+			return this;
+		}
+
+		@Override
+		public SpanBuilder withStartTimestamp(long microseconds) {
+			startMicros = microseconds;
+			builder.withStartTimestamp(microseconds);
+			return this;
+		}
+
+		@Override
+		public ActiveSpan startActive() {
+			return delegate.makeActive(startManual());
+		}
+
+		@Override
+		public Span startManual() {
+			return new MeteredSpan(builder.startManual(), operationName, error, startMicros);
+		}
+
+		@Override
+		@Deprecated
+		public Span start() {
+			return startManual();
+		}
+	}
+
+	private final class MeteredSpan implements Span {
+		private final Span span;
+		private final long startNanos = System.nanoTime();
+		// Epoch micros, given or taken at the start
+		private final long startMicros;
+		private final boolean explicitStart;
+		private volatile String operationName;
+		private volatile boolean error;
+
+		MeteredSpan(Span span, String operationName, boolean error, long startMicros) {
+			this.span = span;
+			this.operationName = operationName;
+			this.error = error;
+			this.explicitStart = startMicros >= 0;
+			this.startMicros = explicitStart ? startMicros : currentTimeMicros();
+		}
+
+		@Override
+		public void finish() {
+			span.finish();
+			long durationNanos = explicitStart
+					? TimeUnit.MICROSECONDS.toNanos(currentTimeMicros() - startMicros)
+					: System.nanoTime() - startNanos;
+			metrics.record(operationName, Math.max(0, durationNanos), error);
+		}
+
+		@Override
+		public void finish(long finishMicros) {
+			span.finish(finishMicros);
+			metrics.record(operationName, TimeUnit.MICROSECONDS.toNanos(Math.max(0, finishMicros - startMicros)), error);
+		}
+
+		@Override
+		public SpanContext context() {
+			return span.context();
+		}
+
+		@Override
+		public Span setTag(String key, String value) {
+			error |= isErrorTag(key, value);
+			span.setTag(key, value);
+			return this;
+		}
+
+		@Override
+		public Span setTag(String key, boolean value) {
+			error |= isErrorTag(key, value);
+			span.setTag(key, value);
+			return this;
+		}
+
+		@Override
+		public Span setTag(String key, Number value) {
+			span.setTag(key, value);
+			return this;
+		}
+
+		@Override
+		public Span log(Map<String, ?> fields) {
+			span.log(fields);
+			return this;
+		}
+
+		@Override
+		public Span log(long timestampMicroseconds, Map<String, ?> fields) {
+			span.log(timestampMicroseconds, fields);
+			return this;
+		}
+
+		@Override
+		public Span log(String event) {
+			span.log(event);
+			return this;
+		}
+
+		@Override
+		public Span log(long timestampMicroseconds, String event) {
+			span.log(timestampMicroseconds, event);
+			return this;
+		}
+
+		@Override
+		@Deprecated
+		public Span log(String eventName, Object payload) {
+			span.log(eventName, payload);
+			return this;
+		}
+
+		@Override
+		@Deprecated
+		public Span log(long timestampMicroseconds, String eventName, Object payload) {
+			span.log(timestampMicroseconds, eventName, payload);
+			return this;
+		}
+
+		@Override
+		public Span setBaggageItem(String key, String value) {
+			span.setBaggageItem(key, value);
+			return this;
+		}
+
+		@Override
+		public String getBaggageItem(String key) {
+			return span.getBaggageItem(key);
+		}
+
+		@Override
+		public Span setOperationName(String operationName) {
+			this.operationName = operationName;
+			span.setOperationName(operationName);
+			return this;
+		}
+	}
+}
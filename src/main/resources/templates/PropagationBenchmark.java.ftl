@@ -0,0 +1,118 @@
+import com.uber.jaeger.SpanContext;
+import com.uber.jaeger.propagation.TextMapCodec;
+import io.opentracing.propagation.TextMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures reading and writing the span context per propagation format of
+ * {@link TracePropagation}, in ns/op and (via the gc profiler) bytes allocated per op.
+ * "jaeger-client" is the codec of the Jaeger client, for comparison.
+ * The headers are those of a typical browser request plus the tracing headers.
+ * <p>
+ * Run with: mvn -P${profileId} verify
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropagationBenchmark {
+
+	@Param({"jaeger-client", "jaeger", "b3", "w3c"})
+	public String format;
+
+	private TracePropagation.Codec codec;
+	private TextMapCodec clientCodec;
+	private final SpanContext context = new SpanContext(0x4bf92f3577b34da6L, 0x00f067aa0ba902b7L, 0x53ce929d0e0e4736L,
+			(byte) 1);
+	private Headers incoming;
+	private final Headers outgoing = new Headers();
+
+	@Setup
+	public void createHeaders() {
+		incoming = new Headers();
+		incoming.put("Host", "shop.example.com");
+		incoming.put("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:55.0) Gecko/20100101 Firefox/55.0");
+		incoming.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+		incoming.put("Accept-Language", "en-US,en;q=0.5");
+		incoming.put("Accept-Encoding", "gzip, deflate, br");
+		incoming.put("Cookie", "session=7f3c2a1b9e8d4c5f; theme=dark");
+		incoming.put("Connection", "keep-alive");
+		incoming.put("Cache-Control", "max-age=0");
+
+		if ("jaeger-client".equals(format)) {
+			clientCodec = new TextMapCodec(true);
+			clientCodec.inject(context, incoming);
+		} else {
+			codec = new TracePropagation.Codec(format, true);
+			codec.inject(context, incoming);
+		}
+	}
+
+	@Benchmark
+	public SpanContext extract() {
+		return clientCodec != null ? clientCodec.extract(incoming) : codec.extract(incoming);
+	}
+
+	@Benchmark
+	public int inject() {
+		outgoing.clear();
+		if (clientCodec != null) {
+			clientCodec.inject(context, outgoing);
+		} else {
+			codec.inject(context, outgoing);
+		}
+		return outgoing.size();
+	}
+
+	// Like the header adapters of the servlet and JAX-RS instrumentation, without a copy into a map
+	private static class Headers implements TextMap {
+		private final List<Map.Entry<String, String>> entries = new ArrayList<>();
+
+		@Override
+		public Iterator<Map.Entry<String, String>> iterator() {
+			return entries.iterator();
+		}
+
+		@Override
+		public void put(String key, String value) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+		}
+
+		void clear() {
+			entries.clear();
+		}
+
+		int size() {
+			return entries.size();
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(PropagationBenchmark.class.getName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
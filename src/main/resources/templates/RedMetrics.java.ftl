@@ -0,0 +1,191 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Rate, errors and duration per operation, taken from every finished span
+ * (see {@link MeteredTracer}), so the numbers are exact whatever the sampling rate.
+ * <p>
+ * All counters are {@link LongAdder}s, so spans finishing on many threads do not
+ * contend; durations go into fixed buckets. Exposed via JMX as
+ * {@value #OBJECT_NAME} and/or as Prometheus text on
+ * http://host:TRACING_METRICS_PORT/metrics.
+ */
+public class RedMetrics implements RedMetricsMXBean {
+
+	public static final String OBJECT_NAME = "io.opentracing:type=RedMetrics";
+
+	// Upper bounds of the duration buckets in microseconds, the last bucket is unbounded
+	private static final long[] BUCKET_BOUNDS_MICROS = {
+			1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+			1_000_000, 2_500_000, 5_000_000, 10_000_000};
+
+	// Keeps a bug that puts ids into operation names from using up the heap
+	private static final int MAX_OPERATIONS = 1000;
+	private static final String OTHER_OPERATION = "other";
+
+	private static final RedMetrics INSTANCE = new RedMetrics();
+
+	private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+	private boolean jmxRegistered;
+	private HttpServer prometheusServer;
+
+	public static RedMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Makes the metrics available, exposure being a comma separated list of
+	 * jmx and prometheus. Calling it again does not register anything twice.
+	 */
+	public synchronized RedMetrics expose(String exposure, int prometheusPort) {
+		if (exposure.contains("jmx") && !jmxRegistered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+				jmxRegistered = true;
+			} catch (JMException e) {
+				System.err.println("Could not register " + OBJECT_NAME + ": " + e);
+			}
+		}
+		if (exposure.contains("prometheus") && prometheusServer == null) {
+			try {
+				prometheusServer = HttpServer.create(new InetSocketAddress(prometheusPort), 0);
+				prometheusServer.createContext("/metrics", exchange -> {
+					byte[] body = getPrometheusText().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4");
+					exchange.sendResponseHeaders(200, body.length);
+					try (OutputStream out = exchange.getResponseBody()) {
+						out.write(body);
+					}
+				});
+				prometheusServer.start();
+			} catch (IOException e) {
+				System.err.println("Could not serve span metrics on port " + prometheusPort + ": " + e);
+			}
+		}
+		return this;
+	}
+
+	void record(String operationName, long durationNanos, boolean error) {
+		Operation operation = operations.get(operationName);
+		if (operation == null) {
+			operation = operations.size() < MAX_OPERATIONS
+					? operations.computeIfAbsent(operationName, name -> new Operation())
+					: operations.computeIfAbsent(OTHER_OPERATION, name -> new Operation());
+		}
+		operation.record(TimeUnit.NANOSECONDS.toMicros(durationNanos), error);
+	}
+
+	@Override
+	public Map<String, Long> getRequestCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		operations.forEach((name, operation) -> counts.put(name, operation.count.sum()));
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getErrorCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		operations.forEach((name, operation) -> counts.put(name, operation.errors.sum()));
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getMeanDurationMillis() {
+		Map<String, Double> means = new TreeMap<>();
+		operations.forEach((name, operation) -> {
+			long count = operation.count.sum();
+			means.put(name, count == 0 ? 0.0 : operation.durationMicros.sum() / 1000.0 / count);
+		});
+		return means;
+	}
+
+	@Override
+	public String getPrometheusText() {
+		Map<String, Operation> sorted = new TreeMap<>(operations);
+		StringBuilder text = new StringBuilder(256 + sorted.size() * 1024);
+
+		text.append("# HELP span_requests_total Finished spans per operation\n");
+		text.append("# TYPE span_requests_total counter\n");
+		sorted.forEach((name, operation) -> sample(text, "span_requests_total", name, null, operation.count.sum()));
+
+		text.append("# HELP span_errors_total Finished spans with an error tag per operation\n");
+		text.append("# TYPE span_errors_total counter\n");
+		sorted.forEach((name, operation) -> sample(text, "span_errors_total", name, null, operation.errors.sum()));
+
+		text.append("# HELP span_duration_seconds Span durations per operation\n");
+		text.append("# TYPE span_duration_seconds histogram\n");
+		sorted.forEach((name, operation) -> {
+			long cumulative = 0;
+			for (int i = 0; i < operation.buckets.length; i++) {
+				cumulative += operation.buckets[i].sum();
+				String le = i < BUCKET_BOUNDS_MICROS.length ? String.valueOf(BUCKET_BOUNDS_MICROS[i] / 1e6) : "+Inf";
+				sample(text, "span_duration_seconds_bucket", name, le, cumulative);
+			}
+			text.append("span_duration_seconds_sum{operation=\"");
+			escape(name, text);
+			text.append("\"} ").append(operation.durationMicros.sum() / 1e6).append('\n');
+			sample(text, "span_duration_seconds_count", name, null, operation.count.sum());
+		});
+		return text.toString();
+	}
+
+	private static void sample(StringBuilder text, String metric, String operation, String le, long value) {
+		text.append(metric).append("{operation=\"");
+		escape(operation, text);
+		text.append('"');
+		if (le != null) {
+			text.append(",le=\"").append(le).append('"');
+		}
+		text.append("} ").append(value).append('\n');
+	}
+
+	private static void escape(String value, StringBuilder text) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				text.append('\\').append(c);
+			} else if (c == '\n') {
+				text.append("\\n");
+			} else {
+				text.append(c);
+			}
+		}
+	}
+
+	private static final class Operation {
+		final LongAdder count = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder durationMicros = new LongAdder();
+		final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+
+		Operation() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long micros, boolean error) {
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket]) {
+				bucket++;
+			}
+			buckets[bucket].increment();
+			count.increment();
+			durationMicros.add(micros);
+			if (error) {
+				errors.increment();
+			}
+		}
+	}
+}
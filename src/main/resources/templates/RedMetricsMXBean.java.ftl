@@ -0,0 +1,15 @@
+import java.util.Map;
+
+/**
+ * JMX view of {@link RedMetrics}.
+ */
+public interface RedMetricsMXBean {
+
+	Map<String, Long> getRequestCounts();
+
+	Map<String, Long> getErrorCounts();
+
+	Map<String, Double> getMeanDurationMillis();
+
+	String getPrometheusText();
+}
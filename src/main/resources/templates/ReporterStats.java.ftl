@@ -0,0 +1,110 @@
+import com.uber.jaeger.metrics.StatsReporter;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the reporter metrics of the Jaeger client, so that queue size and
+ * flush interval can be sized from real numbers.
+ */
+public class ReporterStats implements StatsReporter {
+
+	private final LongAdder flushed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private volatile long queued;
+
+	// Decisions of the FilteringReporter, if there is one
+	private final LongAdder keptTraces = new LongAdder();
+	private final LongAdder keptSpans = new LongAdder();
+	private final LongAdder filteredTraces = new LongAdder();
+	private final LongAdder filteredSpans = new LongAdder();
+
+	@Override
+	public void incCounter(String name, long delta, Map<String, String> tags) {
+		if (tags == null) {
+			return;
+		}
+		String state = tags.get("state");
+		if (name.endsWith("reporter-spans")) {
+			if ("success".equals(state)) {
+				flushed.add(delta);
+			} else if ("failure".equals(state)) {
+				failed.add(delta);
+			}
+		} else if (name.endsWith("spans") && "dropped".equals(state)) {
+			// The Jaeger client counts spans dropped from the full queue as "spans", not "reporter-spans"
+			dropped.add(delta);
+		}
+	}
+
+	@Override
+	public void recordTimer(String name, long time, Map<String, String> tags) {
+	}
+
+	@Override
+	public void updateGauge(String name, long amount, Map<String, String> tags) {
+		if (name.endsWith("reporter-queue")) {
+			queued = amount;
+		}
+	}
+
+	/** Spans that were sent to the collector. */
+	public long getFlushed() {
+		return flushed.sum();
+	}
+
+	/** Spans that could not be sent. */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/** Spans that were dropped because the reporter queue was full. */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/** Spans currently waiting in the reporter queue. */
+	public long getQueued() {
+		return queued;
+	}
+
+	void traceKept() {
+		keptTraces.increment();
+	}
+
+	void spansKept(int spans) {
+		keptSpans.add(spans);
+	}
+
+	void traceFiltered(int spans) {
+		filteredTraces.increment();
+		filteredSpans.add(spans);
+	}
+
+	/** Traces the filtering reporter passed on. */
+	public long getKeptTraces() {
+		return keptTraces.sum();
+	}
+
+	/** Spans of kept traces, including the ones reported after the decision. */
+	public long getKeptSpans() {
+		return keptSpans.sum();
+	}
+
+	/** Traces the filtering reporter did not pass on, as they were fast, fine and not in the baseline. */
+	public long getFilteredTraces() {
+		return filteredTraces.sum();
+	}
+
+	/** Spans of filtered traces. */
+	public long getFilteredSpans() {
+		return filteredSpans.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ReporterStats{queued=" + getQueued() + ", flushed=" + getFlushed()
+				+ ", failed=" + getFailed() + ", dropped=" + getDropped()
+				+ ", keptTraces=" + getKeptTraces() + ", filteredTraces=" + getFilteredTraces() + "}";
+	}
+}
@@ -0,0 +1,76 @@
+import io.opentracing.contrib.web.servlet.filter.TracingFilter;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Puts {@link TracingSkipMatcher} in front of the tracing filter registered by
+ * opentracing-spring-web-autoconfigure. Requests it matches bypass that filter, so
+ * neither the filter nor the handler interceptor creates a span for them.
+ * Paths are relative to the context path.
+ */
+@Configuration
+public class TracingSkipConfiguration {
+
+	@Bean
+	public static BeanPostProcessor tracingSkipPostProcessor() {
+		TracingSkipMatcher matcher = TracingSkipMatcher.fromEnvironment();
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) {
+				if (bean instanceof FilterRegistrationBean) {
+					FilterRegistrationBean registration = (FilterRegistrationBean) bean;
+					if (registration.getFilter() instanceof TracingFilter) {
+						registration.setFilter(new SkipFilter(matcher, registration.getFilter()));
+					}
+				}
+				return bean;
+			}
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				return bean;
+			}
+		};
+	}
+
+	private static class SkipFilter implements Filter {
+		private final TracingSkipMatcher matcher;
+		private final Filter tracingFilter;
+
+		SkipFilter(TracingSkipMatcher matcher, Filter tracingFilter) {
+			this.matcher = matcher;
+			this.tracingFilter = tracingFilter;
+		}
+
+		@Override
+		public void init(FilterConfig filterConfig) throws ServletException {
+			tracingFilter.init(filterConfig);
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+				throws IOException, ServletException {
+			HttpServletRequest httpRequest = (HttpServletRequest) request;
+			if (matcher.matches(httpRequest.getRequestURI(), httpRequest.getContextPath().length())) {
+				chain.doFilter(request, response);
+			} else {
+				tracingFilter.doFilter(request, response, chain);
+			}
+		}
+
+		@Override
+		public void destroy() {
+			tracingFilter.destroy();
+		}
+	}
+}
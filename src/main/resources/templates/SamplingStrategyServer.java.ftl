@@ -0,0 +1,74 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Local stand-in for the sampling strategy endpoint of the Jaeger agent, so that
+ * the remote sampler can be tried without an agent. Start it on the port of
+ * JAEGER_SAMPLER_MANAGER_HOST_PORT (default 5778) from a test or via main().
+ */
+public class SamplingStrategyServer {
+
+	private final HttpServer server;
+	private volatile String strategy;
+
+	public SamplingStrategyServer(int port, String strategy) throws IOException {
+		this.strategy = strategy;
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		// The Jaeger client asks for /?service=<name>
+		server.createContext("/", exchange -> {
+			byte[] body = this.strategy.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	public void setStrategy(String strategy) {
+		this.strategy = strategy;
+	}
+
+	public static String probabilistic(double samplingRate) {
+		return "{\"probabilisticSampling\":{\"samplingRate\":" + samplingRate + "}}";
+	}
+
+	public static String rateLimiting(double maxTracesPerSecond) {
+		return "{\"rateLimitingSampling\":{\"maxTracesPerSecond\":" + maxTracesPerSecond + "}}";
+	}
+
+	public static String perOperation(double defaultSamplingRate, double lowerBoundTracesPerSecond,
+			Map<String, Double> operationSamplingRates) {
+		StringBuilder json = new StringBuilder("{\"operationSampling\":{")
+				.append("\"defaultSamplingProbability\":").append(defaultSamplingRate)
+				.append(",\"defaultLowerBoundTracesPerSecond\":").append(lowerBoundTracesPerSecond)
+				.append(",\"perOperationStrategies\":[");
+		String separator = "";
+		for (Map.Entry<String, Double> operation : operationSamplingRates.entrySet()) {
+			json.append(separator)
+					.append("{\"operation\":\"").append(operation.getKey()).append("\",")
+					.append("\"probabilisticSampling\":{\"samplingRate\":").append(operation.getValue()).append("}}");
+			separator = ",";
+		}
+		return json.append("]}}").toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 5778;
+		double samplingRate = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+		new SamplingStrategyServer(port, probabilistic(samplingRate)).start();
+		System.out.println("Serving sampling strategies on localhost:" + port);
+	}
+}
@@ -0,0 +1,389 @@
+import com.uber.jaeger.SpanContext;
+import com.uber.jaeger.propagation.Extractor;
+import com.uber.jaeger.propagation.Injector;
+import com.uber.jaeger.propagation.TextMapCodec;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the span context in the formats used by the services around us:
+ * <ul>
+ * <li>jaeger: the uber-trace-id header, plus uberctx-* baggage</li>
+ * <li>b3: the X-B3-* headers of Zipkin</li>
+ * <li>w3c: the traceparent header of W3C Trace Context</li>
+ * </ul>
+ * The formats are a comma separated list, taken from the TRACING_PROPAGATION environment
+ * variable. All of them are written to outgoing requests; on incoming requests the
+ * first one present, in the order given, is used.
+ * <p>
+ * Headers are found in one pass over the carrier and the ids are parsed in place, so
+ * extracting allocates nothing but the span context. This tracer has 64 bit trace ids:
+ * the upper 64 bits of longer ones travel with the trace as baggage item trace-id-high
+ * and are written again, so the trace stays whole across this service. Trace ids whose
+ * lower 64 bits are zero cannot be continued, a new trace is started for them.
+ */
+public final class TracePropagation {
+
+	public static final String ENV_PROPAGATION = "TRACING_PROPAGATION";
+	public static final String JAEGER = "jaeger";
+	public static final String B3 = "b3";
+	public static final String W3C = "w3c";
+
+	static final String DEFAULT_FORMATS = "${propagation}";
+
+	static final String UBER_TRACE_ID = "uber-trace-id";
+	static final String UBER_BAGGAGE_PREFIX = "uberctx-";
+	static final String JAEGER_DEBUG_ID = "jaeger-debug-id";
+	static final String B3_TRACE_ID = "X-B3-TraceId";
+	static final String B3_SPAN_ID = "X-B3-SpanId";
+	static final String B3_PARENT_SPAN_ID = "X-B3-ParentSpanId";
+	static final String B3_SAMPLED = "X-B3-Sampled";
+	static final String B3_FLAGS = "X-B3-Flags";
+	static final String TRACEPARENT = "traceparent";
+	/** Baggage item with the upper 64 bits of a 128 bit trace id, as 16 hex digits. */
+	static final String TRACE_ID_HIGH = "trace-id-high";
+
+	private static final byte FLAG_SAMPLED = 1;
+	private static final byte FLAG_DEBUG = 2;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private TracePropagation() {
+	}
+
+	public static String formatsFromEnvironment() {
+		String formats = System.getenv(ENV_PROPAGATION);
+		return formats == null || formats.trim().isEmpty() ? DEFAULT_FORMATS : formats;
+	}
+
+	/**
+	 * Registers the codecs for the given formats for HTTP headers and text maps.
+	 */
+	public static com.uber.jaeger.Tracer.Builder register(com.uber.jaeger.Tracer.Builder builder, String formats) {
+		Codec headers = new Codec(formats, true);
+		Codec textMap = new Codec(formats, false);
+		return builder
+				.registerInjector(Format.Builtin.HTTP_HEADERS, headers)
+				.registerExtractor(Format.Builtin.HTTP_HEADERS, headers)
+				.registerInjector(Format.Builtin.TEXT_MAP, textMap)
+				.registerExtractor(Format.Builtin.TEXT_MAP, textMap);
+	}
+
+	public static class Codec implements Injector<TextMap>, Extractor<TextMap> {
+		private final String[] formats;
+		private final boolean jaeger;
+		private final boolean b3;
+		private final boolean w3c;
+		private final boolean urlEncoding;
+		// Writes uber-trace-id and the baggage exactly like the client does
+		private final TextMapCodec jaegerCodec;
+
+		public Codec(String formats, boolean urlEncoding) {
+			String[] names = formats.toLowerCase().split(",");
+			int n = 0;
+			for (String name : names) {
+				name = name.trim();
+				if (JAEGER.equals(name) || B3.equals(name) || W3C.equals(name)) {
+					names[n++] = name;
+				}
+			}
+			this.formats = n == 0 ? new String[] {JAEGER} : Arrays.copyOf(names, n);
+			this.jaeger = contains(this.formats, JAEGER);
+			this.b3 = contains(this.formats, B3);
+			this.w3c = contains(this.formats, W3C);
+			this.urlEncoding = urlEncoding;
+			this.jaegerCodec = new TextMapCodec(urlEncoding);
+		}
+
+		@Override
+		public void inject(SpanContext context, TextMap carrier) {
+			for (String format : formats) {
+				if (JAEGER.equals(format)) {
+					jaegerCodec.inject(context, carrier);
+				} else if (B3.equals(format)) {
+					String traceIdHigh = traceIdHigh(context);
+					carrier.put(B3_TRACE_ID, traceIdHigh == null ? hex16(context.getTraceId())
+							: traceIdHigh + hex16(context.getTraceId()));
+					carrier.put(B3_SPAN_ID, hex16(context.getSpanId()));
+					if (context.getParentId() != 0) {
+						carrier.put(B3_PARENT_SPAN_ID, hex16(context.getParentId()));
+					}
+					carrier.put(B3_SAMPLED, context.isSampled() ? "1" : "0");
+					if (context.isDebug()) {
+						carrier.put(B3_FLAGS, "1");
+					}
+				} else {
+					carrier.put(TRACEPARENT, traceparent(context));
+				}
+			}
+		}
+
+		@Override
+		public SpanContext extract(TextMap carrier) {
+			String uberTraceId = null;
+			String debugId = null;
+			Map<String, String> baggage = null;
+			String b3TraceId = null;
+			String b3SpanId = null;
+			String b3ParentSpanId = null;
+			String b3Sampled = null;
+			String b3Flags = null;
+			String traceparent = null;
+
+			for (Map.Entry<String, String> entry : carrier) {
+				String key = entry.getKey();
+				if (jaeger) {
+					if (key.equalsIgnoreCase(UBER_TRACE_ID)) {
+						uberTraceId = entry.getValue();
+						continue;
+					}
+					if (key.regionMatches(true, 0, UBER_BAGGAGE_PREFIX, 0, UBER_BAGGAGE_PREFIX.length())) {
+						if (baggage == null) {
+							baggage = new HashMap<>();
+						}
+						baggage.put(key.substring(UBER_BAGGAGE_PREFIX.length()).toLowerCase(), decode(entry.getValue()));
+						continue;
+					}
+					if (key.equalsIgnoreCase(JAEGER_DEBUG_ID)) {
+						debugId = decode(entry.getValue());
+						continue;
+					}
+				}
+				if (b3 && key.regionMatches(true, 0, "X-B3-", 0, 5)) {
+					if (key.equalsIgnoreCase(B3_TRACE_ID)) {
+						b3TraceId = entry.getValue();
+					} else if (key.equalsIgnoreCase(B3_SPAN_ID)) {
+						b3SpanId = entry.getValue();
+					} else if (key.equalsIgnoreCase(B3_PARENT_SPAN_ID)) {
+						b3ParentSpanId = entry.getValue();
+					} else if (key.equalsIgnoreCase(B3_SAMPLED)) {
+						b3Sampled = entry.getValue();
+					} else if (key.equalsIgnoreCase(B3_FLAGS)) {
+						b3Flags = entry.getValue();
+					}
+					continue;
+				}
+				if (w3c && key.equalsIgnoreCase(TRACEPARENT)) {
+					traceparent = entry.getValue();
+				}
+			}
+
+			SpanContext context = null;
+			for (int i = 0; i < formats.length && context == null; i++) {
+				if (JAEGER.equals(formats[i])) {
+					context = uberTraceId == null ? null : parseUberTraceId(uberTraceId);
+				} else if (B3.equals(formats[i])) {
+					context = b3TraceId == null ? null : parseB3(b3TraceId, b3SpanId, b3ParentSpanId, b3Sampled, b3Flags);
+				} else {
+					context = traceparent == null ? null : parseTraceparent(traceparent);
+				}
+			}
+			if (context == null) {
+				return debugId == null ? null : SpanContext.withDebugId(debugId);
+			}
+			if (baggage == null) {
+				return context;
+			}
+			// The upper bits of the trace id just read win over those of an earlier hop
+			for (Map.Entry<String, String> item : context.baggageItems()) {
+				baggage.put(item.getKey(), item.getValue());
+			}
+			return context.withBaggage(baggage);
+		}
+
+		private String decode(String value) {
+			if (!urlEncoding || value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+				return value;
+			}
+			try {
+				return URLDecoder.decode(value, "UTF-8");
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				return value;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "TracePropagation.Codec" + Arrays.toString(formats);
+		}
+	}
+
+	/**
+	 * trace-id:span-id:parent-span-id:flags, the colons may be URL encoded.
+	 */
+	static SpanContext parseUberTraceId(String value) {
+		int end = value.length();
+		int traceEnd = separator(value, 0);
+		int spanStart = next(value, traceEnd);
+		int spanEnd = separator(value, spanStart);
+		int parentStart = next(value, spanEnd);
+		int parentEnd = separator(value, parentStart);
+		int flagsStart = next(value, parentEnd);
+		if (flagsStart > end || separator(value, flagsStart) != end
+				|| !isHex(value, 0, traceEnd, 32) || !isHex(value, spanStart, spanEnd, 16)
+				|| !isHex(value, parentStart, parentEnd, 16) || !isHex(value, flagsStart, end, 2)) {
+			return null;
+		}
+		long traceId = parseHex(value, 0, traceEnd);
+		long spanId = parseHex(value, spanStart, spanEnd);
+		if (traceId == 0 || spanId == 0) {
+			return null;
+		}
+		return withTraceIdHigh(new SpanContext(traceId, spanId, parseHex(value, parentStart, parentEnd),
+				(byte) parseHex(value, flagsStart, end)), value, 0, traceEnd);
+	}
+
+	static SpanContext parseB3(String traceId, String spanId, String parentSpanId, String sampled, String flags) {
+		if (spanId == null || !isHex(traceId, 0, traceId.length(), 32) || !isHex(spanId, 0, spanId.length(), 16)
+				|| parentSpanId != null && !isHex(parentSpanId, 0, parentSpanId.length(), 16)) {
+			return null;
+		}
+		long trace = parseHex(traceId, 0, traceId.length());
+		long span = parseHex(spanId, 0, spanId.length());
+		if (trace == 0 || span == 0) {
+			return null;
+		}
+		long parent = parentSpanId == null ? 0 : parseHex(parentSpanId, 0, parentSpanId.length());
+		byte flagBits = 0;
+		if ("1".equals(flags)) {
+			flagBits = FLAG_SAMPLED | FLAG_DEBUG;
+		} else if ("1".equals(sampled) || "true".equalsIgnoreCase(sampled)) {
+			flagBits = FLAG_SAMPLED;
+		}
+		return withTraceIdHigh(new SpanContext(trace, span, parent, flagBits), traceId, 0, traceId.length());
+	}
+
+	/**
+	 * version-trace-id-parent-id-flags, e.g. 00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01
+	 */
+	static SpanContext parseTraceparent(String value) {
+		if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-'
+				|| !isHex(value, 0, 2, 2) || value.regionMatches(true, 0, "ff", 0, 2)
+				|| !isHex(value, 3, 35, 32) || !isHex(value, 36, 52, 16) || !isHex(value, 53, 55, 2)
+				// Later versions may only add fields
+				|| value.length() > 55 && (value.startsWith("00") || value.charAt(55) != '-')) {
+			return null;
+		}
+		long traceId = parseHex(value, 19, 35);
+		long spanId = parseHex(value, 36, 52);
+		if (traceId == 0 || spanId == 0) {
+			return null;
+		}
+		byte flags = (parseHex(value, 53, 55) & 1) != 0 ? FLAG_SAMPLED : 0;
+		return withTraceIdHigh(new SpanContext(traceId, spanId, 0, flags), value, 3, 35);
+	}
+
+	static String traceparent(SpanContext context) {
+		char[] chars = new char[55];
+		chars[0] = '0';
+		chars[1] = '0';
+		chars[2] = '-';
+		String traceIdHigh = traceIdHigh(context);
+		for (int i = 3; i < 19; i++) {
+			chars[i] = traceIdHigh == null ? '0' : traceIdHigh.charAt(i - 3);
+		}
+		writeHex16(context.getTraceId(), chars, 19);
+		chars[35] = '-';
+		writeHex16(context.getSpanId(), chars, 36);
+		chars[52] = '-';
+		chars[53] = '0';
+		chars[54] = context.isSampled() ? '1' : '0';
+		return new String(chars);
+	}
+
+	// Keeps the bits of a trace id longer than 16 hex digits above the lower 64 ones
+	private static SpanContext withTraceIdHigh(SpanContext context, String value, int from, int to) {
+		long high = to - from > 16 ? parseHex(value, from, to - 16) : 0;
+		return high == 0 ? context : context.withBaggageItem(TRACE_ID_HIGH, hex16(high));
+	}
+
+	// The upper 64 bits of the trace id as 16 lower case hex digits, null for 64 bit trace ids
+	static String traceIdHigh(SpanContext context) {
+		String high = context.getBaggageItem(TRACE_ID_HIGH);
+		if (high == null || high.length() != 16 || !isHex(high, 0, 16, 16)) {
+			return null;
+		}
+		return high.toLowerCase();
+	}
+
+	static String hex16(long value) {
+		char[] chars = new char[16];
+		writeHex16(value, chars, 0);
+		return new String(chars);
+	}
+
+	private static void writeHex16(long value, char[] chars, int offset) {
+		for (int i = offset + 15; i >= offset; i--) {
+			chars[i] = HEX[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+
+	// Index of the next ':' or URL encoded "%3A" from the given index, or the length of the value
+	private static int separator(String value, int from) {
+		for (int i = from; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ':' || c == '%') {
+				return i;
+			}
+		}
+		return value.length();
+	}
+
+	private static int next(String value, int separator) {
+		if (separator >= value.length()) {
+			return value.length() + 1;
+		}
+		if (value.charAt(separator) == ':') {
+			return separator + 1;
+		}
+		return value.regionMatches(true, separator, "%3A", 0, 3) ? separator + 3 : value.length() + 1;
+	}
+
+	private static boolean isHex(String value, int from, int to, int maxLength) {
+		if (to <= from || to - from > maxLength || to > value.length()) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (hexDigit(value.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Keeps the lower 64 bits of longer ids
+	private static long parseHex(String value, int from, int to) {
+		long result = 0;
+		for (int i = Math.max(from, to - 16); i < to; i++) {
+			result = result << 4 | hexDigit(value.charAt(i));
+		}
+		return result;
+	}
+
+	private static int hexDigit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static boolean contains(String[] values, String value) {
+		for (String v : values) {
+			if (v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,32 @@
+import io.opentracing.Tracer;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import javax.ws.rs.container.AsyncResponse;
+
+/**
+ * Completes a suspended JAX-RS request on another thread without losing its span:
+ * <pre>
+ *   &#64;GET
+ *   public void get(&#64;Suspended AsyncResponse response) {
+ *     TracedAsyncResponse.resume(response, tracer, () -&gt; service.load(), executor);
+ *   }
+ * </pre>
+ * The request thread is released right away; the span stays open until the
+ * response has been resumed.
+ */
+public final class TracedAsyncResponse {
+
+	private TracedAsyncResponse() {
+	}
+
+	public static <T> void resume(AsyncResponse response, Tracer tracer, Supplier<T> supplier, Executor executor) {
+		// whenComplete runs on the executor thread, while the span is still active there
+		TracedExecutors.supplyAsync(tracer, supplier, executor).whenComplete((result, failure) -> {
+			if (failure != null) {
+				response.resume(failure.getCause() != null ? failure.getCause() : failure);
+			} else {
+				response.resume(result);
+			}
+		});
+	}
+}
@@ -0,0 +1,175 @@
+import io.opentracing.ActiveSpan;
+import io.opentracing.Tracer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Carries the active span over to the threads of an executor.
+ * <p>
+ * A task submitted while a span is active captures a continuation of it, which is
+ * activated around the task on the executor thread. The span is only finished once
+ * the request and all tasks holding a continuation are done. Tasks submitted without
+ * an active span are passed on as they are, so untraced code pays nothing.
+ * <p>
+ * Wrap any executor, e.g. a {@code ManagedExecutorService}, with {@link #wrap(ExecutorService, Tracer)}.
+ * Dependent async stages of a {@link CompletableFuture} started with
+ * {@link #supplyAsync(Tracer, Supplier, Executor)} are traced as well when they run on a
+ * wrapped executor, e.g. {@code thenApplyAsync(fn, tracedExecutor)}.
+ */
+public final class TracedExecutors {
+
+	private TracedExecutors() {
+	}
+
+	public static ExecutorService wrap(ExecutorService delegate, Tracer tracer) {
+		return delegate instanceof TracedExecutorService ? delegate : new TracedExecutorService(delegate, tracer);
+	}
+
+	public static Executor wrap(Executor delegate, Tracer tracer) {
+		if (delegate instanceof ExecutorService) {
+			return wrap((ExecutorService) delegate, tracer);
+		}
+		return command -> execute(delegate, tracer, command);
+	}
+
+	/**
+	 * Returns an executor that starts a virtual thread per task when running on a JDK
+	 * that has them, and a cached thread pool otherwise.
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor(Tracer tracer) {
+		ExecutorService delegate;
+		try {
+			delegate = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			delegate = Executors.newCachedThreadPool();
+		}
+		return wrap(delegate, tracer);
+	}
+
+	public static <T> CompletableFuture<T> supplyAsync(Tracer tracer, Supplier<T> supplier, Executor executor) {
+		return CompletableFuture.supplyAsync(supplier, wrap(executor, tracer));
+	}
+
+	public static CompletableFuture<Void> runAsync(Tracer tracer, Runnable runnable, Executor executor) {
+		return CompletableFuture.runAsync(runnable, wrap(executor, tracer));
+	}
+
+	/**
+	 * Binds the task to the currently active span. The returned task must be run
+	 * exactly once, otherwise the span is never finished.
+	 */
+	public static Runnable wrap(Runnable task, Tracer tracer) {
+		ActiveSpan active = tracer.activeSpan();
+		return active == null ? task : new TracedRunnable(task, active.capture());
+	}
+
+	/**
+	 * Binds the task to the currently active span. The returned task must be called
+	 * exactly once, otherwise the span is never finished.
+	 */
+	public static <T> Callable<T> wrap(Callable<T> task, Tracer tracer) {
+		ActiveSpan active = tracer.activeSpan();
+		if (active == null) {
+			return task;
+		}
+		ActiveSpan.Continuation continuation = active.capture();
+		return () -> {
+			try (ActiveSpan span = continuation.activate()) {
+				return task.call();
+			}
+		};
+	}
+
+	private static void execute(Executor delegate, Tracer tracer, Runnable command) {
+		ActiveSpan active = tracer.activeSpan();
+		if (active == null) {
+			delegate.execute(command);
+			return;
+		}
+		ActiveSpan.Continuation continuation = active.capture();
+		try {
+			delegate.execute(new TracedRunnable(command, continuation));
+		} catch (RejectedExecutionException e) {
+			// The task will never run, so release its hold on the span
+			continuation.activate().close();
+			throw e;
+		}
+	}
+
+	private static final class TracedRunnable implements Runnable {
+		private final Runnable task;
+		private final ActiveSpan.Continuation continuation;
+
+		TracedRunnable(Runnable task, ActiveSpan.Continuation continuation) {
+			this.task = task;
+			this.continuation = continuation;
+		}
+
+		@Override
+		public void run() {
+			try (ActiveSpan span = continuation.activate()) {
+				task.run();
+			}
+		}
+	}
+
+	// submit(), invokeAll() and invokeAny() of AbstractExecutorService all end up in execute()
+	private static final class TracedExecutorService extends AbstractExecutorService {
+		private final ExecutorService delegate;
+		private final Tracer tracer;
+
+		TracedExecutorService(ExecutorService delegate, Tracer tracer) {
+			this.delegate = delegate;
+			this.tracer = tracer;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			TracedExecutors.execute(delegate, tracer, command);
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			List<Runnable> pending = new ArrayList<>();
+			for (Runnable runnable : delegate.shutdownNow()) {
+				if (runnable instanceof TracedRunnable) {
+					// Never going to run here either, release its hold on the span
+					TracedRunnable traced = (TracedRunnable) runnable;
+					traced.continuation.activate().close();
+					runnable = traced.task;
+				}
+				pending.add(runnable);
+			}
+			return pending;
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+import com.uber.jaeger.metrics.Metrics;
+import com.uber.jaeger.reporters.Reporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import com.uber.jaeger.samplers.Sampler;
+import com.uber.jaeger.senders.HttpSender;
+import com.uber.jaeger.senders.Sender;
+import com.uber.jaeger.senders.UdpSender;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.tag.Tags;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks without a Jaeger backend that the tracer keeps up with the expected load.
+ * Spans are created at the given rate with the tracer as JaegerTracerFactory builds it,
+ * reporter settings, filter, propagation and span metrics included, and sent to a
+ * {@link FakeCollector} over the transport of JAEGER_SENDER_TYPE. Every trace is sampled,
+ * so the reporter sees the full rate, unless -DprojectSampler=true. The spans of the
+ * first warmupSeconds (default 3), while classes are loaded and compiled, are not counted.
+ * <p>
+ * Reports the sustained throughput, spans lost on the way, the time from the end of a
+ * span until it reached the collector and the heap growth. Exits with 1 if the target
+ * rate was not reached, more than maxLoss of the spans were lost or the 99th percentile
+ * of that time is above maxP99Ms (default two flush intervals plus a second), so it can
+ * be used as a capacity check in CI:
+ * <pre>
+ * mvn -P${profileId} verify -Dtracing.load.spans=5000 -Dtracing.load.seconds=60
+ * </pre>
+ */
+public class TracerLoadTest {
+
+	private static final int SPANS_PER_TRACE = 4;
+	private static final int TICK_MS = 10;
+
+	private final int spansPerSecond = Integer.getInteger("spans", ${loadSpansPerSecond});
+	private final int seconds = Integer.getInteger("seconds", ${loadSeconds});
+	private final int warmupSeconds = Integer.getInteger("warmupSeconds", 3);
+	private final double maxLoss = Double.parseDouble(System.getProperty("maxLoss", "${loadMaxLoss}"));
+	private final long maxP99Ms = Long.getLong("maxP99Ms", 2L * JaegerTracerFactory.getFlushIntervalMs() + 1000);
+	private final boolean projectSampler = Boolean.getBoolean("projectSampler");
+
+	private final LongAdder finished = new LongAdder();
+	private final LongAdder sampled = new LongAdder();
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private Tracer tracer;
+	private volatile long countFromMicros = Long.MAX_VALUE;
+
+	public static void main(String[] args) throws Exception {
+		System.exit(new TracerLoadTest().run() ? 0 : 1);
+	}
+
+	private boolean run() throws Exception {
+		try (FakeCollector collector = new FakeCollector(0, 0).start()) {
+			Sender sender = "udp".equals(JaegerTracerFactory.getSenderType())
+					? new UdpSender("localhost", collector.getUdpPort(), JaegerTracerFactory.getMaxPacketSize())
+					: new HttpSender(collector.getHttpUrl(), JaegerTracerFactory.getMaxPacketSize());
+			Metrics metrics = JaegerTracerFactory.createMetrics();
+			Reporter reporter = JaegerTracerFactory.createReporter(metrics, sender);
+			Sampler sampler = projectSampler ? JaegerTracerFactory.createSampler("load-test", metrics)
+					: new ConstSampler(true);
+			tracer = JaegerTracerFactory.createEagerTracer("load-test", reporter, sampler, metrics);
+			ReporterStats stats = JaegerTracerFactory.getReporterStats();
+
+			System.out.printf("%d spans/s for %d s over %s%n", spansPerSecond, seconds, sender);
+			int generators = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+			ScheduledExecutorService load = Executors.newScheduledThreadPool(generators);
+			long loadStart = System.nanoTime();
+			for (int i = 0; i < generators; i++) {
+				load.scheduleAtFixedRate(new Generator(loadStart, (double) spansPerSecond / generators), 0, TICK_MS,
+						TimeUnit.MILLISECONDS);
+			}
+			Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+
+			long heapBefore = usedHeapAfterGc();
+			long peakHeap = heapBefore;
+			long droppedBefore = stats.getDropped();
+			long failedBefore = stats.getFailed();
+			long filteredBefore = stats.getFilteredSpans();
+			long start = System.nanoTime();
+			// From here on the harness and the collector count the same spans
+			countFromMicros = System.currentTimeMillis() * 1000;
+			collector.countFrom(countFromMicros);
+			System.out.printf("%6s %10s %10s %8s %8s %9s%n", "second", "created", "received", "queued", "dropped",
+					"heap MB");
+			long lastFinished = 0;
+			long lastReceived = 0;
+			for (int second = 1; second <= seconds; second++) {
+				Thread.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime()) / 1000000);
+				long used = memory.getHeapMemoryUsage().getUsed();
+				peakHeap = Math.max(peakHeap, used);
+				long nowFinished = finished.sum();
+				long nowReceived = collector.getSpans();
+				System.out.printf("%6d %10d %10d %8d %8d %9d%n", second, nowFinished - lastFinished,
+						nowReceived - lastReceived, stats.getQueued(), stats.getDropped() - droppedBefore, used >> 20);
+				lastFinished = nowFinished;
+				lastReceived = nowReceived;
+			}
+			load.shutdown();
+			load.awaitTermination(10, TimeUnit.SECONDS);
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			long receivedDuringLoad = collector.getSpans();
+
+			// Sends what is still queued; UDP packets may still be on their way after that
+			reporter.close();
+			sampler.close();
+			long received = awaitLastSpans(collector);
+			long heapGrowth = usedHeapAfterGc() - heapBefore;
+
+			long dropped = stats.getDropped() - droppedBefore;
+			long failed = stats.getFailed() - failedBefore;
+			long filtered = stats.getFilteredSpans() - filteredBefore;
+			long lost = Math.max(0, sampled.sum() - filtered - received);
+			double loss = sampled.sum() > 0 ? (double) lost / sampled.sum() : 0;
+			double created = finished.sum() / elapsed;
+
+			System.out.println();
+			System.out.printf("created      %10.0f spans/s (%d sampled)%n", created, sampled.sum());
+			System.out.printf("sustained    %10.0f spans/s reached the collector while under load%n",
+					receivedDuringLoad / elapsed);
+			System.out.printf("lost         %10d spans (%.4f%%): %d dropped from the full queue, %d failed to send, "
+					+ "%d lost in transport%n", lost, loss * 100, dropped, failed, Math.max(0, lost - dropped - failed));
+			if (filtered > 0) {
+				System.out.printf("filtered     %10d spans of fast traces, not counted as lost%n", filtered);
+			}
+			System.out.printf("latency      p50 %d ms, p95 %d ms, p99 %d ms, max %d ms from span end to collector%n",
+					collector.getLatencyPercentileMs(0.5), collector.getLatencyPercentileMs(0.95),
+					collector.getLatencyPercentileMs(0.99), collector.getLatencyPercentileMs(1));
+			System.out.printf("heap         %+10.1f MB after the run, peak %d MB%n", heapGrowth / 1048576.0, peakHeap >> 20);
+			System.out.printf("wire         %10d bytes in %d batches%n", collector.getBytes(), collector.getBatches());
+
+			boolean passed = check(created >= spansPerSecond * 0.95, "spans could only be created at "
+					+ Math.round(created) + "/s");
+			passed &= check(loss <= maxLoss, "lost " + lost + " spans, more than " + maxLoss * 100 + "%");
+			passed &= check(collector.getLatencyPercentileMs(0.99) <= maxP99Ms, "the 99th percentile latency is above "
+					+ maxP99Ms + " ms");
+			passed &= check(collector.getUndecodable() == 0, collector.getUndecodable() + " batches could not be read");
+			System.out.println(passed ? "PASSED" : "FAILED");
+			return passed;
+		}
+	}
+
+	/**
+	 * Creates the spans one generator owes since the start, so a late tick catches up
+	 * and the created rate only falls short if creating spans is too slow.
+	 */
+	private final class Generator implements Runnable {
+		private final long start;
+		private final double spansPerSecond;
+		private long created;
+
+		Generator(long start, double spansPerSecond) {
+			this.start = start;
+			this.spansPerSecond = spansPerSecond;
+		}
+
+		@Override
+		public void run() {
+			long due = (long) ((System.nanoTime() - start) / 1e9 * spansPerSecond);
+			while (created + SPANS_PER_TRACE <= due) {
+				trace();
+				created += SPANS_PER_TRACE;
+			}
+		}
+	}
+
+	// A typical request: the server span, a query, a downstream call and the rendering
+	private void trace() {
+		long startMicros = System.currentTimeMillis() * 1000;
+		boolean counted = startMicros >= countFromMicros;
+		Span root = tracer.buildSpan("GET /orders/{id}")
+				.withStartTimestamp(startMicros)
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withTag(Tags.HTTP_METHOD.getKey(), "GET")
+				.withTag(Tags.HTTP_URL.getKey(), "http://shop.example.com/orders/4711")
+				.startManual();
+		finish(tracer.buildSpan("SELECT orders").asChildOf(root).withStartTimestamp(startMicros)
+				.withTag(Tags.DB_TYPE.getKey(), "sql")
+				.withTag(Tags.DB_STATEMENT.getKey(), "SELECT * FROM orders WHERE id = ?")
+				.startManual(), counted);
+		finish(tracer.buildSpan("GET /inventory").asChildOf(root).withStartTimestamp(startMicros)
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_CLIENT)
+				.withTag(Tags.HTTP_STATUS.getKey(), 200)
+				.startManual(), counted);
+		finish(tracer.buildSpan("render").asChildOf(root).withStartTimestamp(startMicros).startManual(), counted);
+		root.setTag(Tags.HTTP_STATUS.getKey(), 200);
+		finish(root, counted);
+	}
+
+	private void finish(Span span, boolean counted) {
+		span.finish();
+		if (!counted) {
+			return;
+		}
+		finished.increment();
+		if (!(span.context() instanceof com.uber.jaeger.SpanContext)
+				|| ((com.uber.jaeger.SpanContext) span.context()).isSampled()) {
+			sampled.increment();
+		}
+	}
+
+	private static long awaitLastSpans(FakeCollector collector) throws InterruptedException {
+		long received = collector.getSpans();
+		for (int i = 0; i < 50; i++) {
+			Thread.sleep(100);
+			long now = collector.getSpans();
+			if (now == received && i >= 5) {
+				break;
+			}
+			received = now;
+		}
+		return received;
+	}
+
+	private long usedHeapAfterGc() {
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static boolean check(boolean condition, String failure) {
+		if (!condition) {
+			System.out.println("FAILED: " + failure);
+		}
+		return condition;
+	}
+}
@@ -0,0 +1,72 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the startup cost of the eagerly built Jaeger tracer with the one of the
+ * {@link LazyTracer}. Each variant runs in a JVM of its own, so class loading is part
+ * of the measurement as it is at application startup.
+ * <p>
+ * Run main() from the IDE or with the test classpath, e.g. via exec:java.
+ */
+public class TracerStartupComparison {
+
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 1) {
+			measure(args[0]);
+			// The reporter threads of the tracer would keep the JVM alive
+			System.exit(0);
+		}
+		long eager = 0;
+		long lazy = 0;
+		long lazyReady = 0;
+		for (int i = 0; i < RUNS; i++) {
+			eager += fork("eager")[0];
+			long[] times = fork("lazy");
+			lazy += times[0];
+			lazyReady += times[1];
+		}
+		System.out.printf("eager tracer available after %8.2f ms%n", eager / 1e6 / RUNS);
+		System.out.printf("lazy tracer available after  %8.2f ms, real tracer ready after %.2f ms%n",
+				lazy / 1e6 / RUNS, lazyReady / 1e6 / RUNS);
+	}
+
+	// Runs in the forked JVM, prints the nanos until the tracer can be used and until it reports
+	private static void measure(String mode) throws InterruptedException {
+		long start = System.nanoTime();
+		if ("eager".equals(mode)) {
+			JaegerTracerFactory.createEagerTracer("startup-comparison");
+			long available = System.nanoTime() - start;
+			System.out.println(available + " " + available);
+		} else {
+			LazyTracer tracer = new LazyTracer(() -> JaegerTracerFactory.createEagerTracer("startup-comparison"), true);
+			tracer.buildSpan("startup").startManual().finish();
+			long available = System.nanoTime() - start;
+			tracer.awaitReady(1, TimeUnit.MINUTES);
+			System.out.println(available + " " + (System.nanoTime() - start));
+		}
+	}
+
+	private static long[] fork(String mode) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				TracerStartupComparison.class.getName(), mode)
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		String line;
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			line = in.readLine();
+		}
+		if (process.waitFor() != 0 || line == null) {
+			throw new IllegalStateException("Measuring the " + mode + " tracer failed");
+		}
+		String[] parts = line.trim().split(" ");
+		return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+	}
+}
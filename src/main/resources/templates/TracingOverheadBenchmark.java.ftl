@@ -0,0 +1,205 @@
+import com.uber.jaeger.Span;
+import com.uber.jaeger.metrics.Metrics;
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.reporters.Reporter;
+import com.uber.jaeger.samplers.ProbabilisticSampler;
+import com.uber.jaeger.samplers.Sampler;
+import com.uber.jaeger.senders.Sender;
+import io.opentracing.ActiveSpan;
+import io.opentracing.NoopTracerFactory;
+import io.opentracing.Tracer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures what tracing adds to a call, in ns/op and (via the gc profiler) bytes
+ * allocated per op. The traced benchmarks use the same span code the addon generates,
+ * and the tracer is built by JaegerTracerFactory as for the application, with its
+ * propagation formats and span metrics. Spans go through the project's reporter,
+ * i.e. queue and filter, to a sender that discards them, or into an InMemoryReporter,
+ * so no collector or agent is needed.
+ * <p>
+ * untraced, traced and tracedWithTag put a span around simulated work. The other
+ * benchmarks call the project's methods that are wrapped in spans, once per method,
+ * with made up arguments; compare sampling=noop with the other rates for the overhead
+ * of each.
+<#if skipped?has_content>
+ * Not benchmarked, as they need a container, test data or cannot be called from here:
+ * <ul>
+<#list skipped as skip>
+ * <li>${skip}</li>
+</#list>
+ * </ul>
+</#if>
+ * <p>
+ * Run with: mvn -P${profileId} verify
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TracingOverheadBenchmark {
+
+	private static final String OPERATION = "benchmark";
+	private static final String TAG = "benchmark.counter";
+
+	/**
+	 * "noop" for the NoopTracer, "project" for the sampler configured for the application,
+	 * otherwise the rate of a probabilistic sampler
+	 */
+	@Param({"noop", "project", "0", "0.001", "0.01", "1"})
+	public String sampling;
+
+	/** "project" for the reporter configured for the application, "in-memory" for an InMemoryReporter */
+	@Param({"project", "in-memory"})
+	public String reporting;
+
+	/** Amount of simulated work in the traced method */
+	@Param({"100"})
+	public int tokens;
+
+	private Tracer tracer;
+	private Reporter reporter;
+	private Sampler sampler;
+	private long counter;
+<#list targets as target>
+	private ${target.type} ${target.instance};
+</#list>
+
+	@Setup(Level.Trial)
+	public void createTracer() throws ReflectiveOperationException {
+		if ("noop".equals(sampling)) {
+			tracer = NoopTracerFactory.create();
+		} else {
+			Metrics metrics = JaegerTracerFactory.createMetrics();
+			reporter = "in-memory".equals(reporting) ? new InMemoryReporter()
+					: JaegerTracerFactory.createReporter(metrics, new DiscardingSender());
+			sampler = "project".equals(sampling) ? JaegerTracerFactory.createSampler("benchmark", metrics)
+					: new ProbabilisticSampler(Double.parseDouble(sampling));
+			tracer = JaegerTracerFactory.createEagerTracer("benchmark", reporter, sampler, metrics);
+		}
+<#list targets as target>
+		${target.instance} = inject(new ${target.type}());
+</#list>
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearReportedSpans() {
+		// keeps the retained spans from distorting the allocation numbers
+		if (reporter instanceof InMemoryReporter) {
+			((InMemoryReporter) reporter).clear();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void closeTracer() {
+		if (reporter != null) {
+			reporter.close();
+			sampler.close();
+		}
+	}
+
+	@Benchmark
+	public long untraced() {
+		return work();
+	}
+
+	@Benchmark
+	public long traced() {
+		try (ActiveSpan span = tracer.buildSpan(OPERATION).startActive()) {
+			return work();
+		}
+	}
+
+	@Benchmark
+	public long tracedWithTag() {
+		try (ActiveSpan span = tracer.buildSpan(OPERATION).startActive()) {
+			if (isSampled(span)) {
+				span.setTag(TAG, counter);
+			}
+			return work();
+		}
+	}
+
+<#list entryPoints as entryPoint>
+	@Benchmark
+	public void ${entryPoint.name}(Blackhole blackhole) throws Exception {
+<#if entryPoint.returnsValue>
+		blackhole.consume(${entryPoint.instance}.${entryPoint.method}(${entryPoint.arguments}));
+<#else>
+		${entryPoint.instance}.${entryPoint.method}(${entryPoint.arguments});
+</#if>
+	}
+
+</#list>
+	private long work() {
+		Blackhole.consumeCPU(tokens);
+		return ++counter;
+	}
+
+	private static boolean isSampled(ActiveSpan span) {
+		io.opentracing.SpanContext context = span.context();
+		return context instanceof com.uber.jaeger.SpanContext
+				&& ((com.uber.jaeger.SpanContext) context).isSampled();
+	}
+
+<#if targets?has_content>
+	/** Sets the tracer field the application's container would inject. */
+	private <T> T inject(T target) throws ReflectiveOperationException {
+		java.lang.reflect.Field field = target.getClass().getDeclaredField("tracer");
+		field.setAccessible(true);
+		field.set(target, tracer);
+		return target;
+	}
+
+</#if>
+	/** Takes the batches of the reporter like a sender that is always connected, without sending them. */
+	private static final class DiscardingSender implements Sender {
+		private int buffered;
+
+		@Override
+		public int append(Span span) {
+			buffered++;
+			return 0;
+		}
+
+		@Override
+		public int flush() {
+			int flushed = buffered;
+			buffered = 0;
+			return flushed;
+		}
+
+		@Override
+		public int close() {
+			return flush();
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				// All benchmarks of this package, e.g. also the PropagationBenchmark
+				.include(TracingOverheadBenchmark.class.getPackage().getName() + "\\.[^.]*Benchmark")
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * Decides which request paths get no span at all, e.g. health checks, metrics
+ * scrapes and static assets.
+ * <p>
+ * The patterns are a comma separated list, taken from the TRACING_SKIP_PATHS
+ * environment variable:
+ * <ul>
+ * <li>{@code /health} matches exactly that path</li>
+ * <li>{@code /static/**} matches /static and everything below it</li>
+ * <li>{@code /metrics*} matches every path starting with /metrics</li>
+ * <li>{@code *.css} matches every path ending with .css</li>
+ * </ul>
+ * A * anywhere else, e.g. /api/*&#47;health, is taken literally.
+ * They are compiled once into a prefix and a suffix trie, so matching a path takes
+ * a single pass over its characters and allocates nothing.
+ */
+public final class TracingSkipMatcher {
+
+	public static final String ENV_SKIP_PATHS = "TRACING_SKIP_PATHS";
+
+	static final String DEFAULT_SKIP_PATHS = "${skipPaths?j_string}";
+
+	private final Node prefixes = new Node();
+	// Holds the suffix patterns reversed, walked from the end of the path
+	private final Node suffixes = new Node();
+	private final boolean empty;
+
+	public TracingSkipMatcher(String patterns) {
+		boolean any = false;
+		for (String pattern : patterns.split(",")) {
+			pattern = pattern.trim();
+			if (!pattern.isEmpty()) {
+				add(pattern);
+				any = true;
+			}
+		}
+		empty = !any;
+	}
+
+	public static TracingSkipMatcher fromEnvironment() {
+		String patterns = System.getenv(ENV_SKIP_PATHS);
+		return new TracingSkipMatcher(patterns != null ? patterns : DEFAULT_SKIP_PATHS);
+	}
+
+	public boolean matches(CharSequence path) {
+		return path != null && matches(path, 0);
+	}
+
+	/**
+	 * Matches the part of path starting at from, e.g. behind the context path.
+	 */
+	public boolean matches(CharSequence path, int from) {
+		if (empty) {
+			return false;
+		}
+		int length = path.length();
+
+		Node node = prefixes;
+		for (int i = from; node != null; i++) {
+			if (node.prefix) {
+				return true;
+			}
+			if (i == length) {
+				if (node.exact) {
+					return true;
+				}
+				break;
+			}
+			node = node.child(path.charAt(i));
+		}
+
+		node = suffixes;
+		for (int i = length - 1; node != null; i--) {
+			if (node.exact) {
+				return true;
+			}
+			if (i < from) {
+				break;
+			}
+			node = node.child(path.charAt(i));
+		}
+		return false;
+	}
+
+	private void add(String pattern) {
+		if (pattern.startsWith("*")) {
+			suffixes.insert(new StringBuilder(pattern.substring(1)).reverse()).exact = true;
+		} else if (pattern.endsWith("/**")) {
+			String base = pattern.substring(0, pattern.length() - 3);
+			prefixes.insert(base).exact = true;
+			prefixes.insert(base + "/").prefix = true;
+		} else if (pattern.endsWith("*")) {
+			prefixes.insert(pattern.substring(0, pattern.length() - 1)).prefix = true;
+		} else {
+			prefixes.insert(pattern).exact = true;
+		}
+	}
+
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		boolean exact;
+		boolean prefix;
+
+		// Paths have few distinct characters per position, a linear scan beats hashing here
+		Node child(char c) {
+			char[] k = keys;
+			for (int i = 0; i < k.length; i++) {
+				if (k[i] == c) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node insert(CharSequence key) {
+			Node node = this;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				Node next = node.child(c);
+				if (next == null) {
+					next = new Node();
+					int n = node.keys.length;
+					node.keys = Arrays.copyOf(node.keys, n + 1);
+					node.children = Arrays.copyOf(node.children, n + 1);
+					node.keys[n] = c;
+					node.children[n] = next;
+				}
+				node = next;
+			}
+			return node;
+		}
+	}
+}
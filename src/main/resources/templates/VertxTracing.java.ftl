@@ -0,0 +1,137 @@
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+import io.opentracing.tag.Tags;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Traces the requests handled by a Vert.x web {@link Router}.
+ * <p>
+ * The server span of a request is kept in its {@link RoutingContext} and not in the
+ * thread local active span, as one event loop thread serves many requests at once.
+ * Use {@link #currentSpan(RoutingContext)} to get it and {@link #inject(Tracer, Span, MultiMap)}
+ * to pass it on to outgoing requests.
+ * <p>
+ * Nothing here blocks the event loop: the tracer is created on a worker thread, and
+ * finished spans are only offered to the bounded queue of the Jaeger reporter, which
+ * drops them when full and sends them from its own thread.
+ */
+public class VertxTracing implements Handler<RoutingContext> {
+
+	public static final String SPAN_KEY = VertxTracing.class.getName() + ".span";
+
+	private static final Logger LOG = LoggerFactory.getLogger(VertxTracing.class);
+
+	private final Tracer tracer;
+
+	public VertxTracing(Tracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Creates the tracer on a worker thread and puts the tracing handler in front of
+	 * all routes of the router once it is ready.
+	 */
+	public static void install(Vertx vertx, Router router) {
+		// Building the tracer looks up the local host name, which may block
+		vertx.<Tracer>executeBlocking(future -> future.complete(JaegerTracerFactory.createTracer("vert.x")), false,
+				result -> {
+					if (result.succeeded()) {
+						router.route().order(Integer.MIN_VALUE).handler(new VertxTracing(result.result()));
+					} else {
+						LOG.error("Could not create the tracer, requests are not traced", result.cause());
+					}
+				});
+	}
+
+	public static Span currentSpan(RoutingContext context) {
+		return context.get(SPAN_KEY);
+	}
+
+	/**
+	 * Adds the context of the given span to the headers of an outgoing request.
+	 */
+	public static void inject(Tracer tracer, Span span, MultiMap headers) {
+		tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new HeadersAdapter(headers));
+	}
+
+	@Override
+	public void handle(RoutingContext context) {
+		SpanContext parent = tracer.extract(Format.Builtin.HTTP_HEADERS,
+				new HeadersAdapter(context.request().headers()));
+		Tracer.SpanBuilder builder = tracer.buildSpan(context.request().method().name())
+				.ignoreActiveSpan()
+				.withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER)
+				.withTag(Tags.HTTP_METHOD.getKey(), context.request().method().name())
+				.withTag(Tags.HTTP_URL.getKey(), context.request().absoluteURI());
+		if (parent != null) {
+			builder.asChildOf(parent);
+		}
+		Span span = builder.startManual();
+		context.put(SPAN_KEY, span);
+
+		SpanFinisher finisher = new SpanFinisher(context, span);
+		context.addBodyEndHandler(finisher);
+		context.response().closeHandler(finisher);
+		context.next();
+	}
+
+	// Runs on the event loop when the response is done or the connection went away
+	private static class SpanFinisher implements Handler<Void> {
+		private final RoutingContext context;
+		private final Span span;
+		private boolean finished;
+
+		SpanFinisher(RoutingContext context, Span span) {
+			this.context = context;
+			this.span = span;
+		}
+
+		@Override
+		public void handle(Void event) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			Route route = context.currentRoute();
+			if (route != null && route.getPath() != null) {
+				// The route path keeps the operation names few, unlike the request path
+				span.setOperationName(context.request().method().name() + " " + route.getPath());
+			}
+			Tags.HTTP_STATUS.set(span, context.response().getStatusCode());
+			if (context.failed() || context.response().getStatusCode() >= 500) {
+				Tags.ERROR.set(span, Boolean.TRUE);
+			}
+			span.finish();
+		}
+	}
+
+	private static class HeadersAdapter implements TextMap {
+		private final MultiMap headers;
+
+		HeadersAdapter(MultiMap headers) {
+			this.headers = headers;
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, String>> iterator() {
+			return headers.iterator();
+		}
+
+		@Override
+		public void put(String key, String value) {
+			headers.set(key, value);
+		}
+	}
+}
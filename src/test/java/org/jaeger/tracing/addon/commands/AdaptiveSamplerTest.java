@@ -0,0 +1,148 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.uber.jaeger.metrics.Metrics;
+import com.uber.jaeger.samplers.ProbabilisticSampler;
+import com.uber.jaeger.samplers.Sampler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AdaptiveSamplerTest {
+
+  private static ClassLoader generated;
+
+  // What the fake load signals report
+  private volatile double queueFill;
+  private volatile long dropped;
+  private Sampler sampler;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("samplerType", "adaptive");
+    generated = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+  }
+
+  @After
+  public void close() {
+    if (sampler != null) {
+      sampler.close();
+    }
+  }
+
+  @Test
+  public void backsOffWhenSpansAreDropped() throws Exception {
+    start(1.0);
+
+    adjust();
+    assertEquals(1.0, rate(), 0);
+    dropped += 5;
+    adjust();
+    assertEquals(0.5, rate(), 1e-9);
+    assertEquals(2.0, (Double) sampler.getClass().getMethod("getPressure").invoke(sampler), 1e-9);
+    dropped++;
+    adjust();
+    assertEquals(0.25, rate(), 1e-9);
+
+    // Spans around the old rate are no longer sampled
+    long id = (long) (0.3 * Long.MAX_VALUE);
+    assertFalse(sampler.sample("orders", id).isSampled());
+    assertTrue(sampler.sample("orders", id / 2).isSampled());
+  }
+
+  @Test
+  public void recoversOnceNothingIsDropped() throws Exception {
+    start(0.8);
+    dropped++;
+    adjust();
+    assertEquals(0.4, rate(), 1e-9);
+
+    adjust();
+    assertEquals(0.5, rate(), 1e-9);
+    for (int i = 0; i < 10; i++) {
+      adjust();
+    }
+    assertEquals("Never above the configured rate", 0.8, rate(), 1e-9);
+  }
+
+  @Test
+  public void fullQueueLowersTheRateBeforeSpansAreDropped() throws Exception {
+    start(1.0);
+    queueFill = 0.75;
+    adjust();
+    assertEquals(1 / 1.5, rate(), 1e-9);
+
+    // Close to the limit the rate is kept
+    queueFill = 0.45;
+    adjust();
+    assertEquals(1 / 1.5, rate(), 1e-9);
+  }
+
+  @Test
+  public void rateStaysAboveTheMinimumFraction() throws Exception {
+    start(0.5);
+    for (int i = 0; i < 50; i++) {
+      dropped++;
+      adjust();
+    }
+    assertEquals(0.5 * 0.001, rate(), 1e-12);
+  }
+
+  @Test
+  public void onlyAdaptiveWhenChosen() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    ClassLoader probabilistic = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+    Class<?> factory = probabilistic.loadClass(GeneratedCode.PACKAGE + ".JaegerTracerFactory");
+
+    Sampler created = (Sampler) factory.getMethod("createSampler", String.class, Metrics.class)
+        .invoke(null, "sampler-test", factory.getMethod("createMetrics").invoke(null));
+    assertEquals(ProbabilisticSampler.class, created.getClass());
+    created.close();
+    try {
+      probabilistic.loadClass(GeneratedCode.PACKAGE + ".AdaptiveSampler");
+      fail("Only generated for the adaptive sampler");
+    } catch (ClassNotFoundException expected) {
+    }
+  }
+
+  // Without a minimum per operation or limits on spans and CPU, adjusted by the test only
+  private void start(double maxRate) throws ReflectiveOperationException {
+    Class<?> samplerClass = generated.loadClass(GeneratedCode.PACKAGE + ".AdaptiveSampler");
+    Class<?> signalsClass = generated.loadClass(GeneratedCode.PACKAGE + ".AdaptiveSampler$LoadSignals");
+    Object signals = Proxy.newProxyInstance(generated, new Class<?>[] {signalsClass}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "queueFill":
+          return queueFill;
+        case "reported":
+          return 0L;
+        case "dropped":
+          return dropped;
+        case "cpuLoad":
+          return -1.0;
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+    sampler = (Sampler) samplerClass
+        .getConstructor(double.class, double.class, signalsClass, long.class, double.class, long.class)
+        .newInstance(maxRate, 0.0, signals, 0L, 0.0, 3_600_000L);
+  }
+
+  private void adjust() throws ReflectiveOperationException {
+    Method adjust = sampler.getClass().getDeclaredMethod("adjust");
+    adjust.setAccessible(true);
+    adjust.invoke(sampler);
+  }
+
+  private double rate() throws ReflectiveOperationException {
+    return (Double) sampler.getClass().getMethod("getSamplingRate").invoke(sampler);
+  }
+}
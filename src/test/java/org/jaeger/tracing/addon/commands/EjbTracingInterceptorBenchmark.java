@@ -0,0 +1,162 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import io.opentracing.Tracer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.interceptor.InvocationContext;
+import org.junit.Test;
+
+/**
+ * Calls a bean method through the generated EjbTracingInterceptor, which works out
+ * the operation once per method, and through a reflective baseline that reads the
+ * annotations and builds the operation name on every call, as interceptors without
+ * a cache do. Not a *Test, so the build does not run it; run it with
+ * <pre>
+ *   mvn test -Dtest=EjbTracingInterceptorBenchmark
+ * </pre>
+ * and compare the printed times per call. Spans are not sampled, as in production at
+ * a low sampling rate, so the span does not hide the difference.
+ */
+public class EjbTracingInterceptorBenchmark {
+
+  private static final int WARMUP = 200_000;
+  private static final int CALLS = 1_000_000;
+  private static final int ROUNDS = 5;
+
+  // Works out the operation on every call, with the same span
+  private static final String REFLECTIVE = "import io.opentracing.ActiveSpan;\n"
+      + "import io.opentracing.Tracer;\n"
+      + "import io.opentracing.tag.Tags;\n"
+      + "import java.lang.reflect.Method;\n"
+      + "import javax.interceptor.InvocationContext;\n"
+      + "public class ReflectiveEjbInterceptor {\n"
+      + "  private Tracer tracer;\n"
+      + "  public Object trace(InvocationContext invocation) throws Exception {\n"
+      + "    Method method = invocation.getMethod();\n"
+      + "    Class<?> declaring = method.getDeclaringClass();\n"
+      + "    EjbTraced onMethod = method.getAnnotation(EjbTraced.class);\n"
+      + "    EjbTraced onClass = declaring.getAnnotation(EjbTraced.class);\n"
+      + "    if (onClass == null) {\n"
+      + "      onClass = invocation.getTarget().getClass().getAnnotation(EjbTraced.class);\n"
+      + "    }\n"
+      + "    boolean traced = onMethod != null ? onMethod.value() : onClass != null ? onClass.value() : true;\n"
+      + "    if (!traced) {\n"
+      + "      return invocation.proceed();\n"
+      + "    }\n"
+      + "    String name = onMethod != null && !onMethod.operationName().isEmpty()\n"
+      + "        ? onMethod.operationName() : declaring.getSimpleName() + \".\" + method.getName();\n"
+      + "    try (ActiveSpan span = tracer.buildSpan(name)\n"
+      + "        .withTag(Tags.COMPONENT.getKey(), \"ejb\")\n"
+      + "        .withTag(\"ejb.class\", declaring.getName())\n"
+      + "        .withTag(\"ejb.method\", method.getName())\n"
+      + "        .startActive()) {\n"
+      + "      return invocation.proceed();\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n";
+
+  @Test
+  public void cachedOperationAgainstReflectionPerCall() throws Exception {
+    Map<String, String> classes = new HashMap<>();
+    classes.put("OrderBean", "public class OrderBean {\n"
+        + "  public String find(String id) { return id; }\n"
+        + "}\n");
+    classes.put("OrderBeanProxy", "public class OrderBeanProxy extends OrderBean {}\n");
+    classes.put("ReflectiveEjbInterceptor", REFLECTIVE);
+    ClassLoader loader = GeneratedCode.compile(GeneratedCode.setupDefaults(), classes,
+                                               "EjbTraced.java.ftl", "EjbTracingInterceptor.java.ftl");
+
+    Object bean = loader.loadClass(GeneratedCode.PACKAGE + ".OrderBeanProxy").newInstance();
+    InvocationContext invocation = invocation(bean, bean.getClass().getMethod("find", String.class), "4711");
+
+    // Both name the span alike
+    InMemoryReporter reporter = new InMemoryReporter();
+    Tracer sampled = new com.uber.jaeger.Tracer.Builder("benchmark", reporter, new ConstSampler(true)).build();
+    intercept(interceptor(loader, "EjbTracingInterceptor", sampled), invocation);
+    intercept(interceptor(loader, "ReflectiveEjbInterceptor", sampled), invocation);
+    assertEquals(reporter.getSpans().get(0).getOperationName(), reporter.getSpans().get(1).getOperationName());
+
+    Tracer tracer = new com.uber.jaeger.Tracer.Builder("benchmark", reporter, new ConstSampler(false)).build();
+    Object cachedInterceptor = interceptor(loader, "EjbTracingInterceptor", tracer);
+    Object reflectiveInterceptor = interceptor(loader, "ReflectiveEjbInterceptor", tracer);
+    // Alternating rounds, the best of each, so neither profits from running second
+    long cached = Long.MAX_VALUE;
+    long reflective = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      cached = Math.min(cached, measure(cachedInterceptor, invocation));
+      reflective = Math.min(reflective, measure(reflectiveInterceptor, invocation));
+    }
+
+    System.out.println(String.format(Locale.ROOT, "best of %d rounds of %d calls:%n"
+                                         + "  cached operation       %7d ns/call%n"
+                                         + "  reflection per call    %7d ns/call",
+                                     ROUNDS, CALLS, cached, reflective));
+  }
+
+  private static Object interceptor(ClassLoader loader, String name, Tracer tracer) throws ReflectiveOperationException {
+    Object interceptor = loader.loadClass(GeneratedCode.PACKAGE + "." + name).newInstance();
+    // Instead of the GlobalTracer, which other tests register
+    Field field = interceptor.getClass().getDeclaredField("tracer");
+    field.setAccessible(true);
+    field.set(interceptor, tracer);
+    return interceptor;
+  }
+
+  /**
+   * @return nanoseconds per call, after a warm up
+   */
+  private static long measure(Object interceptor, InvocationContext invocation) throws Exception {
+    Method trace = interceptor.getClass().getMethod("trace", InvocationContext.class);
+    int length = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      length += ((String) trace.invoke(interceptor, invocation)).length();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < CALLS; i++) {
+      length += ((String) trace.invoke(interceptor, invocation)).length();
+    }
+    long nanos = (System.nanoTime() - start) / CALLS;
+    // Uses the results, so the calls cannot be optimized away
+    if (length == 0) {
+      throw new AssertionError("Nothing returned");
+    }
+    return nanos;
+  }
+
+  private static Object intercept(Object interceptor, InvocationContext invocation) throws Exception {
+    try {
+      return interceptor.getClass().getMethod("trace", InvocationContext.class).invoke(interceptor, invocation);
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  // The same for both, so only the interceptors differ
+  private static InvocationContext invocation(Object target, Method method, Object... parameters) {
+    return (InvocationContext) Proxy.newProxyInstance(
+        EjbTracingInterceptorBenchmark.class.getClassLoader(), new Class<?>[] {InvocationContext.class},
+        (proxy, called, args) -> {
+          switch (called.getName()) {
+            case "getTarget":
+              return target;
+            case "getMethod":
+              return method;
+            case "getParameters":
+              return parameters;
+            case "proceed":
+              return method.invoke(target, parameters);
+            default:
+              throw new UnsupportedOperationException(called.getName());
+          }
+        });
+  }
+}
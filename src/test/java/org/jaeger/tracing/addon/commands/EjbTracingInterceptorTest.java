@@ -0,0 +1,187 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.uber.jaeger.Span;
+import com.uber.jaeger.Tracer;
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import io.opentracing.util.GlobalTracer;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.interceptor.InvocationContext;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class EjbTracingInterceptorTest {
+
+  private static final InMemoryReporter REPORTER = new InMemoryReporter();
+
+  private static final Map<String, String> BEANS = new HashMap<>();
+
+  static {
+    BEANS.put("OrderBean",
+              "public class OrderBean {\n"
+              + "  public String find(String id) { return id; }\n"
+              + "  @EjbTraced(operationName = \"place order\") public void place() {}\n"
+              + "  @EjbTraced(false) public void ping() {}\n"
+              + "  public void fail() throws java.io.IOException { throw new java.io.IOException(\"disk full\"); }\n"
+              + "}\n");
+    // What the container calls, the annotations are on the bean class
+    BEANS.put("OrderBeanProxy", "public class OrderBeanProxy extends OrderBean {}\n");
+    BEANS.put("HealthBean",
+              "@EjbTraced(false)\n"
+              + "public class HealthBean {\n"
+              + "  public void check() {}\n"
+              + "  @EjbTraced public void deep() {}\n"
+              + "}\n");
+  }
+
+  private static ClassLoader traceAll;
+  private static ClassLoader traceAnnotated;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    GlobalTracer.register(new Tracer.Builder("ejb-test", REPORTER, new ConstSampler(true)).build());
+
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    traceAll = GeneratedCode.compile(model, BEANS, "EjbTraced.java.ftl", "EjbTracingInterceptor.java.ftl");
+    model.put("ejbTraceAll", Boolean.FALSE);
+    traceAnnotated = GeneratedCode.compile(model, BEANS, "EjbTraced.java.ftl", "EjbTracingInterceptor.java.ftl");
+  }
+
+  @Before
+  public void clearSpans() {
+    REPORTER.getSpans().clear();
+  }
+
+  @Test
+  public void operationIsWorkedOutOncePerMethod() throws Exception {
+    Object bean = bean(traceAll, "OrderBeanProxy");
+    Method find = bean.getClass().getMethod("find", String.class);
+    Map<Method, ?> operations = operations(traceAll);
+    // The cache is shared with the other tests
+    int cached = operations.size();
+
+    assertEquals("4711", intercept(traceAll, bean, find, "4711"));
+    Object operation = operations.get(find);
+    assertEquals("4712", intercept(traceAll, bean, find, "4712"));
+
+    assertSame(operation, operations.get(find));
+    assertEquals(cached + 1, operations.size());
+    List<Span> spans = REPORTER.getSpans();
+    assertEquals(2, spans.size());
+    for (Span span : spans) {
+      assertEquals("OrderBean.find", span.getOperationName());
+      assertEquals("ejb", span.getTags().get("component"));
+      assertEquals(GeneratedCode.PACKAGE + ".OrderBean", span.getTags().get("ejb.class"));
+      assertEquals("find", span.getTags().get("ejb.method"));
+    }
+  }
+
+  @Test
+  public void annotationsSwitchTracingOnAndOff() throws Exception {
+    Object orders = bean(traceAll, "OrderBeanProxy");
+    intercept(traceAll, orders, orders.getClass().getMethod("place"));
+    intercept(traceAll, orders, orders.getClass().getMethod("ping"));
+    Object health = bean(traceAll, "HealthBean");
+    intercept(traceAll, health, health.getClass().getMethod("check"));
+    intercept(traceAll, health, health.getClass().getMethod("deep"));
+
+    assertEquals(2, REPORTER.getSpans().size());
+    assertEquals("place order", REPORTER.getSpans().get(0).getOperationName());
+    assertEquals("HealthBean.deep", REPORTER.getSpans().get(1).getOperationName());
+  }
+
+  @Test
+  public void onlyAnnotatedMethodsAreTracedWhenOptedIn() throws Exception {
+    Object orders = bean(traceAnnotated, "OrderBeanProxy");
+    intercept(traceAnnotated, orders, orders.getClass().getMethod("find", String.class), "4711");
+    intercept(traceAnnotated, orders, orders.getClass().getMethod("place"));
+    Object health = bean(traceAnnotated, "HealthBean");
+    intercept(traceAnnotated, health, health.getClass().getMethod("deep"));
+
+    assertEquals(2, REPORTER.getSpans().size());
+    assertEquals("place order", REPORTER.getSpans().get(0).getOperationName());
+    assertEquals("HealthBean.deep", REPORTER.getSpans().get(1).getOperationName());
+  }
+
+  @Test
+  public void failuresAreTagged() throws Exception {
+    Object bean = bean(traceAll, "OrderBeanProxy");
+    try {
+      intercept(traceAll, bean, bean.getClass().getMethod("fail"));
+      fail("The exception of the bean must reach the caller");
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+
+    Span span = REPORTER.getSpans().get(0);
+    assertEquals(Boolean.TRUE, span.getTags().get("error"));
+    assertEquals(IOException.class.getName(), span.getTags().get("error.kind"));
+  }
+
+  @Test
+  public void lifecycleCallbacksAreNotTraced() throws Exception {
+    int cached = operations(traceAll).size();
+    intercept(traceAll, bean(traceAll, "OrderBeanProxy"), null);
+
+    assertTrue(REPORTER.getSpans().isEmpty());
+    assertEquals(cached, operations(traceAll).size());
+  }
+
+  private static Object bean(ClassLoader loader, String name) throws ReflectiveOperationException {
+    return loader.loadClass(GeneratedCode.PACKAGE + "." + name).newInstance();
+  }
+
+  private static Map<Method, ?> operations(ClassLoader loader) throws ReflectiveOperationException {
+    Field operations = loader.loadClass(GeneratedCode.PACKAGE + ".EjbTracingInterceptor")
+        .getDeclaredField("OPERATIONS");
+    operations.setAccessible(true);
+    return (Map<Method, ?>) operations.get(null);
+  }
+
+  // Calls the method through the interceptor like the container does
+  private static Object intercept(ClassLoader loader, Object target, Method method, Object... parameters)
+      throws Exception {
+    InvocationContext invocation = (InvocationContext) Proxy.newProxyInstance(
+        EjbTracingInterceptorTest.class.getClassLoader(), new Class<?>[] {InvocationContext.class},
+        (proxy, called, args) -> {
+          switch (called.getName()) {
+            case "getTarget":
+              return target;
+            case "getMethod":
+              return method;
+            case "getParameters":
+              return parameters;
+            case "getContextData":
+              return new HashMap<String, Object>();
+            case "proceed":
+              try {
+                return method == null ? null : method.invoke(target, parameters);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+            default:
+              throw new UnsupportedOperationException(called.getName());
+          }
+        });
+    Class<?> interceptorClass = loader.loadClass(GeneratedCode.PACKAGE + ".EjbTracingInterceptor");
+    try {
+      return interceptorClass.getMethod("trace", InvocationContext.class)
+          .invoke(interceptorClass.newInstance(), invocation);
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+}
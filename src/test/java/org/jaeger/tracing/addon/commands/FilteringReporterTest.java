@@ -0,0 +1,200 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.uber.jaeger.Span;
+import com.uber.jaeger.Tracer;
+import com.uber.jaeger.metrics.Metrics;
+import com.uber.jaeger.reporters.Reporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import com.uber.jaeger.senders.Sender;
+import com.uber.jaeger.senders.UdpSender;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FilteringReporterTest {
+
+  private static final long THRESHOLD_MS = 50;
+
+  private static ClassLoader generated;
+
+  private final Queue<Span> reported = new ConcurrentLinkedQueue<>();
+  private final Reporter delegate = new Reporter() {
+    @Override
+    public void report(Span span) {
+      reported.add(span);
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+  private Object stats;
+  private Tracer tracer;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("filterLatencyMs", String.valueOf(THRESHOLD_MS));
+    generated = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+  }
+
+  @After
+  public void close() {
+    if (tracer != null) {
+      tracer.close();
+    }
+  }
+
+  @Test
+  public void onlyFilteredWhenChosen() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    ClassLoader unfiltered = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+    Class<?> factory = unfiltered.loadClass(GeneratedCode.PACKAGE + ".JaegerTracerFactory");
+
+    Object reporter = factory.getMethod("createReporter", Metrics.class, Sender.class)
+        .invoke(null, factory.getMethod("createMetrics").invoke(null), new UdpSender("localhost", 6831, 0));
+    assertEquals("RemoteReporter", reporter.getClass().getSimpleName());
+    ((Reporter) reporter).close();
+  }
+
+  @Test
+  public void keepsSlowAndFailedTraces() throws Exception {
+    start(100, 10000);
+
+    Span slowRoot = root();
+    finish(child(slowRoot), 1);
+    assertTrue("Held back until the trace qualifies", reported.isEmpty());
+    finish(slowRoot, THRESHOLD_MS + 1);
+    // Later spans of a kept trace go straight through
+    finish(child(slowRoot), 1);
+
+    Span failedRoot = root();
+    failedRoot.setTag("error", true);
+    finish(failedRoot, 1);
+
+    finish(root(), 1);
+
+    assertEquals(4, reported.size());
+    assertEquals(2, stat("getKeptTraces"));
+    assertEquals(4, stat("getKeptSpans"));
+    assertEquals(0, stat("getFilteredTraces"));
+  }
+
+  @Test
+  public void evictsUntilWithinTheBound() throws Exception {
+    start(1000, 4);
+
+    Span first = root();
+    finish(child(first), 1);
+    finish(child(first), 1);
+    Span second = root();
+    finish(child(second), 1);
+    finish(child(second), 1);
+    // Five held, the oldest trace makes way
+    finish(child(root()), 1);
+
+    assertEquals(1, stat("getFilteredTraces"));
+    assertEquals(2, stat("getFilteredSpans"));
+    // Its root now starts a trace of its own, with nothing buffered before it
+    finish(first, THRESHOLD_MS + 1);
+    assertEquals(1, reported.size());
+  }
+
+  @Test
+  public void keptTracesCountAgainstTheBound() throws Exception {
+    start(1000, 4);
+
+    List<Span> kept = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Span root = root();
+      finish(root, THRESHOLD_MS + 1);
+      kept.add(root);
+    }
+
+    // The first kept trace was forgotten to stay within the bound, the last one is still known
+    finish(child(kept.get(0)), 1);
+    finish(child(kept.get(4)), 1);
+    assertEquals(6, reported.size());
+    assertEquals(5, stat("getKeptTraces"));
+    assertEquals(0, stat("getFilteredTraces"));
+  }
+
+  @Test
+  public void dropsTracesThatDidNotQualifyInTime() throws Exception {
+    start(40, 10000);
+
+    finish(child(root()), 1);
+    for (int i = 0; i < 50 && stat("getFilteredTraces") == 0; i++) {
+      Thread.sleep(20);
+    }
+
+    assertEquals(1, stat("getFilteredTraces"));
+    assertTrue(reported.isEmpty());
+  }
+
+  @Test
+  public void concurrentTracesAreNeitherLostNorDuplicated() throws Exception {
+    start(60000, 1000000);
+
+    int threads = 8;
+    int tracesPerThread = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> done = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      done.add(executor.submit(() -> {
+        for (int i = 0; i < tracesPerThread; i++) {
+          Span root = root();
+          finish(child(root), 1);
+          finish(child(root), 1);
+          finish(root, i % 10 == 0 ? THRESHOLD_MS + 1 : 1);
+        }
+      }));
+    }
+    for (Future<?> thread : done) {
+      thread.get(60, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    long keptTraces = threads * tracesPerThread / 10;
+    assertEquals(keptTraces, stat("getKeptTraces"));
+    assertEquals(keptTraces * 3, reported.size());
+    assertEquals(keptTraces * 3, stat("getKeptSpans"));
+    assertEquals(reported.size(), reported.stream().distinct().count());
+  }
+
+  private void start(long bufferMs, int maxBufferedSpans) throws Exception {
+    stats = generated.loadClass(GeneratedCode.PACKAGE + ".ReporterStats").newInstance();
+    Reporter filter = (Reporter) generated.loadClass(GeneratedCode.PACKAGE + ".FilteringReporter")
+        .getConstructor(Reporter.class, stats.getClass(), long.class, double.class, long.class, int.class)
+        .newInstance(delegate, stats, THRESHOLD_MS, 0.0, bufferMs, maxBufferedSpans);
+    tracer = new Tracer.Builder("filter-test", filter, new ConstSampler(true)).build();
+  }
+
+  private Span root() {
+    return (Span) tracer.buildSpan("root").withStartTimestamp(1).startManual();
+  }
+
+  private Span child(Span parent) {
+    return (Span) tracer.buildSpan("child").asChildOf(parent).withStartTimestamp(1).startManual();
+  }
+
+  private static void finish(Span span, long durationMs) {
+    span.finish(1 + TimeUnit.MILLISECONDS.toMicros(durationMs));
+  }
+
+  private long stat(String getter) throws ReflectiveOperationException {
+    return (Long) stats.getClass().getMethod(getter).invoke(stats);
+  }
+}
@@ -0,0 +1,142 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeAnnotationFromTemplate;
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeClassFromTemplate;
+import static org.jaeger.tracing.addon.util.WriteClassHelper.writeInterfaceFromTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Renders templates like the commands do and compiles them, so tests can run the
+ * generated code and not only look at it.
+ */
+class GeneratedCode {
+
+  static final String PACKAGE = "com.example";
+
+  private GeneratedCode() {
+  }
+
+  /** The template model 'Jaeger Setup Tracing' builds with its default inputs. */
+  static Map<String, Object> setupDefaults() {
+    Map<String, Object> model = new HashMap<>();
+    model.put("package", PACKAGE);
+    model.put("samplerType", "probabilistic");
+    model.put("samplerParam", "0.001");
+    model.put("samplerManagerHostPort", "localhost:5778");
+    model.put("samplerMaxSpansPerSecond", "0");
+    model.put("senderType", "udp");
+    model.put("reporterMaxQueueSize", "100");
+    model.put("reporterFlushInterval", "1000");
+    model.put("reporterMaxPacketSize", "65000");
+    model.put("skipPaths", "");
+    model.put("filterLatencyMs", "0");
+    model.put("filterBaselineRate", "0.01");
+    model.put("filterMaxSpans", "10000");
+    model.put("redMetrics", "none");
+    model.put("tracerStartup", "eager");
+    model.put("propagation", "jaeger");
+    model.put("ejbTraceAll", Boolean.TRUE);
+    return model;
+  }
+
+  /**
+   * Compiles the given templates, rendered with the model, against the test class path.
+   * The classes are loaded by a loader of their own, with the test classes as parent.
+   */
+  static ClassLoader compile(Map<String, Object> model, String... templates) throws IOException {
+    return compile(model, new HashMap<>(), templates);
+  }
+
+  /**
+   * Like {@link #compile(Map, String...)}, together with classes that use the generated
+   * ones, given as simple class name and source without the package declaration.
+   */
+  static ClassLoader compile(Map<String, Object> model, Map<String, String> classes, String... templates)
+      throws IOException {
+    Path sources = Files.createTempDirectory("generated-src");
+    List<File> files = new ArrayList<>();
+    for (String template : templates) {
+      files.add(write(sources, template.replace(".java.ftl", ""), render(template, model)));
+    }
+    for (Map.Entry<String, String> source : classes.entrySet()) {
+      files.add(write(sources, source.getKey(), "package " + PACKAGE + ";\n" + source.getValue()));
+    }
+    return compile(files);
+  }
+
+  private static String render(String template, Map<String, Object> model) {
+    PrintStream log = new PrintStream(new ByteArrayOutputStream(), true);
+    switch (template) {
+      case "RedMetricsMXBean.java.ftl":
+        return writeInterfaceFromTemplate(PACKAGE, template, model, log).toString();
+      case "EjbTraced.java.ftl":
+        return writeAnnotationFromTemplate(PACKAGE, template, model, log).toString();
+      default:
+        return writeClassFromTemplate(PACKAGE, template, model, log).toString();
+    }
+  }
+
+  private static File write(Path sources, String className, String source) throws IOException {
+    Path file = sources.resolve(className + ".java");
+    Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+    return file.toFile();
+  }
+
+  private static ClassLoader compile(List<File> files) throws IOException {
+    Path classes = Files.createTempDirectory("generated-classes");
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StringWriter errors = new StringWriter();
+    try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      // Surefire puts the test class path there and only its booter jar on java.class.path
+      String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+      List<String> options = Arrays.asList("-classpath", classPath, "-d", classes.toString(), "-nowarn",
+                                           "-proc:none");
+      if (!compiler.getTask(errors, fileManager, null, options, null, fileManager.getJavaFileObjectsFromFiles(files))
+          .call()) {
+        throw new AssertionError("Generated code does not compile:\n" + errors);
+      }
+    }
+    return new URLClassLoader(new URL[] {classes.toUri().toURL()}, GeneratedCode.class.getClassLoader());
+  }
+
+  /** The given templates and what the JaegerTracerFactory generated for the model needs. */
+  static String[] withTracerFactory(Map<String, Object> model, String... templates) {
+    List<String> all = new ArrayList<>(Arrays.asList(templates));
+    // As JaegerSetupCommand.writeTracerFactory() picks them
+    all.addAll(Arrays.asList("JaegerTracerFactory.java.ftl", "ReporterStats.java.ftl"));
+    if ("adaptive".equals(model.get("samplerType"))) {
+      all.add("AdaptiveSampler.java.ftl");
+    }
+    if (!"jaeger".equals(model.get("propagation"))) {
+      all.add("TracePropagation.java.ftl");
+    }
+    if (!"eager".equals(model.get("tracerStartup"))) {
+      all.add("LazyTracer.java.ftl");
+    }
+    if (!"0".equals(model.get("filterLatencyMs"))) {
+      all.add("FilteringReporter.java.ftl");
+    }
+    if (!"none".equals(model.get("redMetrics"))) {
+      all.addAll(Arrays.asList("MeteredTracer.java.ftl", "RedMetrics.java.ftl", "RedMetricsMXBean.java.ftl"));
+    }
+    return all.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,185 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.jaeger.tracing.addon.util.MethodSpanWrapper;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.FieldSource;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+public class JaegerAddActionTest {
+
+  @Test
+  public void operationNameAndTagKeyAreConstants() {
+    JavaClassSource source = generate(false);
+
+    assertConstant(source, "ACTION_OPERATION", "action");
+    assertConstant(source, "MY_TAG", "myTag");
+    String body = code(source.getMethod("action").getBody());
+    assertTrue(body, body.contains("tracer().buildSpan(ACTION_OPERATION)"));
+    assertTrue(body, body.contains("span.setTag(MY_TAG,\"myVal\")"));
+  }
+
+  @Test
+  public void tagIsOnlyComputedForSampledSpans() {
+    JavaClassSource source = generate(false);
+
+    assertTrue(source.hasMethodSignature("isSampled", "ActiveSpan"));
+    assertTrue(source.getMethod("isSampled", "ActiveSpan").isStatic());
+    String body = code(source.getMethod("action").getBody());
+    int check = body.indexOf("if(isSampled(span))");
+    assertTrue(body, check >= 0 && check < body.indexOf("span.setTag"));
+  }
+
+  @Test
+  public void noopFastPathBuildsNoSpan() {
+    JavaClassSource source = generate(true);
+
+    assertTrue(source.hasImport("io.opentracing.NoopTracer"));
+    String body = code(source.getMethod("action").getBody());
+    assertTrue(body, body.contains("ActiveSpanspan=tracer()instanceofNoopTracer?null:tracer().buildSpan(ACTION_OPERATION)"));
+    assertTrue(body, body.contains("if(span!=null&&isSampled(span))"));
+    assertTrue(body, body.contains("finally{if(span!=null){span.close();}}"));
+  }
+
+  @Test
+  public void withoutFastPathTheSpanIsClosedByTryWithResources() {
+    JavaClassSource source = generate(false);
+
+    assertFalse(source.hasImport("io.opentracing.NoopTracer"));
+    assertTrue(code(source.getMethod("action").getBody()).startsWith("try(ActiveSpanspan=tracer().buildSpan("));
+  }
+
+  @Test
+  public void generatedClassParses() {
+    for (boolean noopFastPath : new boolean[] {false, true}) {
+      JavaClassSource reparsed = Roaster.parse(JavaClassSource.class, generate(noopFastPath).toString());
+      assertFalse(reparsed.getSyntaxErrors().toString(), reparsed.hasSyntaxErrors());
+      assertTrue(reparsed.hasField("tracer"));
+    }
+  }
+
+  @Test
+  public void actionRunsOutsideOfAContainer() throws Exception {
+    JavaClassSource source = generate(false);
+    source.setPackage(GeneratedCode.PACKAGE);
+    Class<?> orders = GeneratedCode.compile(GeneratedCode.setupDefaults(), Collections.singletonMap(
+        "Orders", source.toString().replaceFirst("package [\\w.]+;", ""))).loadClass(GeneratedCode.PACKAGE + ".Orders");
+
+    // Created with new, nothing injects the tracer
+    Object instance = orders.getConstructor().newInstance();
+    assertEquals("Success  ", orders.getMethod("action").invoke(instance));
+
+    InMemoryReporter reporter = new InMemoryReporter();
+    Field tracer = orders.getDeclaredField("tracer");
+    tracer.setAccessible(true);
+    tracer.set(instance, new com.uber.jaeger.Tracer.Builder("orders", reporter, new ConstSampler(true)).build());
+    orders.getMethod("action").invoke(instance);
+    assertEquals("action", reporter.getSpans().get(0).getOperationName());
+  }
+
+  @Test
+  public void globsAndExistingPackagesAreBulk() {
+    assertTrue(JaegerAddAction.isBulk("com.acme.rest.*Resource", name -> false));
+    assertTrue(JaegerAddAction.isBulk("Order?", name -> false));
+    assertTrue(JaegerAddAction.isBulk("com.acme.rest", "com.acme.rest"::equals));
+    assertFalse(JaegerAddAction.isBulk("com.acme.rest.Orders", "com.acme.rest"::equals));
+    // A simple name is a class of the base package, even if a package of that name exists
+    assertFalse(JaegerAddAction.isBulk("rest", name -> true));
+  }
+
+  @Test
+  public void classNameGlobs() {
+    Pattern resources = JaegerAddAction.toClassNamePattern("com.acme.*Resource");
+    assertTrue(resources.matcher("com.acme.OrderResource").matches());
+    assertTrue(resources.matcher("com.acme.Resource").matches());
+    assertFalse(resources.matcher("com.acme.rest.OrderResource").matches());
+    assertFalse("The dot is no wildcard", resources.matcher("comXacme.OrderResource").matches());
+
+    Pattern deep = JaegerAddAction.toClassNamePattern("com.**.Orders");
+    assertTrue(deep.matcher("com.acme.rest.Orders").matches());
+    assertFalse(deep.matcher("com.acme.rest.OrdersTest").matches());
+
+    Pattern single = JaegerAddAction.toClassNamePattern("com.acme.Order?");
+    assertTrue(single.matcher("com.acme.Orders").matches());
+    assertFalse(single.matcher("com.acme.Order").matches());
+    assertFalse(JaegerAddAction.toClassNamePattern("com.acme.?Orders").matcher("com.acme..Orders").matches());
+  }
+
+  @Test
+  public void classNameIsThePathBelowTheSourceDirectory() {
+    Path sources = Paths.get("src", "main", "java");
+    assertEquals("com.acme.Orders", JaegerAddAction.className(sources, sources.resolve(Paths.get("com", "acme",
+                                                                                                  "Orders.java"))));
+  }
+
+  @Test
+  public void bulkWrapsTheSelectedMethodsAndReportsWhatItCannotParse() throws IOException {
+    Path sources = Files.createTempDirectory("bulk-src");
+    File orders = write(sources, "Orders.java", "package com.acme;\n"
+        + "public class Orders {\n"
+        + "  public int findOrders(int n) { int sum = n; sum++; return sum; }\n"
+        + "}");
+    File customers = write(sources, "Customers.java", "package com.acme;\n"
+        + "public class Customers {\n"
+        + "  public int count() { int n = 1; n++; return n; }\n"
+        + "}");
+    File api = write(sources, "Api.java", "package com.acme;\npublic interface Api { int findAll(); }");
+    File broken = write(sources, "Broken.java", "package com.acme;\npublic class Broken { public int findIt( { }");
+    File missing = sources.resolve("Missing.java").toFile();
+
+    List<String> unparsable = new ArrayList<>();
+    List<JavaClassSource> changed = JaegerAddAction.wrapMethods(
+        Arrays.asList(orders, customers, api, broken, missing),
+        new MethodSpanWrapper("find*", Collections.emptySet(), null, false), unparsable);
+
+    assertEquals(Collections.singletonList("Orders"),
+                 changed.stream().map(JavaClassSource::getName).collect(Collectors.toList()));
+    assertTrue(code(changed.get(0).getMethod("findOrders", int.class).getBody()).startsWith("try(ActiveSpanspan="));
+    // No action stub is added to classes without a selected method
+    assertFalse(changed.get(0).hasMethodSignature("action"));
+    assertEquals(Arrays.asList(broken.getPath(), missing.getPath()).stream().sorted().collect(Collectors.toList()),
+                 unparsable);
+  }
+
+  private static File write(Path directory, String name, String source) throws IOException {
+    return Files.write(directory.resolve(name), source.getBytes(StandardCharsets.UTF_8)).toFile();
+  }
+
+  private static JavaClassSource generate(boolean noopFastPath) {
+    JavaClassSource source = Roaster.create(JavaClassSource.class).setPackage("com.example").setName("Orders");
+    JaegerAddAction.addTracedAction(source, false, "action",
+                                    new MethodSpanWrapper(null, Collections.emptySet(), null, noopFastPath));
+    return source;
+  }
+
+  // Roaster formats the bodies it returns, so they are compared without whitespace
+  private static String code(String body) {
+    return body.replaceAll("\\s+", "");
+  }
+
+  private static void assertConstant(JavaClassSource source, String name, String value) {
+    FieldSource<JavaClassSource> field = source.getField(name);
+    assertTrue(name + " is missing", field != null);
+    assertTrue(field.isPrivate() && field.isStatic() && field.isFinal());
+    assertEquals("\"" + value + "\"", field.getLiteralInitializer());
+  }
+}
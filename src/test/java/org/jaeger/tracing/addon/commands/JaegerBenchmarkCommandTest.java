@@ -0,0 +1,85 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.jaeger.tracing.addon.util.MethodSpanWrapper;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+public class JaegerBenchmarkCommandTest {
+
+  private static final String ORDERS = "package com.example;\n"
+      + "public class Orders {\n"
+      + "  public String list() { String all = \"all\"; return all; }\n"
+      + "  public void save(String name, int count, boolean urgent) { System.out.println(name); System.out.println(count); }\n"
+      + "  public int total(java.util.List<Integer> prices) { int sum = 0; sum += prices.size(); return sum; }\n"
+      + "  String audit() { String log = \"log\"; return log; }\n"
+      + "  public String untouched() { String x = \"x\"; return x; }\n"
+      + "}";
+
+  @Test
+  public void wrappedMethodsBecomeBenchmarks() {
+    JaegerBenchmarkCommand.EntryPoints entryPoints = new JaegerBenchmarkCommand.EntryPoints();
+    entryPoints.add(wrap(ORDERS, "list|save|total|audit"));
+
+    assertEquals(1, entryPoints.targets.size());
+    assertEquals("com.example.Orders", entryPoints.targets.get(0).get("type"));
+    assertEquals("orders", entryPoints.targets.get(0).get("instance"));
+
+    assertEquals(2, entryPoints.methods.size());
+    Map<String, Object> list = entryPoints.methods.get(0);
+    assertEquals("ordersList", list.get("name"));
+    assertEquals("list", list.get("method"));
+    assertEquals("", list.get("arguments"));
+    assertEquals(Boolean.TRUE, list.get("returnsValue"));
+    Map<String, Object> save = entryPoints.methods.get(1);
+    assertEquals("\"benchmark\", 1, true", save.get("arguments"));
+    assertEquals(Boolean.FALSE, save.get("returnsValue"));
+
+    assertEquals(Arrays.asList("com.example.Orders.total (takes arguments other than primitives or strings)",
+                               "com.example.Orders.audit (not public)"), entryPoints.skipped);
+  }
+
+  @Test
+  public void classesNeedingAContainerAreSkipped() {
+    JaegerBenchmarkCommand.EntryPoints entryPoints = new JaegerBenchmarkCommand.EntryPoints();
+    entryPoints.add(wrap(ORDERS.replace("public class Orders {",
+                                        "public class Orders {\n  @PersistenceContext EntityManager em;"), "list"));
+    entryPoints.add(wrap(ORDERS.replace("public class Orders {",
+                                        "public class Orders {\n  public Orders(String name) { }"), "list"));
+    entryPoints.add(wrap(ORDERS.replace("public class", "class"), "list"));
+    entryPoints.add(Roaster.parse(JavaClassSource.class, ORDERS));
+
+    assertTrue(entryPoints.methods.isEmpty());
+    assertEquals(Arrays.asList("com.example.Orders (needs em injected)",
+                               "com.example.Orders (no public no-arg constructor)",
+                               "com.example.Orders (not a public, concrete, non generic class)"),
+                 entryPoints.skipped);
+  }
+
+  @Test
+  public void namesDoNotClashWithTheBenchmarkOrEachOther() {
+    JaegerBenchmarkCommand.EntryPoints entryPoints = new JaegerBenchmarkCommand.EntryPoints();
+    entryPoints.add(wrap(ORDERS.replace("Orders", "Tracer"), "list"));
+    entryPoints.add(wrap(ORDERS.replace("package com.example", "package com.example.other")
+                             .replace("Orders", "Tracer"), "list"));
+    entryPoints.add(wrap(ORDERS.replace("Orders", "Default"), "list"));
+
+    assertEquals("tracer2", entryPoints.targets.get(0).get("instance"));
+    assertEquals("tracer3", entryPoints.targets.get(1).get("instance"));
+    assertEquals("com.example.other.Tracer", entryPoints.targets.get(1).get("type"));
+    assertEquals("default2", entryPoints.targets.get(2).get("instance"));
+    assertEquals("tracer2List", entryPoints.methods.get(0).get("name"));
+  }
+
+  private static JavaClassSource wrap(String source, String names) {
+    JavaClassSource parsed = Roaster.parse(JavaClassSource.class, source);
+    new MethodSpanWrapper(names, Collections.emptySet(), null, false).wrapMethods(parsed);
+    return parsed;
+  }
+}
@@ -0,0 +1,143 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+public class JaegerSetupCommandTest {
+
+  @Test
+  public void samplingManagerIsHostAndPort() {
+    assertTrue(JaegerSetupCommand.isHostPort("localhost:5778"));
+    assertTrue(JaegerSetupCommand.isHostPort("jaeger-agent.tracing.svc:5778"));
+    assertTrue(JaegerSetupCommand.isHostPort("10.0.0.1:5778"));
+    assertTrue(JaegerSetupCommand.isHostPort("[::1]:5778"));
+  }
+
+  @Test
+  public void samplingManagerCannotBreakTheGeneratedSource() {
+    assertFalse(JaegerSetupCommand.isHostPort("localhost\":5778"));
+    assertFalse(JaegerSetupCommand.isHostPort("local\\\\host:5778"));
+    assertFalse(JaegerSetupCommand.isHostPort("localhost"));
+    assertFalse(JaegerSetupCommand.isHostPort("localhost:0"));
+    assertFalse(JaegerSetupCommand.isHostPort("localhost:65536"));
+    assertFalse(JaegerSetupCommand.isHostPort("http://localhost:5778"));
+    assertFalse(JaegerSetupCommand.isHostPort(null));
+  }
+
+  @Test
+  public void samplerParameterFitsTheSamplerType() {
+    assertNull(JaegerSetupCommand.samplerParamError("const", "0"));
+    assertNull(JaegerSetupCommand.samplerParamError("const", "1"));
+    assertNotNull(JaegerSetupCommand.samplerParamError("const", "0.5"));
+    assertNull(JaegerSetupCommand.samplerParamError("ratelimiting", "0"));
+    assertNull(JaegerSetupCommand.samplerParamError("ratelimiting", "250"));
+    assertNotNull(JaegerSetupCommand.samplerParamError("ratelimiting", "-1"));
+    for (String type : Arrays.asList("probabilistic", "remote", "adaptive")) {
+      assertNull(JaegerSetupCommand.samplerParamError(type, "0"));
+      assertNull(JaegerSetupCommand.samplerParamError(type, "1"));
+      assertNotNull(type, JaegerSetupCommand.samplerParamError(type, "1.5"));
+      assertNotNull(type, JaegerSetupCommand.samplerParamError(type, "-0.1"));
+      assertNotNull(type, JaegerSetupCommand.samplerParamError(type, "NaN"));
+    }
+    assertNotNull(JaegerSetupCommand.samplerParamError("probabilistic", "one"));
+    assertNotNull(JaegerSetupCommand.samplerParamError("probabilistic", null));
+  }
+
+  @Test
+  public void skipPathsOnlyTakeWildcardsTheMatcherUnderstands() {
+    assertNull(JaegerSetupCommand.skipPathsError(""));
+    assertNull(JaegerSetupCommand.skipPathsError("/health, /static/**,/metrics*, *.css"));
+    assertNull(JaegerSetupCommand.skipPathsError("*"));
+    assertNotNull(JaegerSetupCommand.skipPathsError("/health,/api/*/health"));
+    assertNotNull(JaegerSetupCommand.skipPathsError("/static/**/*.css"));
+    assertNotNull(JaegerSetupCommand.skipPathsError("*.css*"));
+    assertNotNull(JaegerSetupCommand.skipPathsError("**/health"));
+  }
+
+  @Test
+  public void springBootApplicationFromTheSourcesWithoutScanning() {
+    assertEquals("com.acme", JaegerSetupCommand.springBootApplicationPackage(
+        Collections.singleton("com.acme.Application"), () -> {
+          throw new AssertionError("The sources had the answer");
+        }));
+    assertEquals("", JaegerSetupCommand.springBootApplicationPackage(
+        Collections.singleton("Application"), Collections::emptySet));
+  }
+
+  @Test
+  public void springBootApplicationFallsBackToTheScan() {
+    // e.g. the application class comes from a dependency
+    assertEquals(JaegerSetupCommandTest.class.getPackage().getName(), JaegerSetupCommand.springBootApplicationPackage(
+        Collections.emptySet(), () -> Collections.singleton(JaegerSetupCommandTest.class)));
+    assertNull(JaegerSetupCommand.springBootApplicationPackage(Collections.emptySet(), Collections::emptySet));
+    assertNull(JaegerSetupCommand.springBootApplicationPackage(Collections.emptySet(), () -> null));
+  }
+
+  @Test
+  public void samplerParameterDefaultsFitTheSamplerType() {
+    for (String type : Arrays.asList("const", "probabilistic", "ratelimiting", "remote", "adaptive")) {
+      assertNull(type, JaegerSetupCommand.samplerParamError(type, JaegerSetupCommand.defaultSamplerParam(type)));
+    }
+    assertEquals("1", JaegerSetupCommand.defaultSamplerParam("ratelimiting"));
+    assertEquals("0.001", JaegerSetupCommand.defaultSamplerParam("probabilistic"));
+  }
+
+  @Test
+  public void agentSidecarIsAddedAsSecondContainer() {
+    List<Map> containers = new ArrayList<>();
+    Map<String, Object> application = new HashMap<>();
+    application.put("env", new ArrayList<>());
+    containers.add(application);
+
+    JaegerSetupCommand.addAgentSidecarIfNeeded(containers);
+    // Running the setup again must not add a second agent
+    JaegerSetupCommand.addAgentSidecarIfNeeded(containers);
+
+    // As the fabric8 plugin reads it back from deployment.yml
+    Yaml yaml = new Yaml();
+    Map<String, Object> deployment = (Map<String, Object>) yaml.load(yaml.dump(deployment(containers)));
+    List<Map<String, Object>> written = (List<Map<String, Object>>) ((Map) ((Map) ((Map) deployment.get("spec"))
+        .get("template")).get("spec")).get("containers");
+    assertEquals(2, written.size());
+    assertTrue(written.get(0).containsKey("env"));
+
+    Map<String, Object> agent = written.get(1);
+    assertEquals("jaeger-agent", agent.get("name"));
+    // Pinned, the latest agent no longer takes --collector.host-port
+    assertEquals("jaegertracing/jaeger-agent:1.2.0", agent.get("image"));
+    assertEquals(Arrays.asList("--collector.host-port=jaeger-collector-EDIT_ME:14267"), agent.get("args"));
+    List<Map<String, Object>> ports = (List<Map<String, Object>>) agent.get("ports");
+    assertEquals(4, ports.size());
+    assertEquals(6831, ports.get(1).get("containerPort"));
+    assertEquals("UDP", ports.get(1).get("protocol"));
+    assertEquals(5778, ports.get(3).get("containerPort"));
+    assertEquals("TCP", ports.get(3).get("protocol"));
+    Map<String, Object> limits = (Map<String, Object>) ((Map) agent.get("resources")).get("limits");
+    assertEquals("50Mi", limits.get("memory"));
+    assertEquals("100m", limits.get("cpu"));
+  }
+
+  private static Map<String, Object> deployment(List<Map> containers) {
+    Map<String, Object> podSpec = new HashMap<>();
+    podSpec.put("containers", containers);
+    Map<String, Object> template = new HashMap<>();
+    template.put("spec", podSpec);
+    Map<String, Object> spec = new HashMap<>();
+    spec.put("template", template);
+    Map<String, Object> deployment = new HashMap<>();
+    deployment.put("spec", spec);
+    return deployment;
+  }
+}
@@ -0,0 +1,159 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import io.opentracing.ActiveSpan;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapInjectAdapter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LazyTracerTest {
+
+  private static ClassLoader generated;
+
+  private final InMemoryReporter reporter = new InMemoryReporter();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("tracerStartup", "first-span");
+    generated = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+  }
+
+  @Test
+  public void eagerStartupBuildsTheTracerRightAway() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    ClassLoader eager = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+
+    Object tracer = createTracer(eager);
+    assertEquals(com.uber.jaeger.Tracer.class, tracer.getClass());
+    ((com.uber.jaeger.Tracer) tracer).close();
+    try {
+      eager.loadClass(GeneratedCode.PACKAGE + ".LazyTracer");
+      fail("Only generated for lazy startup");
+    } catch (ClassNotFoundException expected) {
+    }
+  }
+
+  @Test
+  public void firstSpanStartsBuildingTheTracer() throws Exception {
+    Tracer tracer = (Tracer) createTracer(generated);
+    assertEquals("LazyTracer", tracer.getClass().getSimpleName());
+    Thread.sleep(100);
+    assertFalse("Nothing is built before the first span", isReady(tracer));
+
+    tracer.buildSpan("first").startManual().finish();
+    for (int i = 0; i < 100 && !isReady(tracer); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(isReady(tracer));
+  }
+
+  @Test
+  public void warmUpBuildsTheTracerWithoutASpan() throws Exception {
+    Tracer tracer = lazy(true);
+    release.countDown();
+    for (int i = 0; i < 100 && !isReady(tracer); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(isReady(tracer));
+  }
+
+  @Test
+  public void earlyContextsAreNotInjectedByTheRealTracer() throws Exception {
+    Tracer tracer = lazy(false);
+    Span early = tracer.buildSpan("early").startManual();
+    awaitReady(tracer);
+
+    Map<String, String> headers = new HashMap<>();
+    tracer.inject(early.context(), Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(headers));
+    early.finish();
+    assertTrue(headers.toString(), headers.isEmpty());
+
+    Span real = tracer.buildSpan("real").startManual();
+    tracer.inject(real.context(), Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(headers));
+    real.finish();
+    assertEquals(1, headers.size());
+  }
+
+  @Test
+  public void earlyParentsAreDropped() throws Exception {
+    Tracer tracer = lazy(false);
+    Span early = tracer.buildSpan("early").startManual();
+    awaitReady(tracer);
+
+    try (ActiveSpan active = tracer.buildSpan("active").startActive()) {
+      tracer.buildSpan("of span").asChildOf(early).startManual().finish();
+      tracer.buildSpan("of context").asChildOf(early.context()).startManual().finish();
+      // Made active by the NoopTracer, the real one keeps its active span
+      ActiveSpan earlyActive = tracer.makeActive(early);
+      assertSame(active.context(), tracer.activeSpan().context());
+      earlyActive.deactivate();
+    }
+    early.finish();
+
+    assertEquals(3, reporter.getSpans().size());
+    com.uber.jaeger.Span activeSpan = reporter.getSpans().get(2);
+    for (com.uber.jaeger.Span span : reporter.getSpans().subList(0, 2)) {
+      // A trace of its own, neither the early span nor the active one is the parent
+      assertEquals(span.getOperationName(), 0, span.context().getParentId());
+      assertTrue(span.getOperationName(), activeSpan.context().getTraceId() != span.context().getTraceId());
+    }
+  }
+
+  @Test
+  public void spansAreNoOpsUntilTheTracerIsReady() throws Exception {
+    Tracer tracer = lazy(false);
+    tracer.buildSpan("early").startManual().finish();
+    assertFalse(isReady(tracer));
+
+    awaitReady(tracer);
+    tracer.buildSpan("late").startManual().finish();
+    assertEquals(1, reporter.getSpans().size());
+    assertEquals("late", reporter.getSpans().get(0).getOperationName());
+  }
+
+  private static Object createTracer(ClassLoader loader) throws ReflectiveOperationException {
+    return loader.loadClass(GeneratedCode.PACKAGE + ".JaegerTracerFactory").getMethod("createTracer", String.class)
+        .invoke(null, "lazy-test");
+  }
+
+  // A lazy tracer whose real tracer is only built once the test releases it
+  private Tracer lazy(boolean warmUp) throws ReflectiveOperationException {
+    Supplier<Tracer> factory = () -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new com.uber.jaeger.Tracer.Builder("lazy-test", reporter, new ConstSampler(true)).build();
+    };
+    return (Tracer) generated.loadClass(GeneratedCode.PACKAGE + ".LazyTracer")
+        .getConstructor(Supplier.class, boolean.class).newInstance(factory, warmUp);
+  }
+
+  private void awaitReady(Tracer tracer) throws ReflectiveOperationException {
+    release.countDown();
+    assertTrue((Boolean) tracer.getClass().getMethod("awaitReady", long.class, TimeUnit.class)
+        .invoke(tracer, 10, TimeUnit.SECONDS));
+  }
+
+  private static boolean isReady(Tracer tracer) throws ReflectiveOperationException {
+    return (Boolean) tracer.getClass().getMethod("isReady").invoke(tracer);
+  }
+}
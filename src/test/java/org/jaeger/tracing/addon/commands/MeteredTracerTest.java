@@ -0,0 +1,87 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MeteredTracerTest {
+
+  private static ClassLoader generated;
+  private static Object metrics;
+  private static Tracer tracer;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("redMetrics", "jmx");
+    generated = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+
+    metrics = generated.loadClass(GeneratedCode.PACKAGE + ".RedMetrics").getMethod("get").invoke(null);
+    // Not sampled, the metrics see every span anyway
+    Tracer jaeger = new com.uber.jaeger.Tracer.Builder("metered-test", new InMemoryReporter(), new ConstSampler(false))
+        .build();
+    tracer = (Tracer) generated.loadClass(GeneratedCode.PACKAGE + ".MeteredTracer")
+        .getConstructor(Tracer.class, metrics.getClass()).newInstance(jaeger, metrics);
+  }
+
+  @Test
+  public void durationComesFromTheGivenTimestamps() throws Exception {
+    Span span = tracer.buildSpan("replayed").withStartTimestamp(1_000_000).startManual();
+    span.finish(1_250_000);
+
+    assertEquals(250.0, meanMillis("replayed"), 0.001);
+  }
+
+  @Test
+  public void durationFromAGivenFinishIsCountedFromTheStart() throws Exception {
+    long startMicros = System.currentTimeMillis() * 1000;
+    Span span = tracer.buildSpan("finished later").startManual();
+    span.finish(startMicros + 5_000_000);
+
+    double mean = meanMillis("finished later");
+    assertTrue(String.valueOf(mean), mean > 4000 && mean <= 5000);
+  }
+
+  @Test
+  public void durationWithoutTimestampsIsMeasured() throws Exception {
+    Span span = tracer.buildSpan("measured").startManual();
+    Thread.sleep(20);
+    span.finish();
+
+    double mean = meanMillis("measured");
+    assertTrue(String.valueOf(mean), mean >= 20 && mean < 1000);
+  }
+
+  @Test
+  public void startedInThePastAndFinishedNow() throws Exception {
+    long startMicros = System.currentTimeMillis() * 1000 - 3_000_000;
+    tracer.buildSpan("backdated").withStartTimestamp(startMicros).startManual().finish();
+
+    double mean = meanMillis("backdated");
+    assertTrue(String.valueOf(mean), mean >= 3000 && mean < 4000);
+  }
+
+  @Test
+  public void onlyMeteredWhenChosen() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    ClassLoader unmetered = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model));
+
+    Object built = unmetered.loadClass(GeneratedCode.PACKAGE + ".JaegerTracerFactory")
+        .getMethod("createEagerTracer", String.class).invoke(null, "unmetered");
+    assertEquals(com.uber.jaeger.Tracer.class, built.getClass());
+    ((com.uber.jaeger.Tracer) built).close();
+  }
+
+  private static double meanMillis(String operationName) throws ReflectiveOperationException {
+    Map<String, Double> means = (Map<String, Double>) metrics.getClass().getMethod("getMeanDurationMillis")
+        .invoke(metrics);
+    return means.get(operationName);
+  }
+}
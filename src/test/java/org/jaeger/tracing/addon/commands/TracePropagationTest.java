@@ -0,0 +1,195 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.uber.jaeger.SpanContext;
+import com.uber.jaeger.reporters.InMemoryReporter;
+import com.uber.jaeger.samplers.ConstSampler;
+import io.opentracing.Span;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapExtractAdapter;
+import io.opentracing.propagation.TextMapInjectAdapter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TracePropagationTest {
+
+  private static final String TRACE_ID_128 = "0af7651916cd43dd8448eb211c80319c";
+  private static final String TRACEPARENT = "00-" + TRACE_ID_128 + "-b7ad6b7169203331-01";
+
+  private static Class<?> propagation;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("propagation", "w3c,b3,jaeger");
+    propagation = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model))
+        .loadClass(GeneratedCode.PACKAGE + ".TracePropagation");
+  }
+
+  @Test
+  public void uberTraceId() throws Exception {
+    SpanContext context = uber("abc:1:0:1");
+    assertEquals(0xabc, context.getTraceId());
+    assertEquals(1, context.getSpanId());
+    assertEquals(0, context.getParentId());
+    assertTrue(context.isSampled());
+
+    SpanContext encoded = uber("abc%3A2%3a1%3A0");
+    assertEquals(0xabc, encoded.getTraceId());
+    assertEquals(2, encoded.getSpanId());
+    assertEquals(1, encoded.getParentId());
+    assertEquals(0, encoded.getFlags());
+  }
+
+  @Test
+  public void invalidUberTraceIds() throws Exception {
+    assertNull(uber("abc:1:0"));
+    assertNull(uber("abc:1:0:1:2"));
+    assertNull(uber("abc:12345678901234567:0:1"));
+    assertNull(uber("abc:1:0:100"));
+    assertNull(uber("xyz:1:0:1"));
+    assertNull(uber("abc::0:1"));
+    assertNull(uber("abc%3B1%3A0%3A1"));
+    assertNull(uber("0:1:0:1"));
+    assertNull(uber(""));
+  }
+
+  @Test
+  public void uberTraceIdWith128Bits() throws Exception {
+    SpanContext context = uber(TRACE_ID_128 + ":1:0:1");
+    assertEquals(0x8448eb211c80319cL, context.getTraceId());
+    assertEquals("0af7651916cd43dd", context.getBaggageItem("trace-id-high"));
+  }
+
+  @Test
+  public void b3() throws Exception {
+    SpanContext context = b3("8448eb211c80319c", "b7ad6b7169203331", "0020000000000001", "1", null);
+    assertEquals(0x8448eb211c80319cL, context.getTraceId());
+    assertEquals(0xb7ad6b7169203331L, context.getSpanId());
+    assertEquals(0x20000000000001L, context.getParentId());
+    assertTrue(context.isSampled());
+    assertNull(context.getBaggageItem("trace-id-high"));
+
+    assertTrue(b3("a", "b", null, null, "1").isDebug());
+    assertEquals(0, b3("a", "b", null, "0", null).getFlags());
+  }
+
+  @Test
+  public void invalidB3() throws Exception {
+    assertNull(b3("a", null, null, "1", null));
+    assertNull(b3("", "b", null, "1", null));
+    assertNull(b3(TRACE_ID_128 + "0", "b", null, "1", null));
+    assertNull(b3("a", "12345678901234567", null, "1", null));
+    assertNull(b3("a", "b", "x", "1", null));
+    assertNull(b3("0", "b", null, "1", null));
+    assertNull("The lower 64 bits cannot be zero", b3("10000000000000000", "b", null, "1", null));
+  }
+
+  @Test
+  public void b3With128Bits() throws Exception {
+    SpanContext context = b3(TRACE_ID_128, "b7ad6b7169203331", null, "1", null);
+    assertEquals(0x8448eb211c80319cL, context.getTraceId());
+    assertEquals("0af7651916cd43dd", context.getBaggageItem("trace-id-high"));
+  }
+
+  @Test
+  public void traceparent() throws Exception {
+    SpanContext context = traceparent(TRACEPARENT);
+    assertEquals(0x8448eb211c80319cL, context.getTraceId());
+    assertEquals(0xb7ad6b7169203331L, context.getSpanId());
+    assertEquals("0af7651916cd43dd", context.getBaggageItem("trace-id-high"));
+    assertTrue(context.isSampled());
+
+    SpanContext lower = traceparent("00-00000000000000008448eb211c80319c-b7ad6b7169203331-00");
+    assertNull(lower.getBaggageItem("trace-id-high"));
+    assertEquals(0, lower.getFlags());
+  }
+
+  @Test
+  public void laterTraceparentVersionsMayAddFields() throws Exception {
+    assertNotNull(traceparent("01-" + TRACE_ID_128 + "-b7ad6b7169203331-01-what-comes-next"));
+    assertNotNull(traceparent("01" + TRACEPARENT.substring(2)));
+    assertNull(traceparent(TRACEPARENT + "-more"));
+    assertNull(traceparent("01-" + TRACE_ID_128 + "-b7ad6b7169203331-01more"));
+  }
+
+  @Test
+  public void invalidTraceparents() throws Exception {
+    assertNull(traceparent(TRACEPARENT.substring(0, 54)));
+    assertNull(traceparent("ff" + TRACEPARENT.substring(2)));
+    assertNull(traceparent("00-" + TRACE_ID_128 + "-b7ad6b716920333-01x"));
+    assertNull(traceparent("00_" + TRACEPARENT.substring(3)));
+    assertNull(traceparent("00-" + TRACE_ID_128.replace('a', 'g') + "-b7ad6b7169203331-01"));
+    assertNull(traceparent("00-00000000000000000000000000000000-b7ad6b7169203331-01"));
+    assertNull(traceparent("00-" + TRACE_ID_128 + "-0000000000000000-01"));
+    assertNull("The lower 64 bits cannot be zero",
+               traceparent("00-0af7651916cd43dd0000000000000000-b7ad6b7169203331-01"));
+  }
+
+  @Test
+  public void traceIdsStayWholeAcrossTheService() throws Exception {
+    com.uber.jaeger.Tracer.Builder builder = new com.uber.jaeger.Tracer.Builder("propagation-test",
+        new InMemoryReporter(), new ConstSampler(true));
+    Tracer tracer = ((com.uber.jaeger.Tracer.Builder) propagation
+        .getMethod("register", com.uber.jaeger.Tracer.Builder.class, String.class)
+        .invoke(null, builder, "w3c,b3,jaeger")).build();
+
+    Map<String, String> incoming = new HashMap<>();
+    incoming.put("traceparent", TRACEPARENT);
+    io.opentracing.SpanContext parent = tracer.extract(Format.Builtin.HTTP_HEADERS,
+        new TextMapExtractAdapter(incoming));
+    Span child = tracer.buildSpan("forward").asChildOf(parent).startManual();
+    Map<String, String> outgoing = new HashMap<>();
+    tracer.inject(child.context(), Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(outgoing));
+    child.finish();
+
+    assertTrue(outgoing.get("traceparent"), outgoing.get("traceparent").startsWith("00-" + TRACE_ID_128 + "-"));
+    assertEquals(TRACE_ID_128, outgoing.get("X-B3-TraceId"));
+    assertEquals("0af7651916cd43dd", outgoing.get("uberctx-trace-id-high"));
+
+    // The next hop may only speak Jaeger, the upper bits come with the baggage
+    Map<String, String> jaegerOnly = new HashMap<>(outgoing);
+    jaegerOnly.remove("traceparent");
+    jaegerOnly.remove("X-B3-TraceId");
+    io.opentracing.SpanContext next = tracer.extract(Format.Builtin.HTTP_HEADERS,
+        new TextMapExtractAdapter(jaegerOnly));
+    Map<String, String> again = new HashMap<>();
+    tracer.inject(next, Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(again));
+    assertTrue(again.get("traceparent"), again.get("traceparent").startsWith("00-" + TRACE_ID_128 + "-"));
+    ((com.uber.jaeger.Tracer) tracer).close();
+  }
+
+  private static SpanContext uber(String value) throws Exception {
+    return (SpanContext) invoke("parseUberTraceId", new Class<?>[] {String.class}, value);
+  }
+
+  private static SpanContext b3(String traceId, String spanId, String parentSpanId, String sampled, String flags)
+      throws Exception {
+    Class<?>[] types = {String.class, String.class, String.class, String.class, String.class};
+    return (SpanContext) invoke("parseB3", types, traceId, spanId, parentSpanId, sampled, flags);
+  }
+
+  private static SpanContext traceparent(String value) throws Exception {
+    return (SpanContext) invoke("parseTraceparent", new Class<?>[] {String.class}, value);
+  }
+
+  // The parsers are package private, as the generated code does not need them elsewhere
+  private static Object invoke(String name, Class<?>[] types, Object... args) throws Exception {
+    Method method = propagation.getDeclaredMethod(name, types);
+    method.setAccessible(true);
+    try {
+      return method.invoke(null, args);
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TracingSkipMatcherTest {
+
+  private static Class<?> matcherClass;
+
+  @BeforeClass
+  public static void compile() throws Exception {
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    matcherClass = GeneratedCode.compile(model, "TracingSkipMatcher.java.ftl")
+        .loadClass(GeneratedCode.PACKAGE + ".TracingSkipMatcher");
+  }
+
+  @Test
+  public void exactPaths() throws Exception {
+    Object matcher = matcher("/health, /ready");
+    assertTrue(matches(matcher, "/health"));
+    assertTrue(matches(matcher, "/ready"));
+    assertFalse(matches(matcher, "/healthz"));
+    assertFalse(matches(matcher, "/health/live"));
+    assertFalse(matches(matcher, "/heal"));
+    assertFalse(matches(matcher, "/"));
+  }
+
+  @Test
+  public void pathAndEverythingBelow() throws Exception {
+    Object matcher = matcher("/static/**");
+    assertTrue(matches(matcher, "/static"));
+    assertTrue(matches(matcher, "/static/"));
+    assertTrue(matches(matcher, "/static/css/site.css"));
+    assertFalse(matches(matcher, "/staticfiles"));
+    assertFalse(matches(matcher, "/api/static"));
+  }
+
+  @Test
+  public void trailingWildcardIsAPrefix() throws Exception {
+    Object matcher = matcher("/metrics*");
+    assertTrue(matches(matcher, "/metrics"));
+    assertTrue(matches(matcher, "/metrics/jvm"));
+    assertTrue(matches(matcher, "/metricsz"));
+    assertFalse(matches(matcher, "/metric"));
+    assertFalse(matches(matcher, "/api/metrics"));
+  }
+
+  @Test
+  public void leadingWildcardIsASuffix() throws Exception {
+    Object matcher = matcher("*.css,*.js");
+    assertTrue(matches(matcher, "/static/site.css"));
+    assertTrue(matches(matcher, "app.js"));
+    assertTrue(matches(matcher, ".css"));
+    assertFalse(matches(matcher, "/static/site.css.map"));
+    assertFalse(matches(matcher, "/json"));
+    assertFalse(matches(matcher, "css"));
+  }
+
+  @Test
+  public void matchingStartsAtTheOffset() throws Exception {
+    Object matcher = matcher("/health,/static/**,*.css");
+    // e.g. behind the context path /shop
+    assertTrue(matches(matcher, "/shop/health", 5));
+    assertTrue(matches(matcher, "/shop/static/logo.png", 5));
+    assertFalse(matches(matcher, "/shop/health", 0));
+    assertFalse(matches(matcher, "/shop/health", 4));
+    // The suffix must lie behind the offset
+    assertTrue(matches(matcher, "/shop/a.css", 5));
+    assertFalse(matches(matcher, "/a.css", 3));
+    assertFalse("Nothing left behind the offset", matches(matcher, "/shop/health", 12));
+  }
+
+  @Test
+  public void emptyInput() throws Exception {
+    Object none = matcher("");
+    assertFalse(matches(none, "/health"));
+    assertFalse(matches(none, ""));
+    assertFalse(matches(matcher(" , ,"), "/health"));
+
+    Object matcher = matcher("/health,*.css");
+    assertFalse(matches(matcher, ""));
+    assertFalse((Boolean) matcherClass.getMethod("matches", CharSequence.class).invoke(matcher, (Object) null));
+    // An empty path below the context path is the root
+    assertTrue(matches(matcher("/"), "/shop/", 5));
+  }
+
+  private static Object matcher(String patterns) throws ReflectiveOperationException {
+    return matcherClass.getConstructor(String.class).newInstance(patterns);
+  }
+
+  private static boolean matches(Object matcher, String path) throws ReflectiveOperationException {
+    return (Boolean) matcherClass.getMethod("matches", CharSequence.class).invoke(matcher, path);
+  }
+
+  private static boolean matches(Object matcher, String path, int from) throws ReflectiveOperationException {
+    return (Boolean) matcherClass.getMethod("matches", CharSequence.class, int.class).invoke(matcher, path, from);
+  }
+}
@@ -0,0 +1,201 @@
+package org.jaeger.tracing.addon.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.opentracing.Span;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VertxTracingTest {
+
+  private static final int REQUESTS = 2000;
+  private static final int CLIENTS = 16;
+
+  private final List<String> blockedWarnings = new CopyOnWriteArrayList<>();
+  private final Logger checker = Logger.getLogger("io.vertx.core.impl.BlockedThreadChecker");
+  private final Handler warnings = new Handler() {
+    @Override
+    public void publish(LogRecord record) {
+      // Only blocks in the handlers count, not in Vert.x itself
+      if (record.getLevel().intValue() >= Level.WARNING.intValue() && blockedInHandlers(record.getThrown())) {
+        StringWriter stack = new StringWriter();
+        record.getThrown().printStackTrace(new PrintWriter(stack));
+        blockedWarnings.add(record.getMessage() + "\n" + stack);
+      }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  };
+  private Vertx vertx;
+
+  @Before
+  public void startVertx() {
+    // Warns about every event loop task that runs longer than 1s, well above GC and JIT
+    // pauses and below what sending spans to the unreachable collector would take, with
+    // the stack of the blocked thread
+    vertx = Vertx.vertx(new VertxOptions()
+                            .setBlockedThreadCheckInterval(10)
+                            .setMaxEventLoopExecuteTime(TimeUnit.SECONDS.toNanos(1))
+                            .setWarningExceptionTime(1));
+  }
+
+  @After
+  public void stopVertx() throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    vertx.close(result -> closed.complete(null));
+    closed.get(10, TimeUnit.SECONDS);
+    checker.removeHandler(warnings);
+  }
+
+  @Test
+  public void eventLoopIsNotBlockedUnderLoad() throws Exception {
+    // A small queue, so most spans are dropped, and no collector to send them to
+    Map<String, Object> model = GeneratedCode.setupDefaults();
+    model.put("samplerType", "const");
+    model.put("samplerParam", "1");
+    model.put("reporterMaxQueueSize", "10");
+    ClassLoader generated = GeneratedCode.compile(model, GeneratedCode.withTracerFactory(model, "VertxTracing.java.ftl"));
+    Class<?> vertxTracing = generated.loadClass(GeneratedCode.PACKAGE + ".VertxTracing");
+    Method currentSpan = vertxTracing.getMethod("currentSpan", RoutingContext.class);
+
+    Router router = Router.router(vertx);
+    router.get("/orders/:id").handler(context -> {
+      Span span = invoke(currentSpan, context);
+      context.response().end(span == null ? "untraced" : span.context().toString());
+    });
+    vertxTracing.getMethod("install", Vertx.class, Router.class).invoke(null, vertx, router);
+    int port = listen(router);
+    awaitTracing(router);
+
+    // Loads the classes of the first requests before the event loop is watched
+    for (int i = 0; i < 50; i++) {
+      get(port, false);
+    }
+    checker.addHandler(warnings);
+
+    // From threads of their own, so only the server runs on the event loop
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    List<Future<String>> responses = new ArrayList<>();
+    for (int i = 0; i < REQUESTS; i++) {
+      boolean withParent = i % 2 == 0;
+      responses.add(clients.submit(() -> get(port, withParent)));
+    }
+    int traced = 0;
+    int continued = 0;
+    try {
+      for (Future<String> response : responses) {
+        String context = response.get(60, TimeUnit.SECONDS);
+        if (!"untraced".equals(context)) {
+          traced++;
+        }
+        if (context.startsWith("abc:")) {
+          continued++;
+        }
+      }
+    } finally {
+      clients.shutdownNow();
+    }
+
+    assertEquals(REQUESTS, traced);
+    assertEquals(REQUESTS / 2, continued);
+    Object stats = generated.loadClass(GeneratedCode.PACKAGE + ".JaegerTracerFactory")
+        .getMethod("getReporterStats").invoke(null);
+    assertTrue("The queue did not fill up", (Long) stats.getClass().getMethod("getDropped").invoke(stats) > 0);
+    assertEquals("Blocked event loop: " + blockedWarnings, 0, blockedWarnings.size());
+  }
+
+  // The generated tracing code or the route handler of this test was running
+  private static boolean blockedInHandlers(Throwable blocked) {
+    if (blocked == null) {
+      return false;
+    }
+    for (StackTraceElement frame : blocked.getStackTrace()) {
+      if (frame.getClassName().startsWith(GeneratedCode.PACKAGE + ".")
+          || frame.getClassName().startsWith(VertxTracingTest.class.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The span context the server saw, e.g. "abc:9f2e:1:1"
+  private static String get(int port, boolean withParent) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/orders/4711")
+        .openConnection();
+    if (withParent) {
+      connection.setRequestProperty("uber-trace-id", "abc:1:0:1");
+    }
+    assertEquals(200, connection.getResponseCode());
+    try (InputStream in = connection.getInputStream()) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[256];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        body.write(buffer, 0, read);
+      }
+      return body.toString("UTF-8");
+    }
+  }
+
+  private int listen(Router router) throws Exception {
+    CompletableFuture<HttpServer> server = new CompletableFuture<>();
+    vertx.createHttpServer().requestHandler(router::accept).listen(0, "localhost", result -> {
+      if (result.succeeded()) {
+        server.complete(result.result());
+      } else {
+        server.completeExceptionally(result.cause());
+      }
+    });
+    return server.get(10, TimeUnit.SECONDS).actualPort();
+  }
+
+  // The tracing handler is only added once the tracer was built on a worker thread
+  private static void awaitTracing(Router router) throws InterruptedException {
+    for (int i = 0; i < 100 && router.getRoutes().size() < 2; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(2, router.getRoutes().size());
+  }
+
+  private static Span invoke(Method currentSpan, Object context) {
+    try {
+      return (Span) currentSpan.invoke(null, context);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DependencyChangeSetTest {
+
+  @Test
+  public void releasesArePinned() {
+    assertTrue(DependencyChangeSet.isRelease("0.20.6"));
+    assertTrue(DependencyChangeSet.isRelease("2017.10.0"));
+    assertTrue(DependencyChangeSet.isRelease("3.7.1.Final"));
+    assertTrue(DependencyChangeSet.isRelease("1.5.9.RELEASE"));
+  }
+
+  @Test
+  public void snapshotsAndPreReleasesAreNot() {
+    assertFalse(DependencyChangeSet.isRelease("1.0.0-SNAPSHOT"));
+    assertFalse(DependencyChangeSet.isRelease("2.0.0-RC1"));
+    assertFalse(DependencyChangeSet.isRelease("3.5.0.Beta2"));
+    assertFalse(DependencyChangeSet.isRelease("1.0.0-alpha-1"));
+    assertFalse(DependencyChangeSet.isRelease("3.0.0.M1"));
+    assertFalse(DependencyChangeSet.isRelease(""));
+  }
+}
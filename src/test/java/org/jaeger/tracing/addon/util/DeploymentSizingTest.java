@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DeploymentSizingTest {
+
+  // 130 spans of 500 bytes fill one packet
+  private static final int SPAN_BYTES = 500;
+  private static final int PACKET = 65000;
+
+  @Test
+  public void flushIntervalFillsOnePacket() {
+    // 130 spans at 500/s
+    assertEquals(260, new DeploymentSizing(500, SPAN_BYTES, PACKET, false).getFlushIntervalMs());
+  }
+
+  @Test
+  public void flushIntervalIsClamped() {
+    assertEquals("Packet full after 13ms", 100,
+                 new DeploymentSizing(10000, SPAN_BYTES, PACKET, false).getFlushIntervalMs());
+    assertEquals("Packet full after 13s", 1000,
+                 new DeploymentSizing(10, SPAN_BYTES, PACKET, false).getFlushIntervalMs());
+    assertEquals("Spans larger than a packet", 100,
+                 new DeploymentSizing(100, PACKET * 2, PACKET, false).getFlushIntervalMs());
+  }
+
+  @Test
+  public void queueHoldsTwoFlushIntervalsButAtLeastOneSecond() {
+    assertEquals("One second at 10000/s", 10000, new DeploymentSizing(10000, SPAN_BYTES, PACKET, false).getQueueSize());
+    assertEquals("One second, as two intervals of 260ms are less", 500,
+                 new DeploymentSizing(500, SPAN_BYTES, PACKET, false).getQueueSize());
+    assertEquals("Two intervals of 1s at 100/s", 200,
+                 new DeploymentSizing(100, SPAN_BYTES, PACKET, false).getQueueSize());
+  }
+
+  @Test
+  public void queueIsClampedToItsMinimum() {
+    assertEquals(100, new DeploymentSizing(10, SPAN_BYTES, PACKET, false).getQueueSize());
+    assertEquals(100, new DeploymentSizing(1, SPAN_BYTES, PACKET, false).getQueueSize());
+  }
+
+  @Test
+  public void filterBuffersSpansOfTheFilterWindow() {
+    assertEquals(10000 * DeploymentSizing.FILTER_BUFFER_MS / 1000,
+                 new DeploymentSizing(10000, SPAN_BYTES, PACKET, true).getFilterMaxSpans());
+    assertEquals("Minimum", 1000, new DeploymentSizing(10, SPAN_BYTES, PACKET, true).getFilterMaxSpans());
+    assertEquals("Without the filter", 0, new DeploymentSizing(10000, SPAN_BYTES, PACKET, false).getFilterMaxSpans());
+  }
+
+  @Test
+  public void memoryLimitIsRoundedUpTo16Mi() {
+    // 100 spans * 500 bytes * 3 + 2 packets, less than 1Mi, so 251Mi
+    assertEquals(256, new DeploymentSizing(10, SPAN_BYTES, PACKET, false).getMemoryLimitMi());
+    // (10000 + 100000) spans * 1500 bytes + 2 packets is 158Mi, so 408Mi
+    assertEquals(416, new DeploymentSizing(10000, SPAN_BYTES, PACKET, true).getMemoryLimitMi());
+    assertEquals("416Mi", new DeploymentSizing(10000, SPAN_BYTES, PACKET, true).getMemoryLimit());
+  }
+
+  @Test
+  public void memoryLimitOnAStepIsKept() {
+    // 1024 spans * 2048 bytes * 3 is exactly 6Mi, without packets
+    assertEquals(256, new DeploymentSizing(1024, 2048, 0, false).getMemoryLimitMi());
+    // One byte more per span takes the next step
+    assertEquals(272, new DeploymentSizing(1024, 2049, 0, false).getMemoryLimitMi());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void spansPerSecondMustBePositive() {
+    new DeploymentSizing(0, SPAN_BYTES, PACKET, false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void spanSizeMustBePositive() {
+    new DeploymentSizing(100, 0, PACKET, false);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jboss.forge.roaster.Roaster;
+import org.jboss.forge.roaster.model.Visibility;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.junit.Test;
+
+public class MethodSpanWrapperTest {
+
+  private static final String ORDERS = "package com.example;\n"
+      + "public class Orders {\n"
+      + "  private String name;\n"
+      + "  @GET public String list() { return \"all\"; }\n"
+      + "  public int findOrders(int n) { int sum = 0; for (int i = 0; i < n; i++) { sum += price(i); } return sum; }\n"
+      + "  public int price(int i) { int p = i * 2; p += 1; return p; }\n"
+      + "  public String getName() { return name; }\n"
+      + "  public void save(String span) { System.out.println(span); System.out.println(name); }\n"
+      + "}";
+
+  @Test
+  public void wrapsSelectedMethodsOnly() {
+    JavaClassSource source = Roaster.parse(JavaClassSource.class, ORDERS);
+    MethodSpanWrapper wrapper = new MethodSpanWrapper("find*|save|price|get*", Collections.singleton("GET"), null,
+                                                      false);
+
+    List<String> wrapped = wrapper.wrapMethods(source);
+
+    // price() is called in a loop and getName() is a getter, list() is an entry point despite its single statement
+    assertEquals(Arrays.asList("list", "findOrders", "save"), wrapped);
+    assertTrue(source.getField("FIND_ORDERS_OPERATION").isStatic());
+    assertEquals("\"Orders.findOrders\"", source.getField("FIND_ORDERS_OPERATION").getLiteralInitializer());
+    assertTrue(code(source.getMethod("findOrders", int.class).getBody())
+                   .startsWith("try(ActiveSpanspan=tracer().buildSpan(FIND_ORDERS_OPERATION).startActive()){"));
+    // A parameter called span is not shadowed
+    assertTrue(code(source.getMethod("save", String.class).getBody()).startsWith("try(ActiveSpantracingSpan="));
+    assertFalse(source.getMethod("price", int.class).getBody().contains("buildSpan"));
+    assertTrue(source.hasField("tracer"));
+    assertTrue(source.hasImport("io.opentracing.ActiveSpan"));
+  }
+
+  @Test
+  public void wrappingIsIdempotent() {
+    JavaClassSource source = Roaster.parse(JavaClassSource.class, ORDERS);
+    MethodSpanWrapper wrapper = new MethodSpanWrapper("find*", Collections.emptySet(), null, true);
+    wrapper.wrapMethods(source);
+    String once = source.toString();
+
+    JavaClassSource reparsed = Roaster.parse(JavaClassSource.class, once);
+    assertFalse(reparsed.getSyntaxErrors().toString(), reparsed.hasSyntaxErrors());
+    assertEquals(Collections.emptyList(), wrapper.wrapMethods(reparsed));
+    assertEquals(once, reparsed.toString());
+  }
+
+  @Test
+  public void tracerFallsBackToTheGlobalTracer() {
+    JavaClassSource source = Roaster.parse(JavaClassSource.class, ORDERS);
+    MethodSpanWrapper wrapper = new MethodSpanWrapper("find*", Collections.emptySet(), Visibility.PRIVATE, false);
+    wrapper.wrapMethods(source);
+
+    assertEquals("returntracer!=null?tracer:io.opentracing.util.GlobalTracer.get();",
+                 code(source.getMethod("tracer").getBody()));
+    assertTrue(source.getMethod("tracer").isPrivate());
+    // Selected by its visibility, but wrapping it would recurse
+    assertEquals(Collections.emptyList(), wrapper.wrapMethods(source));
+  }
+
+  @Test
+  public void spansOnTheTracerFieldCountAsWrapped() {
+    JavaClassSource source = Roaster.parse(JavaClassSource.class, ORDERS.replace(
+        "public int price(int i) { ", "public int price(int i) { try (ActiveSpan span = tracer.buildSpan(\"p\").startActive()) { ")
+        .replace("p += 1; return p; }", "p += 1; return p; } }"));
+    assertTrue(MethodSpanWrapper.isWrapped(source.getMethod("price", int.class)));
+  }
+
+  @Test
+  public void noopFastPathSkipsBuildingTheSpan() {
+    JavaClassSource source = Roaster.parse(JavaClassSource.class, ORDERS);
+    new MethodSpanWrapper("find*", Collections.emptySet(), null, true).wrapMethods(source);
+
+    assertTrue(source.hasImport("io.opentracing.NoopTracer"));
+    String body = code(source.getMethod("findOrders", int.class).getBody());
+    assertTrue(body, body.startsWith("ActiveSpanspan=tracer()instanceofNoopTracer?null:"
+        + "tracer().buildSpan(FIND_ORDERS_OPERATION).startActive();try{"));
+    assertTrue(body, body.endsWith("finally{if(span!=null){span.close();}}"));
+  }
+
+  @Test
+  public void constantNames() {
+    assertEquals("FIND_ALL", MethodSpanWrapper.constantName("findAll"));
+    assertEquals("MY_SPAN", MethodSpanWrapper.constantName("my-span"));
+    assertEquals("_1ST", MethodSpanWrapper.constantName("1st"));
+  }
+
+  // Roaster formats the bodies it returns, so they are compared without whitespace
+  private static String code(String body) {
+    return body.replaceAll("\\s+", "");
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SourceAnnotationIndexTest {
+
+  private static final String SBA = "org.springframework.boot.autoconfigure.SpringBootApplication";
+
+  private Path sources;
+  private File cache;
+
+  @Before
+  public void createSources() throws IOException {
+    Path project = Files.createTempDirectory("annotation-index");
+    sources = project.resolve("src/main/java");
+    cache = project.resolve("target/jaeger-addon/source-annotations.idx").toFile();
+    write("com/acme/Application.java", "package com.acme;\n"
+        + "import org.springframework.boot.autoconfigure.SpringBootApplication;\n"
+        + "@SpringBootApplication\n"
+        + "public class Application {}\n");
+    write("com/acme/rest/Orders.java", "package com.acme.rest;\n"
+        + "@javax.ws.rs.Path(\"/orders\")\n"
+        + "public class Orders {}\n");
+  }
+
+  @Test
+  public void findsTypeAnnotations() throws IOException {
+    SourceAnnotationIndex index = load();
+
+    assertEquals(Collections.singleton("com.acme.Application"), index.getTypesAnnotatedWith(SBA));
+    assertEquals(Collections.singleton("com.acme.rest.Orders"), index.getTypesAnnotatedWith("javax.ws.rs.Path"));
+    assertTrue(index.getTypesAnnotatedWith("javax.ejb.Stateless").isEmpty());
+    assertTrue(cache.exists());
+  }
+
+  @Test
+  public void onlyChangedSourcesAreParsedAgain() throws IOException {
+    load();
+    // Unchanged sources are taken from the cache as they are, which this entry gives away
+    List<String> lines = Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8);
+    for (int i = 0; i < lines.size(); i++) {
+      lines.set(i, lines.get(i).replace("com.acme.rest.Orders=javax.ws.rs.Path", "com.acme.rest.Orders=from.Cache"));
+    }
+    Files.write(cache.toPath(), lines, StandardCharsets.UTF_8);
+    File application = write("com/acme/Application.java", "package com.acme;\n"
+        + "public class Application {}\n");
+    assertTrue(application.setLastModified(application.lastModified() + 2000));
+
+    SourceAnnotationIndex index = load();
+
+    assertTrue("Changed, so parsed again", index.getTypesAnnotatedWith(SBA).isEmpty());
+    assertEquals(Collections.singleton("com.acme.rest.Orders"), index.getTypesAnnotatedWith("from.Cache"));
+  }
+
+  @Test
+  public void deletedSourcesAreDropped() throws IOException {
+    load();
+    Files.delete(sources.resolve("com/acme/Application.java"));
+
+    assertTrue(load().getTypesAnnotatedWith(SBA).isEmpty());
+    String written = new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8);
+    assertFalse(written, written.contains("Application"));
+    assertTrue(written, written.contains("com/acme/rest/Orders.java"));
+  }
+
+  @Test
+  public void corruptCacheIsRebuilt() throws IOException {
+    for (String corrupt : Arrays.asList("garbage", "#jaeger-annotation-index 1\ncom/acme/Application.java|x|y|z",
+                                        "#jaeger-annotation-index 1\nno separators", "")) {
+      Files.createDirectories(cache.getParentFile().toPath());
+      Files.write(cache.toPath(), corrupt.getBytes(StandardCharsets.UTF_8));
+
+      assertEquals(corrupt, Collections.singleton("com.acme.Application"), load().getTypesAnnotatedWith(SBA));
+      assertTrue(new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8)
+                     .startsWith("#jaeger-annotation-index 1"));
+    }
+  }
+
+  @Test
+  public void unparsableSourcesAreLeftOut() throws IOException {
+    write("com/acme/Broken.java", "package com.acme;\n@SpringBootApplication public class {");
+
+    assertEquals(Collections.singleton("com.acme.Application"), load().getTypesAnnotatedWith(SBA));
+  }
+
+  @Test
+  public void missingSourceDirectoryIsEmpty() throws IOException {
+    SourceAnnotationIndex index = SourceAnnotationIndex.load(sources.resolve("missing").toFile(), cache);
+    assertTrue(index.getTypesAnnotatedWith(SBA).isEmpty());
+  }
+
+  private SourceAnnotationIndex load() throws IOException {
+    return SourceAnnotationIndex.load(sources.toFile(), cache);
+  }
+
+  private File write(String path, String source) throws IOException {
+    Path file = sources.resolve(path);
+    Files.createDirectories(file.getParent());
+    return Files.write(file, source.getBytes(StandardCharsets.UTF_8)).toFile();
+  }
+}
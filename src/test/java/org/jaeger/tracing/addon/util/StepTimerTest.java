@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class StepTimerTest {
+
+  private static final Pattern STEP = Pattern.compile(
+      "\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"depth\":(\\d+),\"ms\":(\\d+\\.\\d{3})\\}");
+
+  @Test
+  public void nestedPhasesAreIndented() throws Exception {
+    StepTimer timer = timed();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    timer.printBreakdown(new PrintStream(buffer, true));
+
+    String[] lines = buffer.toString().split("\\R");
+    assertEquals("Timing breakdown:", lines[0]);
+    assertTrue(lines[1], lines[1].matches("  dependencies +\\d+\\.\\d ms +\\d+\\.\\d%"));
+    assertTrue(lines[2], lines[2].matches("  templates +\\d+\\.\\d ms +\\d+\\.\\d%"));
+    assertTrue(lines[3], lines[3].matches("    write \"pom\" +\\d+\\.\\d ms +\\d+\\.\\d%"));
+    assertTrue(lines[4], lines[4].matches("  total +\\d+\\.\\d ms"));
+    assertEquals(5, lines.length);
+  }
+
+  @Test
+  public void jsonHasOneStepPerPhase() throws Exception {
+    String json = timed().toJson();
+
+    assertTrue(json, json.matches("\\{\"totalMs\":\\d+\\.\\d{3},\"steps\":\\[.*\\]\\}"));
+    Matcher step = STEP.matcher(json);
+    assertTrue(step.find());
+    assertEquals("dependencies", step.group(1));
+    assertEquals("0", step.group(2));
+    assertTrue(step.find());
+    assertEquals("templates", step.group(1));
+    assertTrue(step.find());
+    // Quotes in names are escaped
+    assertEquals("write \\\"pom\\\"", step.group(1));
+    assertEquals("1", step.group(2));
+    assertTrue(Double.parseDouble(step.group(3)) >= 5);
+  }
+
+  @Test
+  public void closingTwiceKeepsTheDepth() {
+    StepTimer timer = new StepTimer();
+    StepTimer.Split first = timer.start("first");
+    first.close();
+    first.close();
+    timer.start("second").close();
+
+    assertTrue(timer.toJson().contains("{\"name\":\"second\",\"depth\":0,"));
+  }
+
+  private static StepTimer timed() throws InterruptedException {
+    StepTimer timer = new StepTimer();
+    try (StepTimer.Split s = timer.start("dependencies")) {
+      Thread.sleep(1);
+    }
+    try (StepTimer.Split s = timer.start("templates")) {
+      try (StepTimer.Split w = timer.start("write \"pom\"")) {
+        Thread.sleep(5);
+      }
+    }
+    return timer;
+  }
+}
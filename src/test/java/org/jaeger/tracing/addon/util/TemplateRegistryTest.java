@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import freemarker.template.Template;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jboss.forge.roaster.model.source.JavaClassSource;
+import org.jboss.forge.roaster.model.source.JavaInterfaceSource;
+import org.junit.After;
+import org.junit.Test;
+
+public class TemplateRegistryTest {
+
+  private static final String TEMPLATE = "TracingSkipMatcher.java.ftl";
+
+  @After
+  public void invalidate() {
+    TemplateRegistry.invalidate();
+  }
+
+  @Test
+  public void parsesEachTemplateOnce() {
+    Template first = TemplateRegistry.getTemplate(TEMPLATE);
+    assertSame(first, TemplateRegistry.getTemplate(TEMPLATE));
+  }
+
+  @Test
+  public void concurrentLookupsShareOneTemplate() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Template>> lookups = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        lookups.add(executor.submit(() -> TemplateRegistry.getTemplate(TEMPLATE)));
+      }
+      Template expected = lookups.get(0).get();
+      for (Future<Template> lookup : lookups) {
+        assertSame(expected, lookup.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void invalidateParsesAgain() {
+    Template before = TemplateRegistry.getTemplate(TEMPLATE);
+    TemplateRegistry.invalidate();
+    assertNotSame(before, TemplateRegistry.getTemplate(TEMPLATE));
+  }
+
+  @Test
+  public void rendersFromTheCachedTemplate() {
+    Map<String, Object> model = new HashMap<>();
+    model.put("skipPaths", "/health/**");
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(log, true);
+
+    JavaClassSource first = WriteClassHelper.writeClassFromTemplate("com.example", TEMPLATE, model, out);
+    Template cached = TemplateRegistry.getTemplate(TEMPLATE);
+    JavaClassSource second = WriteClassHelper.writeClassFromTemplate("com.example", TEMPLATE, model, out);
+
+    assertSame(cached, TemplateRegistry.getTemplate(TEMPLATE));
+    assertEquals("com.example.TracingSkipMatcher", second.getQualifiedName());
+    assertEquals(first.toString(), second.toString());
+    assertTrue(log.toString().contains("Applying template " + TEMPLATE));
+  }
+
+  @Test
+  public void rendersInterfaces() {
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+    JavaInterfaceSource mxBean = WriteClassHelper.writeInterfaceFromTemplate("com.example", "RedMetricsMXBean.java.ftl",
+                                                                             new HashMap<>(), new PrintStream(log, true));
+
+    assertEquals("com.example.RedMetricsMXBean", mxBean.getQualifiedName());
+    assertTrue(mxBean.hasMethodSignature("getPrometheusText"));
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jaeger.tracing.addon.util;
+
+import static org.junit.Assert.assertEquals;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Renders a template the way WriteClassHelper did before the TemplateRegistry, with a
+ * new Configuration that parses the template on every call, and through the registry.
+ * Not a *Test, so the build does not run it; run it with
+ * <pre>
+ *   mvn test -Dtest=TemplateRenderBenchmark
+ * </pre>
+ * and compare the printed times per render. Only Freemarker is measured, parsing the
+ * result with Roaster costs the same either way.
+ */
+public class TemplateRenderBenchmark {
+
+  private static final String TEMPLATE = "TracingSkipMatcher.java.ftl";
+  private static final int WARMUP = 500;
+  private static final int RENDERS = 5_000;
+
+  private final Map<String, Object> model = Collections.singletonMap("skipPaths", "/health/**,/metrics/**,*.css");
+
+  @After
+  public void invalidate() {
+    TemplateRegistry.invalidate();
+  }
+
+  @Test
+  public void freshConfigurationAgainstRegistry() throws Exception {
+    assertEquals(renderWithFreshConfiguration(), renderWithRegistry());
+
+    long fresh = measure(this::renderWithFreshConfiguration);
+    long registry = measure(this::renderWithRegistry);
+
+    System.out.println(String.format(Locale.ROOT, "%s, %d renders each:%n"
+                                         + "  fresh Configuration %9.2f us/render%n"
+                                         + "  TemplateRegistry    %9.2f us/render%n"
+                                         + "  speedup             %9.1fx",
+                                     TEMPLATE, RENDERS, micros(fresh), micros(registry),
+                                     registry == 0 ? 0.0 : (double) fresh / registry));
+  }
+
+  // Before: a Configuration per call, so nothing is cached
+  private String renderWithFreshConfiguration() throws IOException, TemplateException {
+    Configuration config = new Configuration();
+    config.setClassForTemplateLoading(TemplateRenderBenchmark.class, "/");
+    return render(config.getTemplate("templates/" + TEMPLATE));
+  }
+
+  private String renderWithRegistry() throws IOException, TemplateException {
+    return render(TemplateRegistry.getTemplate(TEMPLATE));
+  }
+
+  private String render(Template template) throws IOException, TemplateException {
+    StringWriter out = new StringWriter();
+    template.process(model, out);
+    return out.toString();
+  }
+
+  /**
+   * @return nanoseconds per render, after a warm up
+   */
+  private static long measure(Render render) throws Exception {
+    int length = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      length += render.render().length();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < RENDERS; i++) {
+      length += render.render().length();
+    }
+    long nanos = (System.nanoTime() - start) / RENDERS;
+    // Uses the results, so the renders cannot be optimized away
+    if (length == 0) {
+      throw new AssertionError("Nothing rendered");
+    }
+    return nanos;
+  }
+
+  private static double micros(long nanos) {
+    return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+  }
+
+  private interface Render {
+    String render() throws IOException, TemplateException;
+  }
+}